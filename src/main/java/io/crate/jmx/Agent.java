@@ -23,12 +23,24 @@
 package io.crate.jmx;
 
 import com.sun.net.httpserver.HttpHandler;
+import io.crate.jmx.history.HistorySampler;
+import io.crate.jmx.history.HistoryStatistics;
+import io.crate.jmx.http.HttpHistoryHandler;
+import io.crate.jmx.http.HttpHotThreadsHandler;
 import io.crate.jmx.http.HttpMetricHandler;
 import io.crate.jmx.http.HttpReadyHandler;
 import io.crate.jmx.http.HttpServer;
-import io.prometheus.client.hotspot.DefaultExports;
+import io.crate.jmx.jvm.HotThreads;
+import io.crate.jmx.jvm.JvmExports;
+import io.crate.jmx.push.OtlpProtocol;
+import io.crate.jmx.push.PushExporter;
+import io.crate.jmx.push.PushSettings;
+import io.crate.jmx.push.PushStatistics;
+import io.crate.jmx.push.RemoteWriteProtocol;
+import io.prometheus.client.CollectorRegistry;
 
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 
 /**
@@ -74,7 +86,7 @@ public class Agent {
             socket = new InetSocketAddress(host, port);
         }
 
-        DefaultExports.initialize();
+        JvmExports.initialize(instrumentation);
 
         SERVER = new HttpServer(socket, true);
 
@@ -83,11 +95,45 @@ public class Agent {
         SERVER.registerHandler("/metrics", mHandler);
 
         MBeanAttributeValueStorage beanAttributeValueStorage = new MBeanAttributeValueStorage();
-        CrateCollector crateCollector = new CrateCollector(beanAttributeValueStorage::put).register();
+        CrateCollector crateCollector = new CrateCollector(beanAttributeValueStorage).register();
 
         HttpHandler readyHandler = new HttpReadyHandler(crateCollector, beanAttributeValueStorage);
         SERVER.registerHandler("/ready", readyHandler);
 
+        if (AgentSettings.getBoolean("history.enabled", false)) {
+            HistorySampler historySampler = HistorySampler.fromAgentSettings(crateCollector);
+            historySampler.start();
+            new HistoryStatistics(historySampler).register();
+            SERVER.registerHandler("/history", new HttpHistoryHandler(historySampler));
+        }
+
+        if (AgentSettings.getBoolean("debug.hot_threads.enabled", false)) {
+            SERVER.registerHandler(
+                "/debug/hot_threads", new HttpHotThreadsHandler(new HotThreads(ManagementFactory.getThreadMXBean())));
+        }
+
+        PushSettings remoteWrite = PushSettings.fromAgentSettings("remote_write");
+        PushSettings otlp = PushSettings.fromAgentSettings("otlp");
+        if (remoteWrite != null || otlp != null) {
+            PushStatistics pushStatistics = new PushStatistics().register();
+            if (remoteWrite != null) {
+                PushExporter.create(
+                    CollectorRegistry.defaultRegistry,
+                    new RemoteWriteProtocol(remoteWrite.labels()),
+                    remoteWrite
+                ).start(pushStatistics);
+            }
+            if (otlp != null) {
+                beanAttributeValueStorage.register(OtlpProtocol.NODE_ID_ATTRIBUTE);
+                beanAttributeValueStorage.register(OtlpProtocol.NODE_NAME_ATTRIBUTE);
+                PushExporter.create(
+                    CollectorRegistry.defaultRegistry,
+                    new OtlpProtocol(otlp.labels(), beanAttributeValueStorage::get),
+                    otlp
+                ).start(pushStatistics);
+            }
+        }
+
         SERVER.start(true);
     }
 
@@ -0,0 +1,195 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Optional agent settings, read from system properties prefixed with {@code crate.jmx.}, e.g.
+ * {@code -Dcrate.jmx.remote_write.url=http://localhost:9090/api/v1/write}.
+ *
+ * Invalid values result in an {@link IllegalArgumentException}, so that a misconfigured agent fails on startup.
+ */
+public final class AgentSettings {
+
+    public static final String PREFIX = "crate.jmx.";
+
+    private AgentSettings() {
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, e);
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.toLowerCase(Locale.ENGLISH)) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                throw invalid(key, value, null);
+        }
+    }
+
+    /**
+     * Reads a duration like {@code 500ms}, {@code 15s}, {@code 5m}, {@code 1h} or {@code 2d}.
+     * A value without unit is interpreted as milliseconds.
+     *
+     * @return the duration in milliseconds
+     */
+    public static long getMillis(String key, String defaultValue) {
+        String value = get(key, defaultValue);
+        try {
+            return parseMillis(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, e);
+        }
+    }
+
+    /**
+     * Reads a size like {@code 512kb}, {@code 16mb} or {@code 1gb}. A value without unit is interpreted as bytes.
+     *
+     * @return the size in bytes
+     */
+    public static long getBytes(String key, String defaultValue) {
+        String value = get(key, defaultValue);
+        try {
+            return parseBytes(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, e);
+        }
+    }
+
+    /**
+     * Reads a comma separated list of values, empty entries are ignored.
+     */
+    public static List<String> getList(String key, String defaultValue) {
+        String value = get(key, defaultValue);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.trim().isEmpty()) {
+                result.add(entry.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a comma separated list of {@code key=value} pairs, preserving their order.
+     */
+    public static Map<String, String> getMap(String key, String defaultValue) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String entry : getList(key, defaultValue)) {
+            int idx = entry.indexOf('=');
+            if (idx <= 0) {
+                throw invalid(key, entry, null);
+            }
+            result.put(entry.substring(0, idx).trim(), entry.substring(idx + 1).trim());
+        }
+        return result;
+    }
+
+    /**
+     * Parses a duration, see {@link #getMillis(String, String)}.
+     *
+     * @throws NumberFormatException if the value is not a valid duration
+     */
+    public static long parseMillis(String value) {
+        String v = value.trim().toLowerCase(Locale.ENGLISH);
+        if (v.isEmpty()) {
+            throw new NumberFormatException("Empty duration");
+        }
+        if (v.endsWith("ms")) {
+            return Long.parseLong(v.substring(0, v.length() - 2).trim());
+        }
+        long factor;
+        switch (v.charAt(v.length() - 1)) {
+            case 's':
+                factor = 1000L;
+                break;
+            case 'm':
+                factor = 60 * 1000L;
+                break;
+            case 'h':
+                factor = 60 * 60 * 1000L;
+                break;
+            case 'd':
+                factor = 24 * 60 * 60 * 1000L;
+                break;
+            default:
+                return Long.parseLong(v);
+        }
+        return Long.parseLong(v.substring(0, v.length() - 1).trim()) * factor;
+    }
+
+    static long parseBytes(String value) {
+        String v = value.trim().toLowerCase(Locale.ENGLISH);
+        long factor = 1;
+        if (v.endsWith("kb")) {
+            factor = 1024L;
+        } else if (v.endsWith("mb")) {
+            factor = 1024L * 1024;
+        } else if (v.endsWith("gb")) {
+            factor = 1024L * 1024 * 1024;
+        } else if (v.endsWith("b")) {
+            v = v.substring(0, v.length() - 1);
+        }
+        if (factor > 1) {
+            v = v.substring(0, v.length() - 2);
+        }
+        return Long.parseLong(v.trim()) * factor;
+    }
+
+    private static IllegalArgumentException invalid(String key, String value, Exception cause) {
+        return new IllegalArgumentException("Invalid value '" + value + "' for setting " + PREFIX + key, cause);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches attribute values of MBeans which emit {@link AttributeChangeNotification}s, so they don't need to be
+ * polled on every scrape.
+ *
+ * An attribute is only served from the cache once a notification was received for it, attributes without
+ * notifications are still polled. Cached attributes are polled again after the reconcile interval, in case a
+ * notification got lost. Every cached value carries a sequence number, so a polled value never replaces the value
+ * of a notification received while polling.
+ */
+final class AttributeNotifications {
+
+    private static final Logger LOGGER = Logger.getLogger(AttributeNotifications.class.getName());
+
+    /**
+     * Returned by {@link #cachedValue(ObjectName, String)} if the attribute must be polled.
+     */
+    static final Object POLL = new Object();
+
+    private static final NotificationFilter ATTRIBUTE_CHANGES = n -> n instanceof AttributeChangeNotification;
+
+    private final MBeanServer server;
+    private final long reconcileIntervalNanos;
+    private final LongSupplier nanoTime;
+    private final Map<ObjectName, Map<String, CachedValue>> subscriptions = new ConcurrentHashMap<>();
+    private final NotificationListener listener = this::handleNotification;
+    private final AtomicLong sequence = new AtomicLong();
+
+    AttributeNotifications(MBeanServer server, long reconcileIntervalMs) {
+        this(server, reconcileIntervalMs, System::nanoTime);
+    }
+
+    AttributeNotifications(MBeanServer server, long reconcileIntervalMs, LongSupplier nanoTime) {
+        this.server = server;
+        this.reconcileIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reconcileIntervalMs);
+        this.nanoTime = nanoTime;
+        try {
+            server.addNotificationListener(
+                MBeanServerDelegate.DELEGATE_NAME,
+                (notification, handback) -> unsubscribe(((MBeanServerNotification) notification).getMBeanName()),
+                n -> MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(n.getType()),
+                null
+            );
+        } catch (InstanceNotFoundException e) {
+            // the delegate is always registered
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Subscribes to the attribute change notifications of the given MBean, if it emits any.
+     */
+    void subscribe(ObjectName name, MBeanInfo info) {
+        if (subscriptions.containsKey(name) || !emitsAttributeChanges(info)) {
+            return;
+        }
+        if (subscriptions.putIfAbsent(name, new ConcurrentHashMap<>()) != null) {
+            return;
+        }
+        try {
+            server.addNotificationListener(name, listener, ATTRIBUTE_CHANGES, name);
+        } catch (InstanceNotFoundException e) {
+            subscriptions.remove(name);
+        }
+    }
+
+    /**
+     * @return the value of the last notification, or {@link #POLL} if the attribute must be polled
+     */
+    Object cachedValue(ObjectName name, String attrName) {
+        Map<String, CachedValue> attributes = subscriptions.get(name);
+        if (attributes == null) {
+            return POLL;
+        }
+        CachedValue cached = attributes.get(attrName);
+        if (cached == null || nanoTime.getAsLong() - cached.updatedAt >= reconcileIntervalNanos) {
+            return POLL;
+        }
+        return cached.value;
+    }
+
+    /**
+     * @return the sequence number to pass to {@link #polled(ObjectName, String, Object, long)}, must be taken
+     *         before polling the attribute
+     */
+    long pollSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Refreshes the cached value of a notifying attribute with a polled value, unless a notification was received
+     * since the given sequence number was taken.
+     */
+    void polled(ObjectName name, String attrName, Object value, long pollSequence) {
+        Map<String, CachedValue> attributes = subscriptions.get(name);
+        if (attributes != null) {
+            attributes.computeIfPresent(
+                attrName,
+                (k, cached) -> cached.sequence > pollSequence
+                    ? cached
+                    : new CachedValue(value, nanoTime.getAsLong(), pollSequence)
+            );
+        }
+    }
+
+    /**
+     * The handback is the name of the MBean, the notification source may be an arbitrary object.
+     */
+    private void handleNotification(Notification notification, Object handback) {
+        AttributeChangeNotification change = (AttributeChangeNotification) notification;
+        Map<String, CachedValue> attributes = subscriptions.get((ObjectName) handback);
+        if (attributes != null) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "attribute change: " + handback + " " + change.getAttributeName());
+            }
+            attributes.put(
+                change.getAttributeName(),
+                new CachedValue(change.getNewValue(), nanoTime.getAsLong(), sequence.incrementAndGet())
+            );
+        }
+    }
+
+    private void unsubscribe(ObjectName name) {
+        if (subscriptions.remove(name) != null) {
+            try {
+                server.removeNotificationListener(name, listener);
+            } catch (InstanceNotFoundException | ListenerNotFoundException ignored) {
+                // already unregistered together with the MBean
+            }
+        }
+    }
+
+    private static boolean emitsAttributeChanges(MBeanInfo info) {
+        for (MBeanNotificationInfo notificationInfo : info.getNotifications()) {
+            if (Arrays.asList(notificationInfo.getNotifTypes()).contains(AttributeChangeNotification.ATTRIBUTE_CHANGE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class CachedValue {
+
+        private final Object value;
+        private final long updatedAt;
+        private final long sequence;
+
+        CachedValue(Object value, long updatedAt, long sequence) {
+            this.value = value;
+            this.updatedAt = updatedAt;
+            this.sequence = sequence;
+        }
+    }
+}
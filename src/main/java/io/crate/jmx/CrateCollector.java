@@ -24,6 +24,7 @@ package io.crate.jmx;
 
 import io.crate.jmx.recorder.Recorder;
 import io.crate.jmx.recorder.RecorderRegistry;
+import io.crate.jmx.rules.RuleSet;
 import io.prometheus.client.Collector;
 
 import javax.management.InstanceNotFoundException;
@@ -38,17 +39,16 @@ import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.CompositeDataSupport;
 import java.lang.management.ManagementFactory;
-import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -72,34 +72,69 @@ public class CrateCollector extends Collector {
     private static final Pattern MULTIPLE_UNDERSCORES = Pattern.compile("__+");
 
     private final MBeanServer beanConn;
-    private final BiConsumer<String, Object> beanValueConsumer;
+    private final MBeanAttributeValueStorage attributeValueStorage;
+    private final AttributeNotifications attributeNotifications;
     private final Map<String, MetricFamilySamples> metricFamilySamplesMap = new HashMap<>();
-    private final MBeanPropertyCache MBeanPropertyCache = new MBeanPropertyCache();
+    private final MBeanPropertyCache MBeanPropertyCache;
+    private final RuleSet rules;
 
-    CrateCollector(BiConsumer<String, Object> beanValueConsumer) {
+    CrateCollector(MBeanAttributeValueStorage attributeValueStorage) {
         beanConn = ManagementFactory.getPlatformMBeanServer();
-        this.beanValueConsumer = beanValueConsumer;
+        this.attributeValueStorage = attributeValueStorage;
+        this.MBeanPropertyCache = new MBeanPropertyCache(beanConn, AgentSettings.getInt("mbean_property_cache.max_size", 10_000));
+        this.attributeNotifications = new AttributeNotifications(
+            beanConn, AgentSettings.getMillis("notifications.reconcile_interval", "5m"));
+        this.rules = RuleSet.fromAgentSettings();
     }
 
+    /**
+     * Collects all MBeans and evaluates the recording rules, if configured, on the collected families.
+     */
     @Override
-    public List<MetricFamilySamples> collect() {
-        return collect("*");
+    public synchronized List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> families = collect("*");
+        return rules == null ? families : rules.evaluate(families);
     }
 
-    public List<MetricFamilySamples> collect(String mBeanNamePattern) {
+    /**
+     * Collects the MBeans matching the given pattern and publishes their attribute values to the
+     * {@link MBeanAttributeValueStorage}. Collects are serialized, as they record into shared structures.
+     */
+    public synchronized List<MetricFamilySamples> collect(String mBeanNamePattern) {
+        boolean full = mBeanNamePattern.equals("*");
+        attributeValueStorage.begin(full ? name -> true : collectedMBeans(mBeanNamePattern));
         metricFamilySamplesMap.clear();
-        RecorderRegistry.resetRecorders();
+        RecorderRegistry.resetRecorders(full);
         for (ObjectName mBeanName : resolveMBean(CRATE_DOMAIN  + ":" + mBeanNamePattern)) {
             try {
                 MBeanInfo mBeanInfo = beanConn.getMBeanInfo(mBeanName);
+                attributeNotifications.subscribe(mBeanName, mBeanInfo);
                 scrapeMBean(mBeanInfo, mBeanName);
             } catch (InstanceNotFoundException | IntrospectionException | ReflectionException e) {
                 LOGGER.log(Level.SEVERE, "Cannot get MBean info for " + mBeanName.getCanonicalName(), e);
             }
         }
+        RecorderRegistry.endCollect(CRATE_DOMAIN_REPLACEMENT, this::addSample);
+        attributeValueStorage.publish();
         return new ArrayList<>(metricFamilySamplesMap.values());
     }
 
+    /**
+     * Attribute values are stored by the MBean type, so only the values of the type of the given pattern
+     * are collected again.
+     */
+    private static Predicate<String> collectedMBeans(String mBeanNamePattern) {
+        try {
+            String type = new ObjectName(CRATE_DOMAIN + ":" + mBeanNamePattern).getKeyProperty("type");
+            if (type != null && type.indexOf('*') == -1 && type.indexOf('?') == -1) {
+                return type::equals;
+            }
+        } catch (MalformedObjectNameException ignored) {
+            // logged when resolving the MBeans
+        }
+        return name -> true;
+    }
+
     private void scrapeMBean(MBeanInfo mBeanInfo, ObjectName mBeanName) {
         MBeanAttributeInfo[] attrInfos = mBeanInfo.getAttributes();
 
@@ -109,12 +144,16 @@ public class CrateCollector extends Collector {
                 continue;
             }
 
-            Object value;
-            try {
-                value = beanConn.getAttribute(mBeanName, attr.getName());
-            } catch (Exception e) {
-                logScrape(mBeanName, attr, "Fail: " + e);
-                continue;
+            Object value = attributeNotifications.cachedValue(mBeanName, attr.getName());
+            if (value == AttributeNotifications.POLL) {
+                long pollSequence = attributeNotifications.pollSequence();
+                try {
+                    value = beanConn.getAttribute(mBeanName, attr.getName());
+                } catch (Exception e) {
+                    logScrape(mBeanName, attr, "Fail: " + e);
+                    continue;
+                }
+                attributeNotifications.polled(mBeanName, attr.getName(), value, pollSequence);
             }
 
             logScrape(mBeanName, attr, "process");
@@ -131,7 +170,7 @@ public class CrateCollector extends Collector {
     }
 
     private void processBeanValue(String domain,
-                                  LinkedHashMap<String, String> beanProperties,
+                                  Map<String, String> beanProperties,
                                   String attrName,
                                   String attrType,
                                   String attrDescription,
@@ -147,7 +186,7 @@ public class CrateCollector extends Collector {
         }
     }
 
-    private void recordBean(LinkedHashMap<String, String> beanProperties,
+    private void recordBean(Map<String, String> beanProperties,
                             String attrName,
                             String attrDescription,
                             Object beanValue) {
@@ -155,7 +194,7 @@ public class CrateCollector extends Collector {
         if (!beanProperties.isEmpty()) {
             mBeanName = beanProperties.values().iterator().next();
         }
-        beanValueConsumer.accept(mBeanName + "_" + attrName, beanValue);
+        attributeValueStorage.put(mBeanName, attrName, beanValue);
 
         if (beanValue instanceof Number) {
             recordNumericMBeanValue(
@@ -190,7 +229,7 @@ public class CrateCollector extends Collector {
         }
     }
 
-    private void recordNumericMBeanValue(LinkedHashMap<String, String> beanProperties,
+    private void recordNumericMBeanValue(Map<String, String> beanProperties,
                                          String attrName,
                                          String attrDescription,
                                          Object beanValue,
@@ -207,11 +246,13 @@ public class CrateCollector extends Collector {
             String beanName = CRATE_DOMAIN_REPLACEMENT + angleBrackets(beanProperties.toString());
             // attrDescription tends not to be useful, so give the fully qualified name too.
             String help = attrDescription + " (" + beanName + attrName + ")";
-            defaultExport(CRATE_DOMAIN_REPLACEMENT, mBeanName, attrName, help, value, Type.UNKNOWN);
+            // booleans are known to be gauges, other numeric values could be anything
+            Type type = beanValue instanceof Boolean ? Type.GAUGE : Type.UNKNOWN;
+            defaultExport(CRATE_DOMAIN_REPLACEMENT, mBeanName, attrName, help, value, type);
         }
     }
 
-    private void recordStringArrayMBeanValue(LinkedHashMap<String, String> beanProperties,
+    private void recordStringArrayMBeanValue(Map<String, String> beanProperties,
                                              String attrName,
                                              String attrDescription,
                                              String[] beanValue,
@@ -263,7 +304,6 @@ public class CrateCollector extends Collector {
         }
     }
 
-    @SuppressWarnings("SameParameterValue")
     private void defaultExport(String domain,
                                String mBeanName,
                                String attrName,
@@ -287,16 +327,39 @@ public class CrateCollector extends Collector {
     }
 
     private void addSample(MetricFamilySamples.Sample sample, Type type, String help) {
-        MetricFamilySamples mfs = metricFamilySamplesMap.get(sample.name);
+        String familyName = familyName(sample.name, type);
+        MetricFamilySamples mfs = metricFamilySamplesMap.get(familyName);
         if (mfs == null) {
-            // JmxScraper.MBeanReceiver is only called from one thread,
-            // so there's no race here.
-            mfs = new MetricFamilySamples(sample.name, type, help, new ArrayList<>());
-            metricFamilySamplesMap.put(sample.name, mfs);
+            // collects are serialized, so there's no race here.
+            mfs = new MetricFamilySamples(familyName, type, help, new ArrayList<>());
+            metricFamilySamplesMap.put(familyName, mfs);
         }
         mfs.samples.add(sample);
     }
 
+    /**
+     * Samples of counters are named with a {@code _total} or {@code _created} suffix and samples of histograms
+     * with a {@code _bucket}, {@code _count} or {@code _sum} suffix, while the family is named without it.
+     */
+    static String familyName(String sampleName, Type type) {
+        if (type == Type.COUNTER) {
+            return stripSuffix(sampleName, "_total", "_created");
+        }
+        if (type == Type.HISTOGRAM) {
+            return stripSuffix(sampleName, "_bucket", "_count", "_sum", "_created");
+        }
+        return sampleName;
+    }
+
+    private static String stripSuffix(String name, String... suffixes) {
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return name;
+    }
+
     private static Set<ObjectName> resolveMBean(String mBeanPattern) {
         MBeanServer beanConn = ManagementFactory.getPlatformMBeanServer();
         Set<ObjectName> mBeanNames = new HashSet<>();
@@ -22,28 +22,259 @@
 
 package io.crate.jmx;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
 
 /**
- * Simple wrapper around a map to store and retrieve attribute values of MBean's.
- * Useful if storage and retrieval happens at different classes.
+ * Stores the attribute values of MBean's read by a collect, to retrieve them from other classes.
  *
- * This implementation is thread-safe by using a {@link ConcurrentHashMap} internally.
+ * Only attributes which were {@link #register(String, String) registered} by a consumer are retained, each in a
+ * slot resolved once on registration. Numbers and booleans are held as primitives, other values as objects.
+ *
+ * Values are written into private back slots while collecting and copied to the published slots by
+ * {@link #publish()} within a short write section of a {@link StampedLock}. Readers use optimistic reads, so they
+ * never block the collecting thread, and several attributes read within one stamp are from the same collect.
+ *
+ * Writing ({@link #begin(Predicate)}, {@link #put(String, String, Object)} and {@link #publish()}) must be
+ * serialized by the caller, registering and reading is thread-safe.
  */
 public class MBeanAttributeValueStorage {
 
-    private final Map<String, Object> properties = new ConcurrentHashMap<>();
+    private static final byte ABSENT = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte OBJECT = 4;
+
+    /**
+     * Handle of a registered attribute.
+     */
+    public static final class Attribute {
+
+        private final String mBeanName;
+        private final int slot;
+
+        private Attribute(String mBeanName, int slot) {
+            this.mBeanName = mBeanName;
+            this.slot = slot;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    // mBean name -> attribute name -> registered attribute
+    private final Map<String, Map<String, Attribute>> attributes = new ConcurrentHashMap<>();
+    private Attribute[] registered = new Attribute[0];
+
+    // published slots, guarded by the lock
+    private byte[] kinds = new byte[0];
+    private long[] bits = new long[0];
+    private Object[] objects = new Object[0];
+
+    // back slots, guarded by synchronizing on this
+    private byte[] backKinds = new byte[0];
+    private long[] backBits = new long[0];
+    private Object[] backObjects = new Object[0];
+
+    public synchronized Attribute register(String mBeanName, String attrName) {
+        Map<String, Attribute> byName = attributes.computeIfAbsent(mBeanName, k -> new ConcurrentHashMap<>());
+        Attribute attribute = byName.get(attrName);
+        if (attribute != null) {
+            return attribute;
+        }
+        attribute = new Attribute(mBeanName, registered.length);
+        byName.put(attrName, attribute);
+        int size = registered.length + 1;
+        registered = Arrays.copyOf(registered, size);
+        registered[attribute.slot] = attribute;
+        backKinds = Arrays.copyOf(backKinds, size);
+        backBits = Arrays.copyOf(backBits, size);
+        backObjects = Arrays.copyOf(backObjects, size);
+        long stamp = lock.writeLock();
+        try {
+            kinds = Arrays.copyOf(kinds, size);
+            bits = Arrays.copyOf(bits, size);
+            objects = Arrays.copyOf(objects, size);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return attribute;
+    }
+
+    /**
+     * Registers an attribute by its key {@code <mBeanName>_<attrName>}.
+     */
+    public Attribute register(String key) {
+        int idx = key.indexOf('_');
+        if (idx <= 0) {
+            throw new IllegalArgumentException("Invalid attribute key '" + key + "', must be <mBeanName>_<attrName>");
+        }
+        return register(key.substring(0, idx), key.substring(idx + 1));
+    }
+
+    /**
+     * Starts collecting values into the back slots.
+     *
+     * @param collected selects the MBeans which are collected, the published values of the others are taken over
+     */
+    public synchronized void begin(Predicate<String> collected) {
+        long stamp = lock.readLock();
+        try {
+            for (Attribute attribute : registered) {
+                int slot = attribute.slot;
+                if (collected.test(attribute.mBeanName)) {
+                    backKinds[slot] = ABSENT;
+                    backObjects[slot] = null;
+                } else {
+                    backKinds[slot] = kinds[slot];
+                    backBits[slot] = bits[slot];
+                    backObjects[slot] = objects[slot];
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stores the value if the attribute is registered, otherwise it's ignored.
+     */
+    public synchronized void put(String mBeanName, String attrName, Object value) {
+        Map<String, Attribute> byName = attributes.get(mBeanName);
+        Attribute attribute = byName == null ? null : byName.get(attrName);
+        if (attribute == null) {
+            return;
+        }
+        int slot = attribute.slot;
+        backObjects[slot] = null;
+        if (value instanceof Boolean) {
+            backKinds[slot] = BOOLEAN;
+            backBits[slot] = (Boolean) value ? 1 : 0;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            backKinds[slot] = LONG;
+            backBits[slot] = ((Number) value).longValue();
+        } else if (value instanceof Number) {
+            backKinds[slot] = DOUBLE;
+            backBits[slot] = Double.doubleToRawLongBits(((Number) value).doubleValue());
+        } else {
+            backKinds[slot] = value == null ? ABSENT : OBJECT;
+            backObjects[slot] = value;
+        }
+    }
+
+    /**
+     * Makes the values collected since {@link #begin(Predicate)} visible to readers.
+     */
+    public synchronized void publish() {
+        long stamp = lock.writeLock();
+        try {
+            System.arraycopy(backKinds, 0, kinds, 0, backKinds.length);
+            System.arraycopy(backBits, 0, bits, 0, backBits.length);
+            System.arraycopy(backObjects, 0, objects, 0, backObjects.length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Starts an optimistic read of one or more attributes, the values read by {@link #isPresent(Attribute)},
+     * {@link #getLong(Attribute)}, {@link #getDouble(Attribute)}, {@link #getBoolean(Attribute)} and
+     * {@link #getObject(Attribute)} are only consistent if {@link #validate(long)} succeeds afterwards.
+     *
+     * @return the stamp to validate, 0 if a publish is in progress
+     */
+    public long readStamp() {
+        return lock.tryOptimisticRead();
+    }
+
+    public boolean validate(long stamp) {
+        return lock.validate(stamp);
+    }
+
+    public boolean isPresent(Attribute attribute) {
+        return kind(attribute.slot) != ABSENT;
+    }
+
+    public long getLong(Attribute attribute) {
+        long value = bits(attribute.slot);
+        return kind(attribute.slot) == DOUBLE ? (long) Double.longBitsToDouble(value) : value;
+    }
+
+    public double getDouble(Attribute attribute) {
+        long value = bits(attribute.slot);
+        return kind(attribute.slot) == DOUBLE ? Double.longBitsToDouble(value) : value;
+    }
+
+    public boolean getBoolean(Attribute attribute) {
+        return bits(attribute.slot) != 0;
+    }
+
+    public Object getObject(Attribute attribute) {
+        return object(attribute.slot);
+    }
 
-    public void put(String key, Object value) {
-        properties.put(key, value);
+    /**
+     * Reads a single attribute consistently.
+     *
+     * @return the boxed value, null if the attribute wasn't collected
+     */
+    public Object get(Attribute attribute) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            Object value = box(attribute.slot);
+            if (stamp != 0 && lock.validate(stamp)) {
+                return value;
+            }
+            Thread.onSpinWait();
+        }
     }
 
+    /**
+     * Reads a single attribute by its key {@code <mBeanName>_<attrName>}.
+     *
+     * @return the boxed value, null if the attribute isn't registered or wasn't collected
+     */
     public Object get(String key) {
-        return properties.get(key);
+        int idx = key.indexOf('_');
+        if (idx <= 0) {
+            return null;
+        }
+        Map<String, Attribute> byName = attributes.get(key.substring(0, idx));
+        Attribute attribute = byName == null ? null : byName.get(key.substring(idx + 1));
+        return attribute == null ? null : get(attribute);
+    }
+
+    private Object box(int slot) {
+        switch (kind(slot)) {
+            case LONG:
+                return bits(slot);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits(slot));
+            case BOOLEAN:
+                return bits(slot) != 0;
+            case OBJECT:
+                return object(slot);
+            default:
+                return null;
+        }
+    }
+
+    // the published arrays only grow, a reader may still see the previous ones while an attribute is registered
+
+    private byte kind(int slot) {
+        byte[] kinds = this.kinds;
+        return slot < kinds.length ? kinds[slot] : ABSENT;
+    }
+
+    private long bits(int slot) {
+        long[] bits = this.bits;
+        return slot < bits.length ? bits[slot] : 0;
     }
 
-    public void reset() {
-        properties.clear();
+    private Object object(int slot) {
+        Object[] objects = this.objects;
+        return slot < objects.length ? objects[slot] : null;
     }
 }
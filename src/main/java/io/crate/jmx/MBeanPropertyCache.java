@@ -22,64 +22,108 @@
 
 package io.crate.jmx;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
 import javax.management.ObjectName;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * This object stores a mapping of mBean objectNames to mBean key property lists. The main purpose of it is to reduce
- * the frequency with which we invoke PROPERTY_PATTERN when discovering mBeans.
+ * This object stores a mapping of mBean objectNames to mBean key property lists, in the order the properties were
+ * added to the name (unlike {@link ObjectName#getKeyPropertyList()}).
+ *
+ * The cache is bounded, least recently used entries are evicted above the maximum size. Entries of unregistered
+ * MBeans are evicted right away. The property maps are immutable and shared between scrapes.
  *
  * Implementation derived from
  * https://github.com/prometheus/jmx_exporter/blob/master/collector/src/main/java/io/prometheus/jmx/JmxMBeanPropertyCache.java
  */
 class MBeanPropertyCache {
 
-    private static final Pattern PROPERTY_PATTERN = Pattern.compile(
-            "([^,=:\\*\\?]+)" + // Name - non-empty, anything but comma, equals, colon, star, or question mark
-                    "=" +  // Equals
-                    "(" + // Either
-                    "\"" + // Quoted
-                    "(?:" + // A possibly empty sequence of
-                    "[^\\\\\"]" + // Anything but backslash or quote
-                    "|\\\\\\\\" + // or an escaped backslash
-                    "|\\\\n" + // or an escaped newline
-                    "|\\\\\"" + // or an escaped quote
-                    "|\\\\\\?" + // or an escaped question mark
-                    "|\\\\\\*" + // or an escaped star
-                    ")*" +
-                    "\"" +
-                    "|" + // Or
-                    "[^,=:\"]*" + // Unquoted - can be empty, anything but comma, equals, colon, or quote
-                    ")");
+    private final Map<ObjectName, Map<String, String>> keyPropertiesPerBean;
+
+    MBeanPropertyCache(MBeanServer server, int maxSize) {
+        this.keyPropertiesPerBean = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectName, Map<String, String>> eldest) {
+                return size() > maxSize;
+            }
+        };
+        try {
+            server.addNotificationListener(
+                MBeanServerDelegate.DELEGATE_NAME,
+                (notification, handback) -> evict(((MBeanServerNotification) notification).getMBeanName()),
+                n -> MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(n.getType()),
+                null
+            );
+        } catch (InstanceNotFoundException e) {
+            // the delegate is always registered
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Map<String, String> getKeyPropertyList(ObjectName mbeanName) {
+        synchronized (keyPropertiesPerBean) {
+            Map<String, String> keyProperties = keyPropertiesPerBean.get(mbeanName);
+            if (keyProperties == null) {
+                keyProperties = parseKeyProperties(mbeanName.getKeyPropertyListString());
+                keyPropertiesPerBean.put(mbeanName, keyProperties);
+            }
+            return keyProperties;
+        }
+    }
 
-    // Implement a version of ObjectName.getKeyPropertyList that returns the
-    // properties in the order they were added.
-    private final Map<ObjectName, LinkedHashMap<String, String>> keyPropertiesPerBean;
+    int size() {
+        synchronized (keyPropertiesPerBean) {
+            return keyPropertiesPerBean.size();
+        }
+    }
 
-    MBeanPropertyCache() {
-        this.keyPropertiesPerBean = new ConcurrentHashMap<>();
+    private void evict(ObjectName mbeanName) {
+        synchronized (keyPropertiesPerBean) {
+            keyPropertiesPerBean.remove(mbeanName);
+        }
     }
 
-    public LinkedHashMap<String, String> getKeyPropertyList(ObjectName mbeanName) {
-        LinkedHashMap<String, String> keyProperties = keyPropertiesPerBean.get(mbeanName);
-        if (keyProperties == null) {
-            keyProperties = new LinkedHashMap<>();
-            String properties = mbeanName.getKeyPropertyListString();
-            Matcher match = PROPERTY_PATTERN.matcher(properties);
-            while (match.lookingAt()) {
-                keyProperties.put(match.group(1), match.group(2));
-                properties = properties.substring(match.end());
-                if (properties.startsWith(",")) {
-                    properties = properties.substring(1);
+    /**
+     * Parses a key property list like {@code type=ThreadPools,name="search, write"} in a single pass.
+     * Quoted values are kept with their quotes and escape sequences, a comma or backslash within quotes doesn't end
+     * the value.
+     */
+    static Map<String, String> parseKeyProperties(String properties) {
+        Map<String, String> keyProperties = new LinkedHashMap<>();
+        int length = properties.length();
+        int start = 0;
+        while (start < length) {
+            int equals = properties.indexOf('=', start);
+            if (equals == -1) {
+                break;
+            }
+            int end = equals + 1;
+            if (end < length && properties.charAt(end) == '"') {
+                end++;
+                while (end < length) {
+                    char c = properties.charAt(end++);
+                    if (c == '\\') {
+                        end++;
+                    } else if (c == '"') {
+                        break;
+                    }
+                }
+                end = Math.min(end, length);
+            } else {
+                end = properties.indexOf(',', end);
+                if (end == -1) {
+                    end = length;
                 }
-                match.reset(properties);
             }
-            keyPropertiesPerBean.put(mbeanName, keyProperties);
+            keyProperties.put(properties.substring(start, equals), properties.substring(equals + 1, end));
+            // skip the separating comma
+            start = end + 1;
         }
-        return keyProperties;
+        return Collections.unmodifiableMap(keyProperties);
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.format;
+
+import java.util.Locale;
+
+/**
+ * Helpers to write JSON, the few JSON responses of the agent are built by hand instead of using a JSON library.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Appends the value as quoted and escaped JSON string.
+     */
+    public static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ENGLISH, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Appends the value as JSON number, JSON has no representation of NaN and infinity, they are written as null.
+     */
+    public static void appendNumber(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            sb.append("null");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1E15) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.format;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes metric families using the delimited protobuf exposition format of Prometheus
+ * (a stream of varint length prefixed {@code io.prometheus.client.MetricFamily} messages).
+ *
+ * See https://github.com/prometheus/client_model/blob/master/io/prometheus/client/metrics.proto
+ */
+public final class ProtobufFormat {
+
+    public static final String CONTENT_TYPE =
+        "application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited";
+
+    // io.prometheus.client.MetricType
+    private static final int TYPE_COUNTER = 0;
+    private static final int TYPE_GAUGE = 1;
+    private static final int TYPE_SUMMARY = 2;
+    private static final int TYPE_UNTYPED = 3;
+    private static final int TYPE_HISTOGRAM = 4;
+    private static final int TYPE_GAUGE_HISTOGRAM = 5;
+
+    // io.prometheus.client.MetricFamily
+    private static final int FAMILY_NAME = 1;
+    private static final int FAMILY_HELP = 2;
+    private static final int FAMILY_TYPE = 3;
+    private static final int FAMILY_METRIC = 4;
+
+    // io.prometheus.client.Metric
+    private static final int METRIC_LABEL = 1;
+    private static final int METRIC_GAUGE = 2;
+    private static final int METRIC_COUNTER = 3;
+    private static final int METRIC_SUMMARY = 4;
+    private static final int METRIC_UNTYPED = 5;
+    private static final int METRIC_TIMESTAMP_MS = 6;
+    private static final int METRIC_HISTOGRAM = 7;
+
+    private ProtobufFormat() {
+    }
+
+    public static void write(ProtobufWriter out, Enumeration<MetricFamilySamples> mfs) {
+        while (mfs.hasMoreElements()) {
+            write(out, mfs.nextElement());
+        }
+    }
+
+    public static void write(ProtobufWriter out, MetricFamilySamples mfs) {
+        if (mfs.samples.isEmpty()) {
+            return;
+        }
+        int family = out.beginDelimited();
+        switch (mfs.type) {
+            case GAUGE:
+            case STATE_SET:
+                writeHeader(out, mfs.name, mfs.help, TYPE_GAUGE);
+                writeSimpleMetrics(out, mfs, METRIC_GAUGE);
+                break;
+            case INFO:
+                writeHeader(out, mfs.name + "_info", mfs.help, TYPE_GAUGE);
+                writeSimpleMetrics(out, mfs, METRIC_GAUGE);
+                break;
+            case COUNTER:
+                writeHeader(out, mfs.name + "_total", mfs.help, TYPE_COUNTER);
+                writeGroupedMetrics(out, mfs);
+                break;
+            case SUMMARY:
+                writeHeader(out, mfs.name, mfs.help, TYPE_SUMMARY);
+                writeGroupedMetrics(out, mfs);
+                break;
+            case HISTOGRAM:
+                writeHeader(out, mfs.name, mfs.help, TYPE_HISTOGRAM);
+                writeGroupedMetrics(out, mfs);
+                break;
+            case GAUGE_HISTOGRAM:
+                writeHeader(out, mfs.name, mfs.help, TYPE_GAUGE_HISTOGRAM);
+                writeGroupedMetrics(out, mfs);
+                break;
+            default:
+                writeHeader(out, mfs.name, mfs.help, TYPE_UNTYPED);
+                writeSimpleMetrics(out, mfs, METRIC_UNTYPED);
+                break;
+        }
+        out.endMessage(family);
+    }
+
+    private static void writeHeader(ProtobufWriter out, String name, String help, int type) {
+        out.writeString(FAMILY_NAME, name);
+        if (help != null && !help.isEmpty()) {
+            out.writeString(FAMILY_HELP, help);
+        }
+        out.writeEnum(FAMILY_TYPE, type);
+    }
+
+    /**
+     * Each sample of a gauge or untyped family is a metric of its own, no grouping required.
+     */
+    private static void writeSimpleMetrics(ProtobufWriter out, MetricFamilySamples mfs, int valueField) {
+        for (Sample sample : mfs.samples) {
+            int metric = out.beginMessage(FAMILY_METRIC);
+            writeLabels(out, sample.labelNames, sample.labelValues);
+            int value = out.beginMessage(valueField);
+            out.writeDouble(1, sample.value);
+            out.endMessage(value);
+            if (sample.timestampMs != null) {
+                out.writeInt64(METRIC_TIMESTAMP_MS, sample.timestampMs);
+            }
+            out.endMessage(metric);
+        }
+    }
+
+    /**
+     * Counters, summaries and histograms are exposed as multiple samples per label set
+     * (e.g. {@code _total} and {@code _created}), which are merged into a single metric.
+     */
+    private static void writeGroupedMetrics(ProtobufWriter out, MetricFamilySamples mfs) {
+        Map<List<String>, Group> groups = new LinkedHashMap<>();
+        for (Sample sample : mfs.samples) {
+            String suffix = sample.name.startsWith(mfs.name) ? sample.name.substring(mfs.name.length()) : "";
+            String bucketLabel = null;
+            if (mfs.type == Collector.Type.SUMMARY && suffix.isEmpty()) {
+                bucketLabel = "quantile";
+            } else if (suffix.equals("_bucket")) {
+                bucketLabel = "le";
+            }
+            List<String> key = new ArrayList<>(sample.labelNames.size() * 2);
+            for (int i = 0; i < sample.labelNames.size(); i++) {
+                if (!sample.labelNames.get(i).equals(bucketLabel)) {
+                    key.add(sample.labelNames.get(i));
+                    key.add(sample.labelValues.get(i));
+                }
+            }
+            Group group = groups.computeIfAbsent(key, k -> new Group(sample, k));
+            group.add(suffix, bucketLabel, sample);
+        }
+        for (Group group : groups.values()) {
+            int metric = out.beginMessage(FAMILY_METRIC);
+            writeLabels(out, group.labelNamesAndValues);
+            switch (mfs.type) {
+                case COUNTER:
+                    group.writeCounter(out);
+                    break;
+                case SUMMARY:
+                    group.writeSummary(out);
+                    break;
+                default:
+                    group.writeHistogram(out);
+                    break;
+            }
+            if (group.timestampMs != null) {
+                out.writeInt64(METRIC_TIMESTAMP_MS, group.timestampMs);
+            }
+            out.endMessage(metric);
+        }
+    }
+
+    private static void writeLabels(ProtobufWriter out, List<String> names, List<String> values) {
+        for (int i = 0; i < names.size(); i++) {
+            writeLabel(out, names.get(i), values.get(i));
+        }
+    }
+
+    private static void writeLabels(ProtobufWriter out, List<String> namesAndValues) {
+        for (int i = 0; i < namesAndValues.size(); i += 2) {
+            writeLabel(out, namesAndValues.get(i), namesAndValues.get(i + 1));
+        }
+    }
+
+    private static void writeLabel(ProtobufWriter out, String name, String value) {
+        int label = out.beginMessage(METRIC_LABEL);
+        out.writeString(1, name);
+        out.writeString(2, value);
+        out.endMessage(label);
+    }
+
+    private static void writeTimestamp(ProtobufWriter out, int fieldNumber, double epochSeconds) {
+        long seconds = (long) Math.floor(epochSeconds);
+        int nanos = (int) Math.round((epochSeconds - seconds) * 1e9);
+        int timestamp = out.beginMessage(fieldNumber);
+        out.writeInt64(1, seconds);
+        if (nanos > 0) {
+            out.writeInt64(2, nanos);
+        }
+        out.endMessage(timestamp);
+    }
+
+    private static final class Group {
+
+        private final List<String> labelNamesAndValues;
+        private final Long timestampMs;
+        private final List<double[]> buckets = new ArrayList<>();
+        private double value;
+        private double sum;
+        private double count;
+        private double created = Double.NaN;
+
+        Group(Sample first, List<String> labelNamesAndValues) {
+            this.labelNamesAndValues = labelNamesAndValues;
+            this.timestampMs = first.timestampMs;
+        }
+
+        void add(String suffix, String bucketLabel, Sample sample) {
+            if (bucketLabel != null) {
+                int idx = sample.labelNames.indexOf(bucketLabel);
+                if (idx >= 0) {
+                    buckets.add(new double[]{parseDouble(sample.labelValues.get(idx)), sample.value});
+                }
+                return;
+            }
+            switch (suffix) {
+                case "_total":
+                    value = sample.value;
+                    break;
+                case "_sum":
+                case "_gsum":
+                    sum = sample.value;
+                    break;
+                case "_count":
+                case "_gcount":
+                    count = sample.value;
+                    break;
+                case "_created":
+                    created = sample.value;
+                    break;
+                default:
+                    value = sample.value;
+                    break;
+            }
+        }
+
+        void writeCounter(ProtobufWriter out) {
+            int counter = out.beginMessage(METRIC_COUNTER);
+            out.writeDouble(1, value);
+            if (!Double.isNaN(created)) {
+                writeTimestamp(out, 3, created);
+            }
+            out.endMessage(counter);
+        }
+
+        void writeSummary(ProtobufWriter out) {
+            int summary = out.beginMessage(METRIC_SUMMARY);
+            out.writeUInt64(1, (long) count);
+            out.writeDouble(2, sum);
+            for (double[] quantile : buckets) {
+                int q = out.beginMessage(3);
+                out.writeDouble(1, quantile[0]);
+                out.writeDouble(2, quantile[1]);
+                out.endMessage(q);
+            }
+            if (!Double.isNaN(created)) {
+                writeTimestamp(out, 4, created);
+            }
+            out.endMessage(summary);
+        }
+
+        void writeHistogram(ProtobufWriter out) {
+            int histogram = out.beginMessage(METRIC_HISTOGRAM);
+            out.writeUInt64(1, (long) count);
+            out.writeDouble(2, sum);
+            for (double[] bucket : buckets) {
+                int b = out.beginMessage(3);
+                out.writeUInt64(1, (long) bucket[1]);
+                out.writeDouble(2, bucket[0]);
+                out.endMessage(b);
+            }
+            if (!Double.isNaN(created)) {
+                writeTimestamp(out, 15, created);
+            }
+            out.endMessage(histogram);
+        }
+
+        private static double parseDouble(String value) {
+            switch (value) {
+                case "+Inf":
+                    return Double.POSITIVE_INFINITY;
+                case "-Inf":
+                    return Double.NEGATIVE_INFINITY;
+                default:
+                    return Double.parseDouble(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.format;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal protocol buffers encoder writing into a growable, reusable byte array.
+ *
+ * Nested messages are written in place: {@link #beginMessage(int)} reserves a single byte for the length prefix and
+ * {@link #endMessage(int)} moves the message body if the final length needs more than one varint byte.
+ * This avoids scratch buffers per nesting level and keeps the encoder free of any protobuf runtime dependency.
+ */
+public final class ProtobufWriter {
+
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+    private byte[] buffer;
+    private int position;
+
+    public ProtobufWriter() {
+        this(1 << 16);
+    }
+
+    public ProtobufWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        position = 0;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    /**
+     * Returns the internal buffer without copying, only the first {@link #size()} bytes are valid.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+    }
+
+    public void writeUInt64(int fieldNumber, long value) {
+        writeTag(fieldNumber, WIRE_TYPE_VARINT);
+        writeVarint(value);
+    }
+
+    public void writeInt64(int fieldNumber, long value) {
+        writeUInt64(fieldNumber, value);
+    }
+
+    public void writeEnum(int fieldNumber, int value) {
+        writeUInt64(fieldNumber, value);
+    }
+
+    public void writeBool(int fieldNumber, boolean value) {
+        writeUInt64(fieldNumber, value ? 1 : 0);
+    }
+
+    public void writeDouble(int fieldNumber, double value) {
+        writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
+    }
+
+    public void writeFixed64(int fieldNumber, long value) {
+        writeTag(fieldNumber, WIRE_TYPE_FIXED64);
+        ensureCapacity(8);
+        writeRawFixed64(value);
+    }
+
+    /**
+     * Writes the first {@code count} values as packed repeated {@code fixed64} field.
+     */
+    public void writePackedFixed64(int fieldNumber, long[] values, int count) {
+        writeTag(fieldNumber, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(8L * count);
+        ensureCapacity(8 * count);
+        for (int i = 0; i < count; i++) {
+            writeRawFixed64(values[i]);
+        }
+    }
+
+    /**
+     * Writes the first {@code count} values as packed repeated {@code double} field.
+     */
+    public void writePackedDouble(int fieldNumber, double[] values, int count) {
+        writeTag(fieldNumber, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(8L * count);
+        ensureCapacity(8 * count);
+        for (int i = 0; i < count; i++) {
+            writeRawFixed64(Double.doubleToRawLongBits(values[i]));
+        }
+    }
+
+    public void writeString(int fieldNumber, String value) {
+        writeTag(fieldNumber, WIRE_TYPE_LENGTH_DELIMITED);
+        int length = utf8Length(value);
+        writeVarint(length);
+        ensureCapacity(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >>> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                       && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >>> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, encoded as '?' like String#getBytes does
+                buffer[position++] = (byte) '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >>> 12));
+                buffer[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    public void writeBytes(int fieldNumber, byte[] value, int offset, int length) {
+        writeTag(fieldNumber, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(length);
+        ensureCapacity(length);
+        System.arraycopy(value, offset, buffer, position, length);
+        position += length;
+    }
+
+    /**
+     * Starts an embedded message for the given field, must be closed by {@link #endMessage(int)}.
+     *
+     * @return the marker which must be passed to {@link #endMessage(int)}
+     */
+    public int beginMessage(int fieldNumber) {
+        writeTag(fieldNumber, WIRE_TYPE_LENGTH_DELIMITED);
+        return beginDelimited();
+    }
+
+    /**
+     * Starts a length prefixed message without a field tag, as used by the varint delimited stream format.
+     */
+    public int beginDelimited() {
+        ensureCapacity(1);
+        return position++;
+    }
+
+    public void endMessage(int marker) {
+        int length = position - marker - 1;
+        int prefixLength = varintLength(length);
+        if (prefixLength > 1) {
+            ensureCapacity(prefixLength - 1);
+            System.arraycopy(buffer, marker + 1, buffer, marker + prefixLength, length);
+            position += prefixLength - 1;
+        }
+        int p = marker;
+        long value = length;
+        while ((value & ~0x7FL) != 0) {
+            buffer[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[p] = (byte) value;
+    }
+
+    private void writeTag(int fieldNumber, int wireType) {
+        writeVarint(((long) fieldNumber << 3) | wireType);
+    }
+
+    private void writeRawFixed64(long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (position + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + additional));
+        }
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                       && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
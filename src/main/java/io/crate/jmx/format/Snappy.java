@@ -0,0 +1,228 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.format;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressor for the snappy block format, as required by the Prometheus remote write protocol.
+ *
+ * This is a straightforward greedy implementation: the input is split into 64KiB blocks, 4-byte sequences are
+ * looked up in a hash table and matches are emitted as copies with 1 or 2 byte offsets.
+ * It doesn't reach the speed of the native library, but metric payloads are small and highly repetitive.
+ *
+ * See https://github.com/google/snappy/blob/main/format_description.txt
+ */
+public final class Snappy {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int HASH_TABLE_BITS = 14;
+    private static final int MIN_MATCH = 4;
+
+    private static final int TAG_LITERAL = 0;
+    private static final int TAG_COPY_1 = 1;
+    private static final int TAG_COPY_2 = 2;
+
+    private Snappy() {
+    }
+
+    public static int maxCompressedLength(int length) {
+        return 32 + length + length / 6;
+    }
+
+    public static byte[] compress(byte[] input, int offset, int length) {
+        byte[] out = new byte[maxCompressedLength(length)];
+        int op = writeVarint(out, 0, length);
+        int[] table = new int[1 << HASH_TABLE_BITS];
+        int end = offset + length;
+        for (int blockStart = offset; blockStart < end; blockStart += BLOCK_SIZE) {
+            op = compressBlock(input, blockStart, Math.min(blockStart + BLOCK_SIZE, end), out, op, table);
+        }
+        return Arrays.copyOf(out, op);
+    }
+
+    public static byte[] uncompress(byte[] input, int offset, int length) throws IOException {
+        int ip = offset;
+        int end = offset + length;
+        long uncompressedLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (ip >= end || shift > 28) {
+                throw new IOException("Corrupt snappy input: invalid length preamble");
+            }
+            int b = input[ip++] & 0xFF;
+            uncompressedLength |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                break;
+            }
+        }
+        if (uncompressedLength > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt snappy input: length " + uncompressedLength + " too large");
+        }
+        byte[] out = new byte[(int) uncompressedLength];
+        int op = 0;
+        while (ip < end) {
+            int tag = input[ip++] & 0xFF;
+            int len;
+            int copyOffset;
+            switch (tag & 3) {
+                case TAG_LITERAL:
+                    len = tag >>> 2;
+                    if (len >= 60) {
+                        int bytes = len - 59;
+                        checkBounds(ip + bytes <= end);
+                        len = 0;
+                        for (int i = 0; i < bytes; i++) {
+                            len |= (input[ip++] & 0xFF) << (i * 8);
+                        }
+                    }
+                    len++;
+                    checkBounds(len > 0 && ip + len <= end && op + len <= out.length);
+                    System.arraycopy(input, ip, out, op, len);
+                    ip += len;
+                    op += len;
+                    continue;
+                case TAG_COPY_1:
+                    checkBounds(ip < end);
+                    len = ((tag >>> 2) & 7) + 4;
+                    copyOffset = ((tag >>> 5) << 8) | (input[ip++] & 0xFF);
+                    break;
+                case TAG_COPY_2:
+                    checkBounds(ip + 2 <= end);
+                    len = (tag >>> 2) + 1;
+                    copyOffset = (input[ip] & 0xFF) | ((input[ip + 1] & 0xFF) << 8);
+                    ip += 2;
+                    break;
+                default:
+                    // copy with 4 byte offset, never emitted by this compressor
+                    checkBounds(ip + 4 <= end);
+                    len = (tag >>> 2) + 1;
+                    copyOffset = (input[ip] & 0xFF) | ((input[ip + 1] & 0xFF) << 8)
+                                 | ((input[ip + 2] & 0xFF) << 16) | ((input[ip + 3] & 0xFF) << 24);
+                    ip += 4;
+                    break;
+            }
+            checkBounds(copyOffset > 0 && copyOffset <= op && op + len <= out.length);
+            // copies may overlap with the output written by themselves, so copy byte by byte
+            for (int i = 0; i < len; i++) {
+                out[op] = out[op - copyOffset];
+                op++;
+            }
+        }
+        if (op != out.length) {
+            throw new IOException("Corrupt snappy input: expected " + out.length + " bytes but got " + op);
+        }
+        return out;
+    }
+
+    private static void checkBounds(boolean valid) throws IOException {
+        if (!valid) {
+            throw new IOException("Corrupt snappy input");
+        }
+    }
+
+    private static int compressBlock(byte[] in, int start, int end, byte[] out, int op, int[] table) {
+        int literalStart = start;
+        if (end - start >= MIN_MATCH * 4) {
+            Arrays.fill(table, -1);
+            int ip = start;
+            int limit = end - MIN_MATCH;
+            while (ip <= limit) {
+                int value = readInt(in, ip);
+                int hash = (value * 0x1E35A7BD) >>> (32 - HASH_TABLE_BITS);
+                int candidate = table[hash];
+                table[hash] = ip;
+                if (candidate >= 0 && readInt(in, candidate) == value) {
+                    int matchLength = MIN_MATCH;
+                    while (ip + matchLength < end && in[candidate + matchLength] == in[ip + matchLength]) {
+                        matchLength++;
+                    }
+                    op = emitLiteral(in, literalStart, ip - literalStart, out, op);
+                    op = emitCopy(ip - candidate, matchLength, out, op);
+                    ip += matchLength;
+                    literalStart = ip;
+                } else {
+                    ip++;
+                }
+            }
+        }
+        return emitLiteral(in, literalStart, end - literalStart, out, op);
+    }
+
+    private static int emitLiteral(byte[] in, int from, int length, byte[] out, int op) {
+        if (length == 0) {
+            return op;
+        }
+        int n = length - 1;
+        if (n < 60) {
+            out[op++] = (byte) (n << 2 | TAG_LITERAL);
+        } else if (n < (1 << 8)) {
+            out[op++] = (byte) (60 << 2 | TAG_LITERAL);
+            out[op++] = (byte) n;
+        } else {
+            // blocks are at most 64KiB, so 2 bytes are always sufficient
+            out[op++] = (byte) (61 << 2 | TAG_LITERAL);
+            out[op++] = (byte) n;
+            out[op++] = (byte) (n >>> 8);
+        }
+        System.arraycopy(in, from, out, op, length);
+        return op + length;
+    }
+
+    private static int emitCopy(int offset, int length, byte[] out, int op) {
+        while (length >= 68) {
+            op = emitCopy2(offset, 64, out, op);
+            length -= 64;
+        }
+        if (length > 64) {
+            op = emitCopy2(offset, 60, out, op);
+            length -= 60;
+        }
+        if (length < 12 && offset < 2048) {
+            out[op++] = (byte) (((offset >>> 8) << 5) | ((length - 4) << 2) | TAG_COPY_1);
+            out[op++] = (byte) offset;
+            return op;
+        }
+        return emitCopy2(offset, length, out, op);
+    }
+
+    private static int emitCopy2(int offset, int length, byte[] out, int op) {
+        out[op++] = (byte) (((length - 1) << 2) | TAG_COPY_2);
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        return op;
+    }
+
+    private static int readInt(byte[] in, int pos) {
+        return (in[pos] & 0xFF) | ((in[pos + 1] & 0xFF) << 8) | ((in[pos + 2] & 0xFF) << 16) | ((in[pos + 3] & 0xFF) << 24);
+    }
+
+    private static int writeVarint(byte[] out, int op, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[op++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[op++] = (byte) value;
+        return op;
+    }
+}
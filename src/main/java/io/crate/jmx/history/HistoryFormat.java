@@ -0,0 +1,104 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.history;
+
+import io.crate.jmx.format.Json;
+
+import java.util.List;
+
+/**
+ * Renders recorded series as JSON or CSV.
+ *
+ * The JSON format is compact: per series the timestamp of the first sample and the deltas to the previous sample
+ * in milliseconds, followed by the values, e.g.
+ * {@code {"name":"n","series":[{"labels":{"l":"v"},"start_ms":1000,"deltas_ms":[0,1000],"values":[1,2]}]}}.
+ * The CSV format has one line per sample: {@code timestamp_ms,labels,value}.
+ */
+public final class HistoryFormat {
+
+    private HistoryFormat() {
+    }
+
+    public static String toJson(String name, List<HistorySampler.Series> series, long fromMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"name\":");
+        Json.appendString(sb, name);
+        sb.append(",\"series\":[");
+        for (int i = 0; i < series.size(); i++) {
+            HistorySampler.Series s = series.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"labels\":{");
+            for (int l = 0; l < s.labelNames.size(); l++) {
+                if (l > 0) {
+                    sb.append(',');
+                }
+                Json.appendString(sb, s.labelNames.get(l));
+                sb.append(':');
+                Json.appendString(sb, s.labelValues.get(l));
+            }
+            sb.append('}');
+            StringBuilder deltas = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            long[] previous = {-1};
+            s.forEach(fromMs, (timestampMs, value) -> {
+                if (previous[0] < 0) {
+                    sb.append(",\"start_ms\":").append(timestampMs);
+                    deltas.append('0');
+                } else {
+                    values.append(',');
+                    deltas.append(',').append(timestampMs - previous[0]);
+                }
+                Json.appendNumber(values, value);
+                previous[0] = timestampMs;
+            });
+            sb.append(",\"deltas_ms\":[").append(deltas).append("],\"values\":[").append(values).append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    public static String toCsv(List<HistorySampler.Series> series, long fromMs) {
+        StringBuilder sb = new StringBuilder("timestamp_ms,labels,value\n");
+        for (HistorySampler.Series s : series) {
+            StringBuilder labels = new StringBuilder();
+            for (int l = 0; l < s.labelNames.size(); l++) {
+                if (l > 0) {
+                    labels.append(';');
+                }
+                labels.append(s.labelNames.get(l)).append('=').append(s.labelValues.get(l));
+            }
+            String escapedLabels = csvField(labels.toString());
+            s.forEach(fromMs, (timestampMs, value) ->
+                sb.append(timestampMs).append(',').append(escapedLabels).append(',').append(value).append('\n'));
+        }
+        return sb.toString();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
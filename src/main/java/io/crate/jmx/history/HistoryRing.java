@@ -0,0 +1,106 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size ring buffer of timestamped values, stored off-heap.
+ *
+ * Each entry takes 12 bytes: the milliseconds since the previous entry as {@code int} and the value as
+ * {@code double}. Only the timestamp of the oldest entry is kept as absolute value, it is advanced by the delta of
+ * the following entry whenever the oldest entry is overwritten.
+ */
+final class HistoryRing {
+
+    static final int ENTRY_BYTES = Integer.BYTES + Double.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private int head;
+    private int size;
+    private long oldestTimestampMs;
+    private long newestTimestampMs;
+
+    HistoryRing(int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity * ENTRY_BYTES);
+    }
+
+    synchronized void add(long timestampMs, double value) {
+        int delta;
+        if (size == 0) {
+            oldestTimestampMs = timestampMs;
+            delta = 0;
+        } else {
+            // timestamps must not go backwards, deltas are assumed to be non-negative
+            delta = (int) Math.min(Integer.MAX_VALUE, Math.max(0, timestampMs - newestTimestampMs));
+        }
+        int index;
+        if (size < capacity) {
+            index = (head + size) % capacity;
+            size++;
+        } else {
+            // overwrite the oldest entry, the next one becomes the oldest
+            index = head;
+            head = (head + 1) % capacity;
+            oldestTimestampMs = capacity == 1 ? timestampMs : oldestTimestampMs + buffer.getInt(head * ENTRY_BYTES);
+        }
+        buffer.putInt(index * ENTRY_BYTES, delta);
+        buffer.putDouble(index * ENTRY_BYTES + Integer.BYTES, value);
+        newestTimestampMs = size == 1 ? timestampMs : newestTimestampMs + delta;
+    }
+
+    /**
+     * Passes all entries with a timestamp at or after {@code fromMs} to the consumer, from the oldest to the newest.
+     */
+    synchronized void forEach(long fromMs, EntryConsumer consumer) {
+        long timestampMs = oldestTimestampMs;
+        for (int i = 0; i < size; i++) {
+            int offset = ((head + i) % capacity) * ENTRY_BYTES;
+            if (i > 0) {
+                timestampMs += buffer.getInt(offset);
+            }
+            if (timestampMs >= fromMs) {
+                consumer.accept(timestampMs, buffer.getDouble(offset + Integer.BYTES));
+            }
+        }
+    }
+
+    /**
+     * Removes all entries, so that the ring can be reused for another series.
+     */
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long timestampMs, double value);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.history;
+
+import io.crate.jmx.AgentSettings;
+import io.crate.jmx.CrateCollector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the metrics of selected CrateDB MBeans at a high resolution, e.g. every second, to make spikes between
+ * two scrapes visible.
+ *
+ * The MBeans are collected by type, like {@code /ready} collects the {@code NodeStatus}. Every series is recorded
+ * into its own {@link HistoryRing}, which keeps the samples of the retention period. The number of series is
+ * bounded, samples of further series are dropped. Series which haven't been seen for a retention period are
+ * evicted, their rings are reused for new series.
+ */
+public final class HistorySampler implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(HistorySampler.class.getName());
+
+    private final Function<String, List<MetricFamilySamples>> source;
+    private final List<String> mBeanTypes;
+    private final long intervalMs;
+    private final long retentionMs;
+    private final int capacity;
+    private final int maxSeries;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<List<String>, Series> series = new ConcurrentHashMap<>();
+    private final AtomicLong droppedSamples = new AtomicLong();
+    // only accessed by the sampling thread
+    private final ArrayDeque<HistoryRing> freeRings = new ArrayDeque<>();
+
+    HistorySampler(Function<String, List<MetricFamilySamples>> source,
+                   List<String> mBeanTypes,
+                   long intervalMs,
+                   long retentionMs,
+                   int maxSeries,
+                   LongSupplier clock) {
+        this.source = source;
+        this.mBeanTypes = mBeanTypes;
+        this.intervalMs = intervalMs;
+        this.retentionMs = retentionMs;
+        this.capacity = (int) Math.max(1, retentionMs / intervalMs);
+        this.maxSeries = maxSeries;
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crate-jmx-history");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static HistorySampler fromAgentSettings(CrateCollector collector) {
+        long intervalMs = AgentSettings.getMillis("history.interval", "1s");
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("Invalid value '" + intervalMs + "' for setting "
+                                               + AgentSettings.PREFIX + "history.interval");
+        }
+        return new HistorySampler(
+            collector::collect,
+            AgentSettings.getList("history.mbeans", "ThreadPools,CircuitBreakers"),
+            intervalMs,
+            AgentSettings.getMillis("history.retention", "10m"),
+            AgentSettings.getInt("history.max_series", 1000),
+            System::currentTimeMillis
+        );
+    }
+
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::sampleSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            // must not escape, the scheduler would cancel all further executions
+            LOGGER.log(Level.SEVERE, "Cannot sample metric history", e);
+        }
+    }
+
+    void sample() {
+        evictStaleSeries(clock.getAsLong() - retentionMs);
+        for (String type : mBeanTypes) {
+            List<MetricFamilySamples> mfs = source.apply("type=" + type);
+            long timestampMs = clock.getAsLong();
+            for (MetricFamilySamples family : mfs) {
+                for (Sample sample : family.samples) {
+                    List<String> key = new ArrayList<>(1 + sample.labelValues.size());
+                    key.add(sample.name);
+                    key.addAll(sample.labelValues);
+                    Series s = series.get(key);
+                    if (s == null) {
+                        if (series.size() >= maxSeries) {
+                            droppedSamples.incrementAndGet();
+                            continue;
+                        }
+                        HistoryRing ring = freeRings.poll();
+                        s = new Series(sample, ring == null ? new HistoryRing(capacity) : ring);
+                        series.put(key, s);
+                    }
+                    s.lastSeenMs = timestampMs;
+                    s.ring.add(timestampMs, sample.value);
+                }
+            }
+        }
+    }
+
+    private void evictStaleSeries(long seenBeforeMs) {
+        for (Iterator<Series> it = series.values().iterator(); it.hasNext(); ) {
+            Series s = it.next();
+            if (s.lastSeenMs < seenBeforeMs) {
+                it.remove();
+                s.evict();
+                freeRings.add(s.ring);
+            }
+        }
+    }
+
+    /**
+     * Returns all recorded series of the given sample name.
+     */
+    public List<Series> series(String name) {
+        List<Series> result = new ArrayList<>();
+        for (Series s : series.values()) {
+            if (s.name.equals(name)) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    int seriesCount() {
+        return series.size();
+    }
+
+    long droppedSamples() {
+        return droppedSamples.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public static final class Series {
+
+        final String name;
+        final List<String> labelNames;
+        final List<String> labelValues;
+        final HistoryRing ring;
+        long lastSeenMs;
+        // guarded by the ring, which may already be reused by another series once this one is evicted
+        private boolean evicted;
+
+        Series(Sample sample, HistoryRing ring) {
+            this.name = sample.name;
+            this.labelNames = sample.labelNames;
+            this.labelValues = sample.labelValues;
+            this.ring = ring;
+        }
+
+        /**
+         * Passes the entries recorded at or after {@code fromMs} to the consumer, none if the series was evicted.
+         */
+        void forEach(long fromMs, HistoryRing.EntryConsumer consumer) {
+            synchronized (ring) {
+                if (!evicted) {
+                    ring.forEach(fromMs, consumer);
+                }
+            }
+        }
+
+        private void evict() {
+            synchronized (ring) {
+                evicted = true;
+                ring.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.history;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exposes the number of series recorded by the {@link HistorySampler} and the samples it dropped.
+ */
+public final class HistoryStatistics extends Collector {
+
+    private final HistorySampler sampler;
+
+    public HistoryStatistics(HistorySampler sampler) {
+        this.sampler = sampler;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        return Arrays.asList(
+            new GaugeMetricFamily(
+                "crate_jmx_history_series", "Number of series recorded by the metric history.",
+                sampler.seriesCount()),
+            new CounterMetricFamily(
+                "crate_jmx_history_dropped_samples",
+                "Number of samples not recorded by the metric history because max_series was reached.",
+                sampler.droppedSamples()));
+    }
+}
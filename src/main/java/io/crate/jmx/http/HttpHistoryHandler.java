@@ -0,0 +1,98 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.crate.jmx.AgentSettings;
+import io.crate.jmx.history.HistoryFormat;
+import io.crate.jmx.history.HistorySampler;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves {@code /history?name=<sample name>&range=<duration>&format=<json|csv>}, returning the samples recorded by
+ * the {@link HistorySampler} within the given range, which defaults to {@code 5m}.
+ */
+public class HttpHistoryHandler implements HttpHandler {
+
+    private final HistorySampler sampler;
+
+    public HttpHistoryHandler(HistorySampler sampler) {
+        this.sampler = sampler;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> params = HttpServer.queryParams(exchange.getRequestURI().getRawQuery());
+        String name = params.get("name");
+        if (name == null || name.isEmpty()) {
+            send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "text/plain; charset=utf-8", "Missing parameter name\n");
+            return;
+        }
+        long rangeMs;
+        try {
+            rangeMs = AgentSettings.parseMillis(params.getOrDefault("range", "5m"));
+        } catch (NumberFormatException e) {
+            send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "text/plain; charset=utf-8",
+                "Invalid value '" + params.get("range") + "' for parameter range\n");
+            return;
+        }
+        String format = params.getOrDefault("format", "json");
+        List<HistorySampler.Series> series = sampler.series(name);
+        long fromMs = sampler.now() - rangeMs;
+        switch (format) {
+            case "json":
+                send(exchange, HttpURLConnection.HTTP_OK, "application/json", HistoryFormat.toJson(name, series, fromMs));
+                break;
+            case "csv":
+                send(exchange, HttpURLConnection.HTTP_OK, "text/csv; charset=utf-8", HistoryFormat.toCsv(series, fromMs));
+                break;
+            default:
+                send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "text/plain; charset=utf-8",
+                    "Invalid value '" + format + "' for parameter format\n");
+                break;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (HttpServer.shouldUseCompression(exchange)) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(status, 0);
+            try (GZIPOutputStream os = new GZIPOutputStream(exchange.getResponseBody())) {
+                os.write(bytes);
+            }
+        } else {
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+        exchange.close();
+    }
+}
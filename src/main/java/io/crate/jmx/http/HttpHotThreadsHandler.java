@@ -0,0 +1,175 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.crate.jmx.AgentSettings;
+import io.crate.jmx.jvm.HotThreads;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves {@code /debug/hot_threads}, reporting the threads using the most CPU time, see {@link HotThreads}.
+ *
+ * Supported query parameters are {@code interval} (e.g. {@code 500ms}), {@code threads}, {@code snapshots} and
+ * {@code format} ({@code text} or {@code json}). Sampling runs on a dedicated thread, so it never occupies the
+ * threads serving {@code /metrics}. Only one request is sampled at a time, concurrent requests are rejected.
+ */
+public class HttpHotThreadsHandler implements HttpHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpHotThreadsHandler.class.getName());
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final long MAX_INTERVAL_MS = 60_000;
+    private static final int MAX_THREADS = 100;
+    private static final int MAX_SNAPSHOTS = 100;
+
+    private final HotThreads hotThreads;
+    private final Semaphore permit = new Semaphore(1);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "crate-jmx-hot-threads");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HttpHotThreadsHandler(HotThreads hotThreads) {
+        this.hotThreads = hotThreads;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!hotThreads.isSupported()) {
+            sendText(exchange, HttpURLConnection.HTTP_NOT_IMPLEMENTED, "Thread CPU time is not supported by this JVM\n");
+            return;
+        }
+        Request request;
+        try {
+            request = Request.parse(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, HttpURLConnection.HTTP_BAD_REQUEST, e.getMessage() + "\n");
+            return;
+        }
+        if (!permit.tryAcquire()) {
+            sendText(exchange, HTTP_TOO_MANY_REQUESTS, "Hot threads are already being sampled\n");
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    sample(exchange, request);
+                } finally {
+                    permit.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+    }
+
+    private void sample(HttpExchange exchange, Request request) {
+        try {
+            HotThreads.Report report = hotThreads.sample(request.intervalMs, request.threads, request.snapshots);
+            if (request.json) {
+                send(exchange, HttpURLConnection.HTTP_OK, "application/json", report.toJson());
+            } else {
+                sendText(exchange, HttpURLConnection.HTTP_OK, report.toText());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Cannot sample hot threads", e);
+            exchange.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    static final class Request {
+
+        long intervalMs = 500;
+        int threads = 3;
+        int snapshots = 10;
+        boolean json;
+
+        static Request parse(String query) {
+            Request request = new Request();
+            for (Map.Entry<String, String> param : HttpServer.queryParams(query).entrySet()) {
+                String value = param.getValue();
+                try {
+                    switch (param.getKey()) {
+                        case "interval":
+                            request.intervalMs = AgentSettings.parseMillis(value);
+                            check(request.intervalMs >= 0 && request.intervalMs <= MAX_INTERVAL_MS, param);
+                            break;
+                        case "threads":
+                            request.threads = Integer.parseInt(value);
+                            check(request.threads > 0 && request.threads <= MAX_THREADS, param);
+                            break;
+                        case "snapshots":
+                            request.snapshots = Integer.parseInt(value);
+                            check(request.snapshots > 0 && request.snapshots <= MAX_SNAPSHOTS, param);
+                            break;
+                        case "format":
+                            check(value.equals("text") || value.equals("json"), param);
+                            request.json = value.equals("json");
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown parameter " + param.getKey());
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value '" + value + "' for parameter " + param.getKey(), e);
+                }
+            }
+            return request;
+        }
+
+        private static void check(boolean valid, Map.Entry<String, String> param) {
+            if (!valid) {
+                throw new IllegalArgumentException(
+                    "Invalid value '" + param.getValue() + "' for parameter " + param.getKey());
+            }
+        }
+    }
+}
@@ -24,28 +24,56 @@ package io.crate.jmx.http;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
+import io.crate.jmx.format.ProtobufFormat;
+import io.crate.jmx.format.ProtobufWriter;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.common.TextFormat;
 
 public class HttpMetricHandler implements HttpHandler {
 
+    enum Format {
+        TEXT_004(TextFormat.CONTENT_TYPE_004),
+        OPENMETRICS_100(TextFormat.CONTENT_TYPE_OPENMETRICS_100),
+        PROTOBUF(ProtobufFormat.CONTENT_TYPE);
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+    }
+
     private static class LocalByteArray extends ThreadLocal<ByteArrayOutputStream> {
         protected ByteArrayOutputStream initialValue() {
             return new ByteArrayOutputStream(1 << 20);
         }
     }
 
+    private static class LocalProtobufWriter extends ThreadLocal<ProtobufWriter> {
+        protected ProtobufWriter initialValue() {
+            return new ProtobufWriter(1 << 20);
+        }
+    }
+
     private static Set<String> parseQuery(String query) throws IOException {
         Set<String> names = new HashSet<>();
         if (query != null) {
@@ -60,28 +88,132 @@ public class HttpMetricHandler implements HttpHandler {
         return names;
     }
 
+    /**
+     * Chooses the exposition format by the media ranges (and their q-values) of the given Accept headers.
+     * Falls back to the text format 0.0.4 if no supported format is requested.
+     */
+    static Format negotiate(List<String> acceptHeaders) {
+        Format format = Format.TEXT_004;
+        if (acceptHeaders == null) {
+            return format;
+        }
+        double bestQuality = -1;
+        for (String acceptHeader : acceptHeaders) {
+            for (String mediaRange : acceptHeader.split(",")) {
+                String[] parts = mediaRange.split(";");
+                String mediaType = parts[0].trim().toLowerCase(Locale.ENGLISH);
+                double quality = 1.0;
+                String proto = null;
+                String encoding = null;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    int idx = param.indexOf('=');
+                    if (idx == -1) {
+                        continue;
+                    }
+                    String key = param.substring(0, idx).trim().toLowerCase(Locale.ENGLISH);
+                    String value = param.substring(idx + 1).trim();
+                    if (key.equals("q")) {
+                        try {
+                            quality = Double.parseDouble(value);
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    } else if (key.equals("proto")) {
+                        proto = value;
+                    } else if (key.equals("encoding")) {
+                        encoding = value;
+                    }
+                }
+                Format candidate = null;
+                if (mediaType.equals("application/vnd.google.protobuf")) {
+                    if ("io.prometheus.client.MetricFamily".equals(proto) && "delimited".equals(encoding)) {
+                        candidate = Format.PROTOBUF;
+                    }
+                } else if (mediaType.equals("application/openmetrics-text")) {
+                    candidate = Format.OPENMETRICS_100;
+                } else if (mediaType.equals("text/plain") || mediaType.equals("text/*") || mediaType.equals("*/*")) {
+                    candidate = Format.TEXT_004;
+                }
+                if (candidate != null && quality > 0 && quality > bestQuality) {
+                    bestQuality = quality;
+                    format = candidate;
+                }
+            }
+        }
+        return format;
+    }
+
     private final CollectorRegistry registry = CollectorRegistry.defaultRegistry;
     private final LocalByteArray response = new LocalByteArray();
+    private final LocalProtobufWriter protobufResponse = new LocalProtobufWriter();
 
     public void handle(HttpExchange t) throws IOException {
         String query = t.getRequestURI().getRawQuery();
+        Format format = negotiate(t.getRequestHeaders().get("Accept"));
+
+        if (format == Format.PROTOBUF) {
+            ProtobufWriter writer = protobufResponse.get();
+            writer.reset();
+            ProtobufFormat.write(writer, registry.filteredMetricFamilySamples(parseQuery(query)));
+            sendResponse(t, format, writer::writeTo, writer.size());
+        } else {
+            ByteArrayOutputStream response = this.response.get();
+            response.reset();
+            try (OutputStreamWriter osw = new OutputStreamWriter(response, StandardCharsets.UTF_8)) {
+                if (format == Format.OPENMETRICS_100) {
+                    TextFormat.writeOpenMetrics100(osw, registry.filteredMetricFamilySamples(parseQuery(query)));
+                } else {
+                    TextFormat.write004(osw, withoutCreatedSamples(registry.filteredMetricFamilySamples(parseQuery(query))));
+                }
+            }
+            sendResponse(t, format, response::writeTo, response.size());
+        }
+    }
 
-        ByteArrayOutputStream response = this.response.get();
-        response.reset();
-        try (OutputStreamWriter osw = new OutputStreamWriter(response, StandardCharsets.UTF_8)) {
-            TextFormat.write004(osw, registry.filteredMetricFamilySamples(parseQuery(query)));
+    /**
+     * The text format 0.0.4 has no notion of {@code _created} samples, they would be exposed as additional
+     * gauge series. Only OpenMetrics and protobuf clients can make use of them, so they are omitted here.
+     */
+    static Enumeration<MetricFamilySamples> withoutCreatedSamples(Enumeration<MetricFamilySamples> mfs) {
+        List<MetricFamilySamples> result = new ArrayList<>();
+        while (mfs.hasMoreElements()) {
+            MetricFamilySamples family = mfs.nextElement();
+            if (family.type != Collector.Type.COUNTER) {
+                result.add(family);
+                continue;
+            }
+            List<MetricFamilySamples.Sample> samples = new ArrayList<>(family.samples.size());
+            for (MetricFamilySamples.Sample sample : family.samples) {
+                if (!sample.name.endsWith("_created")) {
+                    samples.add(sample);
+                }
+            }
+            if (samples.size() == family.samples.size()) {
+                result.add(family);
+            } else {
+                result.add(new MetricFamilySamples(family.name, family.unit, family.type, family.help, samples));
+            }
         }
+        return Collections.enumeration(result);
+    }
+
+    @FunctionalInterface
+    private interface ResponseBody {
+        void writeTo(OutputStream out) throws IOException;
+    }
 
-        t.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+    private static void sendResponse(HttpExchange t, Format format, ResponseBody body, int size) throws IOException {
+        t.getResponseHeaders().set("Content-Type", format.contentType);
         if (HttpServer.shouldUseCompression(t)) {
             t.getResponseHeaders().set("Content-Encoding", "gzip");
             t.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
             final GZIPOutputStream os = new GZIPOutputStream(t.getResponseBody());
-            response.writeTo(os);
+            body.writeTo(os);
             os.finish();
         } else {
-            t.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.size());
-            response.writeTo(t.getResponseBody());
+            t.sendResponseHeaders(HttpURLConnection.HTTP_OK, size);
+            body.writeTo(t.getResponseBody());
         }
         t.close();
     }
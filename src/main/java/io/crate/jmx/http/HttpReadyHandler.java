@@ -32,25 +32,24 @@ import java.net.HttpURLConnection;
 
 public class HttpReadyHandler implements HttpHandler {
 
-    private static final String READY_ATTR_NAME = "NodeStatus_Ready";
-
     private final CrateCollector crateCollector;
     private final MBeanAttributeValueStorage attributeValueStorage;
+    private final MBeanAttributeValueStorage.Attribute ready;
 
     public HttpReadyHandler(CrateCollector crateCollector, MBeanAttributeValueStorage attributeValueStorage) {
         this.crateCollector = crateCollector;
         this.attributeValueStorage = attributeValueStorage;
+        this.ready = attributeValueStorage.register("NodeStatus", "Ready");
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        // collect crate jmx values
-        attributeValueStorage.reset();
+        // collect crate jmx values, publishing them to the attribute value storage
         crateCollector.collect("type=NodeStatus");
 
         exchange.getResponseHeaders().set("Content-Length", "0");
 
-        Object readyValue = attributeValueStorage.get(READY_ATTR_NAME);
+        Object readyValue = attributeValueStorage.get(ready);
         if (readyValue instanceof Boolean) {
             Boolean boolVal = (Boolean) readyValue;
             if (boolVal) {
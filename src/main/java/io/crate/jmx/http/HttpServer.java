@@ -27,8 +27,12 @@ import com.sun.net.httpserver.HttpHandler;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -54,6 +58,23 @@ public class HttpServer {
         return false;
     }
 
+    /**
+     * Parses the parameters of a raw query string, e.g. {@code a=1&b=2}. Parameters without value are ignored.
+     */
+    static Map<String, String> queryParams(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int idx = pair.indexOf('=');
+                if (idx > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, idx), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(idx + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
     private static class DaemonThreadFactory implements ThreadFactory {
         private ThreadFactory delegate;
         private final boolean daemon;
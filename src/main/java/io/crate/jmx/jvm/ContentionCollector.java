@@ -0,0 +1,269 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes how often and how long the threads of each pool were blocked on monitors or waiting, see
+ * {@link ThreadInfo#getBlockedCount()} and {@link ThreadInfo#getWaitedCount()}. Waiting includes parking, e.g. of
+ * idle pool workers on their queue, so only the blocked metrics indicate contention.
+ *
+ * The times require thread contention monitoring, which is enabled by this collector. The threads are sampled on
+ * their own schedule and scrapes only read the last sample. If a sample takes longer than the sample budget
+ * {@value #MAX_OVER_BUDGET} times in a row, sampling is stopped and contention monitoring disabled again.
+ */
+public class ContentionCollector extends Collector {
+
+    private static final Logger LOGGER = Logger.getLogger(ContentionCollector.class.getName());
+
+    static final int MAX_OVER_BUDGET = 3;
+
+    private static final List<String> POOL_LABELS = List.of("pool");
+
+    private final ThreadMXBean threadBean;
+    private final long sampleIntervalMs;
+    private final long budgetNanos;
+    private final LongSupplier nanoTime;
+    private final ScheduledExecutorService scheduler;
+
+    // only accessed by the sampling thread
+    private final PoolIndex pools;
+    private final Map<Long, ThreadContention> threads = new HashMap<>();
+    private long[] retired = new long[0];
+    private int overBudget;
+    private boolean enabledMonitoring;
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new long[0], 0);
+    private volatile boolean enabled = true;
+
+    public ContentionCollector(ThreadMXBean threadBean, long sampleIntervalMs, long budgetMs, int maxPools) {
+        this(threadBean, sampleIntervalMs, budgetMs, maxPools, System::nanoTime);
+    }
+
+    ContentionCollector(ThreadMXBean threadBean,
+                        long sampleIntervalMs,
+                        long budgetMs,
+                        int maxPools,
+                        LongSupplier nanoTime) {
+        this.threadBean = threadBean;
+        this.sampleIntervalMs = sampleIntervalMs;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        this.pools = new PoolIndex(maxPools);
+        this.nanoTime = nanoTime;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crate-jmx-contention-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Enables contention monitoring and starts sampling.
+     */
+    public void start() {
+        if (!threadBean.isThreadContentionMonitoringSupported()) {
+            LOGGER.log(Level.WARNING, "Thread contention monitoring is not supported by this JVM");
+            enabled = false;
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::sampleSafely, 0, sampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            // must not escape, the scheduler would cancel all further executions
+            LOGGER.log(Level.SEVERE, "Cannot sample thread contention", e);
+        }
+    }
+
+    void sample() {
+        if (!enabledMonitoring && !threadBean.isThreadContentionMonitoringEnabled()) {
+            threadBean.setThreadContentionMonitoringEnabled(true);
+            enabledMonitoring = true;
+        }
+        long startedAt = nanoTime.getAsLong();
+        ThreadInfo[] infos = threadBean.getThreadInfo(threadBean.getAllThreadIds(), 0);
+        Map<Long, ThreadContention> live = new HashMap<>(infos.length * 2);
+        for (ThreadInfo info : infos) {
+            // null if the thread stopped in the meantime
+            if (info == null) {
+                continue;
+            }
+            ThreadContention contention = threads.remove(info.getThreadId());
+            if (contention == null) {
+                contention = new ThreadContention(pool(ThreadPoolNames.poolName(info.getThreadName())));
+            }
+            contention.update(info);
+            live.put(info.getThreadId(), contention);
+        }
+        // the remaining threads stopped, their last values are retained to keep the counters monotonic
+        for (ThreadContention contention : threads.values()) {
+            contention.addTo(retired);
+        }
+        threads.clear();
+        threads.putAll(live);
+
+        long[] values = Arrays.copyOf(retired, retired.length);
+        for (ThreadContention contention : threads.values()) {
+            contention.addTo(values);
+        }
+        String[] names = new String[pools.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = pools.name(i);
+        }
+        long duration = nanoTime.getAsLong() - startedAt;
+        snapshot = new Snapshot(names, values, duration);
+        checkBudget(duration);
+    }
+
+    private void checkBudget(long durationNanos) {
+        if (durationNanos <= budgetNanos) {
+            overBudget = 0;
+            return;
+        }
+        overBudget++;
+        if (overBudget >= MAX_OVER_BUDGET) {
+            LOGGER.log(Level.WARNING, "Sampling thread contention took " + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                                      + "ms, exceeding its budget " + MAX_OVER_BUDGET + " times in a row, disabling it");
+            enabled = false;
+            if (enabledMonitoring) {
+                threadBean.setThreadContentionMonitoringEnabled(false);
+            }
+            scheduler.shutdown();
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    private int pool(String name) {
+        int idx = pools.index(name);
+        if (idx * ThreadContention.VALUES >= retired.length) {
+            retired = Arrays.copyOf(retired, pools.size() * ThreadContention.VALUES);
+        }
+        return idx;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        Snapshot current = snapshot;
+        CounterMetricFamily blocked = new CounterMetricFamily(
+            "jvm_threads_pool_blocked", "Number of times the threads of a pool blocked to enter a monitor", POOL_LABELS);
+        CounterMetricFamily blockedSeconds = new CounterMetricFamily(
+            "jvm_threads_pool_blocked_seconds", "Time the threads of a pool blocked to enter a monitor", POOL_LABELS);
+        CounterMetricFamily waited = new CounterMetricFamily(
+            "jvm_threads_pool_waited",
+            "Number of times the threads of a pool waited or parked, mostly idle workers waiting for tasks",
+            POOL_LABELS);
+        CounterMetricFamily waitedSeconds = new CounterMetricFamily(
+            "jvm_threads_pool_waited_seconds",
+            "Time the threads of a pool waited or parked, mostly idle time; contention shows as blocked time",
+            POOL_LABELS);
+        for (int i = 0; i < current.pools.length; i++) {
+            List<String> labelValues = List.of(current.pools[i]);
+            int offset = i * ThreadContention.VALUES;
+            blocked.addMetric(labelValues, current.values[offset]);
+            blockedSeconds.addMetric(labelValues, current.values[offset + 1] / 1000.0);
+            waited.addMetric(labelValues, current.values[offset + 2]);
+            waitedSeconds.addMetric(labelValues, current.values[offset + 3] / 1000.0);
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<>(6);
+        mfs.add(blocked);
+        mfs.add(blockedSeconds);
+        mfs.add(waited);
+        mfs.add(waitedSeconds);
+        mfs.add(new GaugeMetricFamily(
+            "jvm_threads_contention_sampling_enabled",
+            "Whether thread contention is sampled, sampling is disabled if it exceeds its budget",
+            enabled ? 1 : 0));
+        mfs.add(new GaugeMetricFamily(
+            "jvm_threads_contention_sample_seconds", "Duration of the last thread contention sample",
+            current.durationNanos / 1E9));
+        return mfs;
+    }
+
+    private static final class Snapshot {
+
+        private final String[] pools;
+        // per pool: blocked count, blocked time ms, waited count, waited time ms
+        private final long[] values;
+        private final long durationNanos;
+
+        Snapshot(String[] pools, long[] values, long durationNanos) {
+            this.pools = pools;
+            this.values = values;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private static final class ThreadContention {
+
+        static final int VALUES = 4;
+
+        private final int pool;
+        private final long[] values = new long[VALUES];
+
+        ThreadContention(int pool) {
+            this.pool = pool;
+        }
+
+        void update(ThreadInfo info) {
+            values[0] = info.getBlockedCount();
+            values[2] = info.getWaitedCount();
+            // -1 if contention monitoring is disabled, keep the last known values then
+            if (info.getBlockedTime() >= 0) {
+                values[1] = info.getBlockedTime();
+            }
+            if (info.getWaitedTime() >= 0) {
+                values[3] = info.getWaitedTime();
+            }
+        }
+
+        void addTo(long[] perPool) {
+            int offset = pool * VALUES;
+            for (int i = 0; i < VALUES; i++) {
+                perPool[offset + i] += values[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes the direct memory limit of the JVM and, if Netty is on the class path, the usage of its pooled allocator.
+ *
+ * The usage of the direct and mapped buffer pools themselves is exposed by the {@code BufferPoolsExports} as
+ * {@code jvm_buffer_pool_used_bytes}. Netty is accessed reflectively and only once CrateDB has loaded its allocator:
+ * loading it from the scrape thread would initialize it before CrateDB configured it. The loaded classes are looked
+ * up at most once per minute until the allocator is found, so this collector costs nothing if Netty is absent.
+ */
+public class DirectMemoryCollector extends Collector {
+
+    private static final Logger LOGGER = Logger.getLogger(DirectMemoryCollector.class.getName());
+
+    private static final long LOOKUP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final List<String> TYPE_LABELS = List.of("type");
+    private static final List<String> HEAP = List.of("heap");
+    private static final List<String> DIRECT = List.of("direct");
+
+    private static final String ALLOCATOR_CLASS = "io.netty.buffer.PooledByteBufAllocator";
+
+    private final Function<String, Class<?>> loadedClass;
+    private final LongSupplier nanoTime;
+    private final long maxDirectMemory;
+
+    private NettyAllocator netty;
+    private boolean lookedUp;
+    private long lookedUpAt;
+
+    /**
+     * @param instrumentation used to find out whether Netty has been loaded, the Netty metrics are disabled if null
+     */
+    public DirectMemoryCollector(Instrumentation instrumentation) {
+        this(name -> instrumentation == null ? null : loadedClass(instrumentation, name), System::nanoTime);
+    }
+
+    /**
+     * @param loadedClass returns the class with the given name if it has already been loaded, otherwise null
+     */
+    DirectMemoryCollector(Function<String, Class<?>> loadedClass, LongSupplier nanoTime) {
+        this.loadedClass = loadedClass;
+        this.nanoTime = nanoTime;
+        this.maxDirectMemory = maxDirectMemory();
+    }
+
+    private static Class<?> loadedClass(Instrumentation instrumentation, String name) {
+        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            if (clazz.getName().equals(name)) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    private static long maxDirectMemory() {
+        HotSpotDiagnosticMXBean diagnosticBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        if (diagnosticBean != null) {
+            try {
+                long value = Long.parseLong(diagnosticBean.getVMOption("MaxDirectMemorySize").getValue());
+                if (value > 0) {
+                    return value;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // not a HotSpot based JVM, fall back to the default
+            }
+        }
+        // the default limit of direct memory is the maximum heap size
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    @Override
+    public synchronized List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        mfs.add(new GaugeMetricFamily(
+            "jvm_direct_memory_max_bytes", "Maximum amount of direct memory the JVM can allocate", maxDirectMemory));
+        NettyAllocator allocator = nettyAllocator();
+        if (allocator != null) {
+            try {
+                allocator.collect(mfs);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cannot read Netty allocator metrics, disabling them", e);
+                netty = null;
+            }
+        }
+        return mfs;
+    }
+
+    private NettyAllocator nettyAllocator() {
+        if (netty != null) {
+            return netty;
+        }
+        long now = nanoTime.getAsLong();
+        if (lookedUp && now - lookedUpAt < LOOKUP_INTERVAL_NANOS) {
+            return null;
+        }
+        lookedUp = true;
+        lookedUpAt = now;
+        Class<?> allocatorClass = loadedClass.apply(ALLOCATOR_CLASS);
+        if (allocatorClass == null) {
+            // Netty not loaded (yet)
+            return null;
+        }
+        try {
+            netty = new NettyAllocator(allocatorClass);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unsupported Netty version, Netty allocator metrics are disabled", e);
+        }
+        return netty;
+    }
+
+    /**
+     * Reads the metrics of {@code PooledByteBufAllocator.DEFAULT} and of {@code PlatformDependent} via reflection.
+     */
+    private static final class NettyAllocator {
+
+        private final Object metric;
+        private final Method numHeapArenas;
+        private final Method numDirectArenas;
+        private final Method usedHeapMemory;
+        private final Method usedDirectMemory;
+        private final Method numThreadLocalCaches;
+        private final Method heapArenas;
+        private final Method directArenas;
+        private final Method arenaNumAllocations;
+        private final Method platformUsedDirectMemory;
+        private final Method platformMaxDirectMemory;
+
+        NettyAllocator(Class<?> allocatorClass) throws ReflectiveOperationException {
+            ClassLoader classLoader = allocatorClass.getClassLoader();
+            Field defaultAllocator = allocatorClass.getField("DEFAULT");
+            metric = allocatorClass.getMethod("metric").invoke(defaultAllocator.get(null));
+            Class<?> metricClass = Class.forName("io.netty.buffer.PooledByteBufAllocatorMetric", false, classLoader);
+            numHeapArenas = metricClass.getMethod("numHeapArenas");
+            numDirectArenas = metricClass.getMethod("numDirectArenas");
+            usedHeapMemory = metricClass.getMethod("usedHeapMemory");
+            usedDirectMemory = metricClass.getMethod("usedDirectMemory");
+            numThreadLocalCaches = metricClass.getMethod("numThreadLocalCaches");
+            heapArenas = metricClass.getMethod("heapArenas");
+            directArenas = metricClass.getMethod("directArenas");
+            // the arena implementation is package private, so look the method up on the public interface
+            arenaNumAllocations = Class.forName("io.netty.buffer.PoolArenaMetric", false, classLoader)
+                .getMethod("numAllocations");
+            Class<?> platform = Class.forName("io.netty.util.internal.PlatformDependent", false, classLoader);
+            platformUsedDirectMemory = platform.getMethod("usedDirectMemory");
+            platformMaxDirectMemory = platform.getMethod("maxDirectMemory");
+        }
+
+        void collect(List<MetricFamilySamples> mfs) throws ReflectiveOperationException {
+            GaugeMetricFamily arenas = new GaugeMetricFamily(
+                "netty_allocator_arenas", "Number of arenas of the pooled Netty allocator", TYPE_LABELS);
+            arenas.addMetric(HEAP, ((Number) numHeapArenas.invoke(metric)).doubleValue());
+            arenas.addMetric(DIRECT, ((Number) numDirectArenas.invoke(metric)).doubleValue());
+            mfs.add(arenas);
+
+            GaugeMetricFamily used = new GaugeMetricFamily(
+                "netty_allocator_used_bytes", "Memory used by the pooled Netty allocator", TYPE_LABELS);
+            used.addMetric(HEAP, ((Number) usedHeapMemory.invoke(metric)).doubleValue());
+            used.addMetric(DIRECT, ((Number) usedDirectMemory.invoke(metric)).doubleValue());
+            mfs.add(used);
+
+            mfs.add(new GaugeMetricFamily(
+                "netty_allocator_thread_local_caches",
+                "Number of thread local caches of the pooled Netty allocator",
+                ((Number) numThreadLocalCaches.invoke(metric)).doubleValue()));
+
+            CounterMetricFamily allocations = new CounterMetricFamily(
+                "netty_allocator_arena_allocations",
+                "Allocations served by the arenas of the pooled Netty allocator, i.e. missed by the thread local caches",
+                TYPE_LABELS);
+            allocations.addMetric(HEAP, arenaAllocations((List<?>) heapArenas.invoke(metric)));
+            allocations.addMetric(DIRECT, arenaAllocations((List<?>) directArenas.invoke(metric)));
+            mfs.add(allocations);
+
+            // -1 if Netty doesn't track its direct memory, which is the case if it uses direct buffers with cleaner
+            long platformUsed = ((Number) platformUsedDirectMemory.invoke(null)).longValue();
+            if (platformUsed >= 0) {
+                mfs.add(new GaugeMetricFamily(
+                    "netty_direct_memory_used_bytes", "Direct memory reserved by Netty", platformUsed));
+                mfs.add(new GaugeMetricFamily(
+                    "netty_direct_memory_max_bytes",
+                    "Maximum amount of direct memory Netty can reserve",
+                    ((Number) platformMaxDirectMemory.invoke(null)).doubleValue()));
+            }
+        }
+
+        private double arenaAllocations(List<?> arenas) throws ReflectiveOperationException {
+            long sum = 0;
+            for (Object arena : arenas) {
+                sum += ((Number) arenaNumAllocations.invoke(arena)).longValue();
+            }
+            return sum;
+        }
+    }
+}
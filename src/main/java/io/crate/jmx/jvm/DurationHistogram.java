@@ -0,0 +1,72 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Lock-free histogram of durations with fixed buckets from 1ms up to 10s.
+ */
+final class DurationHistogram {
+
+    /**
+     * Upper bounds of the buckets in seconds, the last bucket is {@code +Inf}.
+     */
+    static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    // not cumulative, the last bucket counts the durations above the highest bound
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+    private final DoubleAdder sum = new DoubleAdder();
+
+    void add(double seconds) {
+        int bucket = 0;
+        while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        sum.add(seconds);
+    }
+
+    /**
+     * Adds the {@code _bucket}, {@code _count} and {@code _sum} samples of this histogram.
+     */
+    void addSamples(String name, List<String> labelNames, List<String> labelValues, List<Sample> samples) {
+        List<String> bucketLabelNames = new ArrayList<>(labelNames);
+        bucketLabelNames.add("le");
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+            List<String> bucketLabelValues = new ArrayList<>(labelValues);
+            bucketLabelValues.add(i < BUCKETS.length ? Collector.doubleToGoString(BUCKETS[i]) : "+Inf");
+            samples.add(new Sample(name + "_bucket", bucketLabelNames, bucketLabelValues, count));
+        }
+        samples.add(new Sample(name + "_count", labelNames, labelValues, count));
+        samples.add(new Sample(name + "_sum", labelNames, labelValues, sum.sum()));
+    }
+}
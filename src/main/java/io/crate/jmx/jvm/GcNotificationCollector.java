@@ -0,0 +1,190 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records every garbage collection from the notifications of the garbage collector MXBeans.
+ *
+ * Unlike the cumulative count and time of the {@code GarbageCollectorExports}, the pause durations are recorded
+ * into a histogram, so that single long pauses remain visible. Concurrent collectors, e.g. {@code ZGC Cycles}, notify
+ * about cycles which mostly run concurrently to the application, their durations are recorded into a separate
+ * histogram, {@code jvm_gc_concurrent_phase_seconds}. The memory pool usage before and after each
+ * collection is used to derive the allocated and promoted bytes. Notifications are recorded into atomic accumulators,
+ * a scrape doesn't call any MXBean.
+ */
+public class GcNotificationCollector extends Collector {
+
+    private static final List<String> PAUSE_LABELS = List.of("gc", "action");
+    private static final List<String> POOL_LABELS = List.of("pool");
+    // collectors whose notifications report concurrent cycles instead of stop-the-world pauses
+    private static final Set<String> CONCURRENT_COLLECTORS = Set.of(
+        "ZGC Cycles", "ZGC Major Cycles", "ZGC Minor Cycles", "Shenandoah Cycles", "G1 Concurrent GC",
+        "ConcurrentMarkSweep");
+
+    // gc and action -> pause histogram
+    private final Map<List<String>, DurationHistogram> pauses = new ConcurrentHashMap<>();
+    // gc and action -> concurrent cycle histogram
+    private final Map<List<String>, DurationHistogram> concurrentPhases = new ConcurrentHashMap<>();
+    private final Map<String, PoolUsage> pools = new ConcurrentHashMap<>();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder promotedBytes = new LongAdder();
+    // usage of the young generation after the previous collection, allocations since then are attributed to the next
+    private final AtomicLong youngUsedAfterLastGc = new AtomicLong();
+
+    /**
+     * Subscribes to the notifications of all given garbage collectors.
+     */
+    public void subscribe(List<GarbageCollectorMXBean> gcBeans) {
+        NotificationListener listener = this::handleNotification;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            if (gcBean instanceof NotificationEmitter) {
+                ((NotificationEmitter) gcBean).addNotificationListener(
+                    listener,
+                    n -> GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType()),
+                    null);
+            }
+        }
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        GcInfo gcInfo = info.getGcInfo();
+        record(info.getGcName(), info.getGcAction(), gcInfo.getDuration(),
+            gcInfo.getMemoryUsageBeforeGc(), gcInfo.getMemoryUsageAfterGc());
+    }
+
+    void record(String gcName,
+                String gcAction,
+                long durationMs,
+                Map<String, MemoryUsage> before,
+                Map<String, MemoryUsage> after) {
+        Map<List<String>, DurationHistogram> durations = isConcurrent(gcName, gcAction) ? concurrentPhases : pauses;
+        durations.computeIfAbsent(List.of(gcName, gcAction), k -> new DurationHistogram()).add(durationMs / 1000.0);
+
+        long youngBefore = 0;
+        long youngAfter = 0;
+        for (Map.Entry<String, MemoryUsage> entry : before.entrySet()) {
+            String pool = entry.getKey();
+            MemoryUsage usageAfter = after.get(pool);
+            if (usageAfter == null) {
+                continue;
+            }
+            long usedBefore = entry.getValue().getUsed();
+            long usedAfter = usageAfter.getUsed();
+            PoolUsage usage = pools.computeIfAbsent(pool, k -> new PoolUsage());
+            usage.usedBefore = usedBefore;
+            usage.usedAfter = usedAfter;
+            if (isYoungPool(pool)) {
+                youngBefore += usedBefore;
+                youngAfter += usedAfter;
+            } else if (isOldPool(pool) && usedAfter > usedBefore) {
+                promotedBytes.add(usedAfter - usedBefore);
+            }
+        }
+        long allocated = youngBefore - youngUsedAfterLastGc.getAndSet(youngAfter);
+        if (allocated > 0) {
+            allocatedBytes.add(allocated);
+        }
+    }
+
+    static boolean isConcurrent(String gcName, String gcAction) {
+        return CONCURRENT_COLLECTORS.contains(gcName) || gcAction.equals("end of GC cycle");
+    }
+
+    static boolean isYoungPool(String pool) {
+        return pool.endsWith("Eden Space") || pool.equals("ZGC Young Generation");
+    }
+
+    static boolean isOldPool(String pool) {
+        return pool.endsWith("Old Gen") || pool.equals("Tenured Gen") || pool.equals("ZGC Old Generation");
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        List<MetricFamilySamples.Sample> pauseSamples = new ArrayList<>();
+        for (Map.Entry<List<String>, DurationHistogram> entry : pauses.entrySet()) {
+            entry.getValue().addSamples("jvm_gc_pause_seconds", PAUSE_LABELS, entry.getKey(), pauseSamples);
+        }
+        mfs.add(new MetricFamilySamples(
+            "jvm_gc_pause_seconds", Type.HISTOGRAM, "Duration of garbage collection pauses", pauseSamples));
+        List<MetricFamilySamples.Sample> concurrentSamples = new ArrayList<>();
+        for (Map.Entry<List<String>, DurationHistogram> entry : concurrentPhases.entrySet()) {
+            entry.getValue().addSamples(
+                "jvm_gc_concurrent_phase_seconds", PAUSE_LABELS, entry.getKey(), concurrentSamples);
+        }
+        mfs.add(new MetricFamilySamples(
+            "jvm_gc_concurrent_phase_seconds",
+            Type.HISTOGRAM,
+            "Duration of concurrent garbage collection cycles, which mostly run alongside the application",
+            concurrentSamples));
+
+        GaugeMetricFamily before = new GaugeMetricFamily(
+            "jvm_gc_pool_before_bytes", "Used bytes of a memory pool before the last garbage collection", POOL_LABELS);
+        GaugeMetricFamily after = new GaugeMetricFamily(
+            "jvm_gc_pool_after_bytes", "Used bytes of a memory pool after the last garbage collection", POOL_LABELS);
+        for (Map.Entry<String, PoolUsage> entry : pools.entrySet()) {
+            List<String> labelValues = List.of(entry.getKey());
+            before.addMetric(labelValues, entry.getValue().usedBefore);
+            after.addMetric(labelValues, entry.getValue().usedAfter);
+        }
+        mfs.add(before);
+        mfs.add(after);
+        mfs.add(new CounterMetricFamily(
+            "jvm_gc_allocated_bytes_total",
+            "Bytes allocated in the young generation, updated on garbage collections",
+            allocatedBytes.sum()));
+        mfs.add(new CounterMetricFamily(
+            "jvm_gc_promoted_bytes_total",
+            "Bytes promoted to the old generation by garbage collections",
+            promotedBytes.sum()));
+        return mfs;
+    }
+
+    private static final class PoolUsage {
+
+        private volatile long usedBefore;
+        private volatile long usedAfter;
+    }
+}
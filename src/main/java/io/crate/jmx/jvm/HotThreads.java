@@ -0,0 +1,233 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.crate.jmx.format.Json;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the threads using the most CPU time, similar to the hot threads API of Elasticsearch.
+ *
+ * The CPU time of all threads is measured over an interval. Afterwards the stacks of the hottest threads are
+ * sampled a few times, identical stacks are merged and reported with the number of snapshots they appeared in.
+ */
+public final class HotThreads {
+
+    private static final long SNAPSHOT_DELAY_MS = 10;
+
+    private final ThreadMXBean threadBean;
+
+    public HotThreads(ThreadMXBean threadBean) {
+        this.threadBean = threadBean;
+    }
+
+    public boolean isSupported() {
+        return threadBean.isThreadCpuTimeSupported();
+    }
+
+    /**
+     * Measures the CPU time of all threads for the given interval and samples the stacks of the hottest ones.
+     *
+     * @param intervalMs the interval to measure the CPU time for
+     * @param threads    the number of threads to report
+     * @param snapshots  the number of stack snapshots taken of each reported thread
+     */
+    public Report sample(long intervalMs, int threads, int snapshots) throws InterruptedException {
+        boolean cpuTimeEnabled = threadBean.isThreadCpuTimeEnabled();
+        if (!cpuTimeEnabled) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+        try {
+            long[] ids = threadBean.getAllThreadIds();
+            long[] start = cpuTimes(ids);
+            Thread.sleep(intervalMs);
+            long[] end = cpuTimes(ids);
+
+            long self = Thread.currentThread().getId();
+            List<long[]> deltas = new ArrayList<>(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                // -1 if the thread stopped in the meantime
+                if (ids[i] != self && start[i] >= 0 && end[i] >= 0) {
+                    deltas.add(new long[]{ids[i], end[i] - start[i]});
+                }
+            }
+            deltas.sort(Comparator.comparingLong((long[] d) -> d[1]).reversed());
+            int count = Math.min(threads, deltas.size());
+            long[] hotIds = new long[count];
+            HotThread[] hotThreads = new HotThread[count];
+            for (int i = 0; i < count; i++) {
+                hotIds[i] = deltas.get(i)[0];
+                hotThreads[i] = new HotThread(hotIds[i], deltas.get(i)[1]);
+            }
+
+            for (int snapshot = 0; snapshot < snapshots; snapshot++) {
+                if (snapshot > 0) {
+                    Thread.sleep(SNAPSHOT_DELAY_MS);
+                }
+                ThreadInfo[] infos = threadBean.getThreadInfo(hotIds, Integer.MAX_VALUE);
+                for (int i = 0; i < count; i++) {
+                    if (infos[i] != null) {
+                        hotThreads[i].add(infos[i]);
+                    }
+                }
+            }
+            List<HotThread> result = new ArrayList<>(count);
+            for (HotThread hotThread : hotThreads) {
+                // threads which stopped before the first snapshot have no name
+                if (hotThread.name != null) {
+                    result.add(hotThread);
+                }
+            }
+            return new Report(intervalMs, snapshots, result);
+        } finally {
+            if (!cpuTimeEnabled) {
+                threadBean.setThreadCpuTimeEnabled(false);
+            }
+        }
+    }
+
+    private long[] cpuTimes(long[] ids) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadCpuTime(ids);
+        }
+        long[] result = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = threadBean.getThreadCpuTime(ids[i]);
+        }
+        return result;
+    }
+
+    public static final class Report {
+
+        private final long intervalMs;
+        private final int snapshots;
+        private final List<HotThread> threads;
+
+        Report(long intervalMs, int snapshots, List<HotThread> threads) {
+            this.intervalMs = intervalMs;
+            this.snapshots = snapshots;
+            this.threads = threads;
+        }
+
+        List<HotThread> threads() {
+            return threads;
+        }
+
+        public String toText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Hot threads, interval=").append(intervalMs).append("ms, snapshots=").append(snapshots).append('\n');
+            for (HotThread thread : threads) {
+                sb.append('\n');
+                sb.append(String.format(Locale.ENGLISH, "   %.1f%% (%.1fms out of %dms) cpu usage by thread '%s'\n",
+                    thread.cpuPercent(intervalMs), thread.cpuNanos / 1E6, intervalMs, thread.name));
+                for (Map.Entry<List<StackTraceElement>, Integer> stack : thread.stacks.entrySet()) {
+                    List<StackTraceElement> frames = stack.getKey();
+                    sb.append("     ").append(stack.getValue()).append('/').append(snapshots)
+                        .append(" snapshots sharing following ").append(frames.size()).append(" elements\n");
+                    for (StackTraceElement frame : frames) {
+                        sb.append("       ").append(frame).append('\n');
+                    }
+                }
+            }
+            return sb.toString();
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"interval_ms\":").append(intervalMs)
+                .append(",\"snapshots\":").append(snapshots)
+                .append(",\"threads\":[");
+            for (int i = 0; i < threads.size(); i++) {
+                HotThread thread = threads.get(i);
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"id\":").append(thread.id).append(",\"name\":");
+                Json.appendString(sb, thread.name);
+                sb.append(",\"cpu_percent\":")
+                    .append(String.format(Locale.ENGLISH, "%.1f", thread.cpuPercent(intervalMs)))
+                    .append(",\"cpu_ms\":")
+                    .append(String.format(Locale.ENGLISH, "%.1f", thread.cpuNanos / 1E6))
+                    .append(",\"stacks\":[");
+                boolean firstStack = true;
+                for (Map.Entry<List<StackTraceElement>, Integer> stack : thread.stacks.entrySet()) {
+                    if (!firstStack) {
+                        sb.append(',');
+                    }
+                    firstStack = false;
+                    sb.append("{\"snapshots\":").append(stack.getValue()).append(",\"frames\":[");
+                    List<StackTraceElement> frames = stack.getKey();
+                    for (int f = 0; f < frames.size(); f++) {
+                        if (f > 0) {
+                            sb.append(',');
+                        }
+                        Json.appendString(sb, frames.get(f).toString());
+                    }
+                    sb.append("]}");
+                }
+                sb.append("]}");
+            }
+            return sb.append("]}").toString();
+        }
+    }
+
+    static final class HotThread {
+
+        private final long id;
+        private final long cpuNanos;
+        private String name;
+        // identical stacks are merged, ordered by the first snapshot they appeared in
+        private final Map<List<StackTraceElement>, Integer> stacks = new LinkedHashMap<>();
+
+        HotThread(long id, long cpuNanos) {
+            this.id = id;
+            this.cpuNanos = cpuNanos;
+        }
+
+        void add(ThreadInfo info) {
+            name = info.getThreadName();
+            stacks.merge(Arrays.asList(info.getStackTrace()), 1, Integer::sum);
+        }
+
+        String name() {
+            return name;
+        }
+
+        Map<List<StackTraceElement>, Integer> stacks() {
+            return stacks;
+        }
+
+        double cpuPercent(long intervalMs) {
+            return intervalMs == 0 ? 0 : 100.0 * cpuNanos / (intervalMs * 1E6);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.crate.jmx.AgentSettings;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams JDK Flight Recorder events into metrics, enabled with {@code crate.jmx.jfr.enabled=true}.
+ *
+ * Event streaming requires Java 14. This is the fallback for older JVMs, the implementation is part of the
+ * multi-release jar, see {@code src/main/java14}.
+ */
+public final class JfrEvents {
+
+    private static final Logger LOGGER = Logger.getLogger(JfrEvents.class.getName());
+
+    private JfrEvents() {
+    }
+
+    public static void initialize() {
+        if (AgentSettings.getBoolean("jfr.enabled", false)) {
+            LOGGER.log(Level.WARNING, "JFR event streaming requires Java 14 or newer, JFR metrics are disabled");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.crate.jmx.AgentSettings;
+import io.prometheus.client.hotspot.BufferPoolsExports;
+import io.prometheus.client.hotspot.ClassLoadingExports;
+import io.prometheus.client.hotspot.DefaultExports;
+import io.prometheus.client.hotspot.GarbageCollectorExports;
+import io.prometheus.client.hotspot.MemoryAllocationExports;
+import io.prometheus.client.hotspot.MemoryPoolsExports;
+import io.prometheus.client.hotspot.StandardExports;
+import io.prometheus.client.hotspot.VersionInfoExports;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registers the JVM metrics.
+ *
+ * By default these are the {@link DefaultExports} of the Prometheus hotspot library. With
+ * {@code crate.jmx.jvm.threads.collector=sampled} its thread metrics are replaced by the {@link ThreadCollector}.
+ * Additionally the CPU time and allocated bytes per thread pool are exposed by the {@link ThreadPoolUsageCollector}
+ * and every garbage collection is recorded by the {@link GcNotificationCollector}. The {@link DirectMemoryCollector}
+ * adds the direct memory limit and the Netty allocator usage. Optionally, thread contention is sampled by the
+ * {@link ContentionCollector} and JFR events are streamed into metrics by {@link JfrEvents}.
+ */
+public final class JvmExports {
+
+    private static final Logger LOGGER = Logger.getLogger(JvmExports.class.getName());
+
+    private JvmExports() {
+    }
+
+    public static void initialize(Instrumentation instrumentation) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        String threadCollector = AgentSettings.get("jvm.threads.collector", "hotspot").toLowerCase(Locale.ENGLISH);
+        switch (threadCollector) {
+            case "hotspot":
+                DefaultExports.initialize();
+                break;
+            case "sampled":
+                new StandardExports().register();
+                new MemoryPoolsExports().register();
+                new MemoryAllocationExports().register();
+                new BufferPoolsExports().register();
+                new GarbageCollectorExports().register();
+                new ClassLoadingExports().register();
+                new VersionInfoExports().register();
+                new ThreadCollector(
+                    threadBean,
+                    AgentSettings.getMillis("jvm.threads.sample_interval", "15s"),
+                    AgentSettings.getBoolean("jvm.threads.group_by_pool", true),
+                    AgentSettings.getInt("jvm.threads.max_pools", 50),
+                    AgentSettings.getBoolean("jvm.threads.deadlock_detection", true)
+                ).register();
+                break;
+            default:
+                throw new IllegalArgumentException(
+                    "Invalid value '" + threadCollector + "' for setting " + AgentSettings.PREFIX
+                    + "jvm.threads.collector, must be one of hotspot or sampled");
+        }
+        if (AgentSettings.getBoolean("jvm.gc.notifications", true)) {
+            GcNotificationCollector gcCollector = new GcNotificationCollector();
+            gcCollector.subscribe(ManagementFactory.getGarbageCollectorMXBeans());
+            gcCollector.register();
+        }
+        new DirectMemoryCollector(instrumentation).register();
+        if (AgentSettings.getBoolean("jvm.contention.enabled", false)) {
+            ContentionCollector contentionCollector = new ContentionCollector(
+                threadBean,
+                AgentSettings.getMillis("jvm.contention.sample_interval", "60s"),
+                AgentSettings.getMillis("jvm.contention.budget", "100ms"),
+                AgentSettings.getInt("jvm.threads.max_pools", 50)
+            );
+            contentionCollector.start();
+            contentionCollector.register();
+        }
+        JfrEvents.initialize();
+        if (AgentSettings.getBoolean("jvm.threads.pool_usage", true)) {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                new ThreadPoolUsageCollector(
+                    (com.sun.management.ThreadMXBean) threadBean,
+                    AgentSettings.getInt("jvm.threads.max_pools", 50)
+                ).register();
+            } else {
+                LOGGER.log(Level.WARNING, "Thread pool CPU and allocation metrics are not supported by this JVM");
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns stable indices to thread pool names, up to a maximum number of pools. Further pools share the index of
+ * {@link ThreadCollector#OTHER_POOL}.
+ */
+final class PoolIndex {
+
+    private final int maxPools;
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    PoolIndex(int maxPools) {
+        this.maxPools = maxPools;
+    }
+
+    int index(String pool) {
+        Integer idx = indices.get(pool);
+        if (idx != null) {
+            return idx;
+        }
+        if (indices.size() >= maxPools) {
+            pool = ThreadCollector.OTHER_POOL;
+            idx = indices.get(pool);
+            if (idx != null) {
+                return idx;
+            }
+        }
+        idx = names.size();
+        names.add(pool);
+        indices.put(pool, idx);
+        return idx;
+    }
+
+    String name(int index) {
+        return names.get(index);
+    }
+
+    int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Replacement for the {@code ThreadExports} of the Prometheus hotspot library, exposing the same metrics.
+ *
+ * Reading the state of every thread is costly on nodes with hundreds of threads, so the states (and the
+ * optional deadlock detection) are only sampled once per sample interval, scrapes in between are served from the
+ * cached counts. Optionally the states are also counted per thread pool, see {@link ThreadPoolNames}.
+ */
+public class ThreadCollector extends Collector {
+
+    /**
+     * Pool of the threads above the maximum number of pools.
+     */
+    static final String OTHER_POOL = "other";
+
+    private static final Thread.State[] STATES = Thread.State.values();
+
+    private final ThreadMXBean threadBean;
+    private final long sampleIntervalNanos;
+    private final boolean groupByPool;
+    private final int maxPools;
+    private final boolean detectDeadlocks;
+    private final LongSupplier nanoTime;
+
+    private long sampledAt;
+    private boolean sampled;
+    private final long[] stateCounts = new long[STATES.length];
+    // pool name -> thread count per state, in the order of STATES
+    private final Map<String, long[]> poolStateCounts = new HashMap<>();
+    private int deadlocked;
+    private int deadlockedMonitor;
+
+    public ThreadCollector(ThreadMXBean threadBean,
+                           long sampleIntervalMs,
+                           boolean groupByPool,
+                           int maxPools,
+                           boolean detectDeadlocks) {
+        this(threadBean, sampleIntervalMs, groupByPool, maxPools, detectDeadlocks, System::nanoTime);
+    }
+
+    ThreadCollector(ThreadMXBean threadBean,
+                    long sampleIntervalMs,
+                    boolean groupByPool,
+                    int maxPools,
+                    boolean detectDeadlocks,
+                    LongSupplier nanoTime) {
+        this.threadBean = threadBean;
+        this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMs);
+        this.groupByPool = groupByPool;
+        this.maxPools = maxPools;
+        this.detectDeadlocks = detectDeadlocks;
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public synchronized List<MetricFamilySamples> collect() {
+        long now = nanoTime.getAsLong();
+        if (!sampled || now - sampledAt >= sampleIntervalNanos) {
+            sample();
+            sampled = true;
+            sampledAt = now;
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        // these are cheap, no need to cache them
+        mfs.add(new GaugeMetricFamily(
+            "jvm_threads_current", "Current thread count of a JVM", threadBean.getThreadCount()));
+        mfs.add(new GaugeMetricFamily(
+            "jvm_threads_daemon", "Daemon thread count of a JVM", threadBean.getDaemonThreadCount()));
+        mfs.add(new GaugeMetricFamily(
+            "jvm_threads_peak", "Peak thread count of a JVM", threadBean.getPeakThreadCount()));
+        mfs.add(new CounterMetricFamily(
+            "jvm_threads_started_total", "Started thread count of a JVM", threadBean.getTotalStartedThreadCount()));
+        if (detectDeadlocks) {
+            mfs.add(new GaugeMetricFamily(
+                "jvm_threads_deadlocked",
+                "Cycles of JVM-threads that are in deadlock waiting to acquire object monitors or ownable synchronizers",
+                deadlocked));
+            mfs.add(new GaugeMetricFamily(
+                "jvm_threads_deadlocked_monitor",
+                "Cycles of JVM-threads that are in deadlock waiting to acquire object monitors",
+                deadlockedMonitor));
+        }
+        GaugeMetricFamily states = new GaugeMetricFamily(
+            "jvm_threads_state", "Current count of threads by state", List.of("state"));
+        for (Thread.State state : STATES) {
+            states.addMetric(List.of(state.name()), stateCounts[state.ordinal()]);
+        }
+        mfs.add(states);
+        if (groupByPool) {
+            GaugeMetricFamily poolStates = new GaugeMetricFamily(
+                "jvm_threads_pool_state", "Current count of threads by pool and state", List.of("pool", "state"));
+            for (Map.Entry<String, long[]> entry : poolStateCounts.entrySet()) {
+                long[] counts = entry.getValue();
+                for (Thread.State state : STATES) {
+                    // most pools only have threads in a few states
+                    if (counts[state.ordinal()] > 0) {
+                        poolStates.addMetric(List.of(entry.getKey(), state.name()), counts[state.ordinal()]);
+                    }
+                }
+            }
+            mfs.add(poolStates);
+        }
+        return mfs;
+    }
+
+    private void sample() {
+        ThreadInfo[] infos = threadBean.getThreadInfo(threadBean.getAllThreadIds(), 0);
+        Arrays.fill(stateCounts, 0);
+        poolStateCounts.clear();
+        for (ThreadInfo info : infos) {
+            // null if the thread terminated in the meantime
+            if (info == null) {
+                continue;
+            }
+            int state = info.getThreadState().ordinal();
+            stateCounts[state]++;
+            if (groupByPool) {
+                String pool = ThreadPoolNames.poolName(info.getThreadName());
+                long[] counts = poolStateCounts.get(pool);
+                if (counts == null) {
+                    if (poolStateCounts.size() >= maxPools) {
+                        pool = OTHER_POOL;
+                        counts = poolStateCounts.get(pool);
+                    }
+                    if (counts == null) {
+                        counts = new long[STATES.length];
+                        poolStateCounts.put(pool, counts);
+                    }
+                }
+                counts[state]++;
+            }
+        }
+        if (detectDeadlocks) {
+            deadlocked = length(threadBean.findDeadlockedThreads());
+            deadlockedMonitor = length(threadBean.findMonitorDeadlockedThreads());
+        }
+    }
+
+    private static int length(long[] threadIds) {
+        return threadIds == null ? 0 : threadIds.length;
+    }
+}
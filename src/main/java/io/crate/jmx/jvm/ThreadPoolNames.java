@@ -0,0 +1,70 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+/**
+ * Derives the pool of a thread from its name.
+ *
+ * CrateDB names the threads of its pools like {@code cratedb[<node>][<pool>][T#<n>]}, the pool is the segment
+ * following the node name. For other threads, trailing sequence numbers are stripped, e.g.
+ * {@code pool-1-thread-12} belongs to {@code pool-1-thread} and {@code C2 CompilerThread0} to
+ * {@code C2 CompilerThread}.
+ */
+public final class ThreadPoolNames {
+
+    private ThreadPoolNames() {
+    }
+
+    public static String poolName(String threadName) {
+        int open = threadName.indexOf('[');
+        if (open > 0) {
+            // skip the node name
+            int nodeEnd = threadName.indexOf("][", open);
+            if (nodeEnd != -1) {
+                int poolStart = nodeEnd + 2;
+                int poolEnd = threadName.indexOf(']', poolStart);
+                if (poolEnd > poolStart) {
+                    return threadName.substring(poolStart, poolEnd);
+                }
+            }
+        }
+        int end = threadName.length();
+        while (end > 0) {
+            int digitsEnd = end;
+            while (end > 0 && Character.isDigit(threadName.charAt(end - 1))) {
+                end--;
+            }
+            while (end > 0 && isSeparator(threadName.charAt(end - 1))) {
+                end--;
+            }
+            if (end == digitsEnd) {
+                break;
+            }
+        }
+        return end == 0 ? threadName : threadName.substring(0, end);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '-' || c == '_' || c == '#' || c == ' ' || c == '.';
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import com.sun.management.ThreadMXBean;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the CPU time and the allocated bytes of all threads, summed up per thread pool (see {@link ThreadPoolNames}).
+ *
+ * The pool of a thread is resolved once and cached by thread id. The live thread ids are only listed again if
+ * threads were started or stopped since the last scrape, otherwise a scrape is a single bulk read of the CPU times
+ * and allocated bytes. The last values of stopped threads are retained per pool, so that the counters stay
+ * monotonic. Usage of a thread since the last scrape before it stopped is not accounted for, so short-lived threads
+ * are under-reported.
+ */
+public class ThreadPoolUsageCollector extends Collector {
+
+    private final ThreadMXBean threadBean;
+    private final PoolIndex pools;
+    // per pool, the totals of stopped threads
+    private long[] retiredCpuNanos = new long[0];
+    private long[] retiredAllocatedBytes = new long[0];
+
+    private final Map<Long, ThreadUsage> threads = new HashMap<>();
+    private long[] threadIds = new long[0];
+    private ThreadUsage[] threadUsages = new ThreadUsage[0];
+    private long startedThreads = -1;
+
+    public ThreadPoolUsageCollector(ThreadMXBean threadBean, int maxPools) {
+        this.threadBean = threadBean;
+        this.pools = new PoolIndex(maxPools);
+    }
+
+    @Override
+    public synchronized List<MetricFamilySamples> collect() {
+        boolean cpuTime = threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+        boolean allocatedBytes = threadBean.isThreadAllocatedMemorySupported()
+                                 && threadBean.isThreadAllocatedMemoryEnabled();
+        if (!cpuTime && !allocatedBytes) {
+            return List.of();
+        }
+        long started = threadBean.getTotalStartedThreadCount();
+        if (started != startedThreads || threadBean.getThreadCount() != threadIds.length) {
+            refreshThreads();
+            startedThreads = started;
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<>(2);
+        if (cpuTime) {
+            long[] values = threadBean.getThreadCpuTime(threadIds);
+            long[] perPool = Arrays.copyOf(retiredCpuNanos, pools.size());
+            for (int i = 0; i < values.length; i++) {
+                ThreadUsage usage = threadUsages[i];
+                // -1 if the thread stopped in the meantime, it is retired with its last value on the next refresh
+                if (values[i] >= 0) {
+                    usage.cpuNanos = values[i];
+                }
+                perPool[usage.pool] += usage.cpuNanos;
+            }
+            CounterMetricFamily family = new CounterMetricFamily(
+                "jvm_threads_pool_cpu_seconds_total", "CPU time used by the threads of a pool", List.of("pool"));
+            for (int pool = 0; pool < perPool.length; pool++) {
+                family.addMetric(List.of(pools.name(pool)), perPool[pool] / 1E9);
+            }
+            mfs.add(family);
+        }
+        if (allocatedBytes) {
+            long[] values = threadBean.getThreadAllocatedBytes(threadIds);
+            long[] perPool = Arrays.copyOf(retiredAllocatedBytes, pools.size());
+            for (int i = 0; i < values.length; i++) {
+                ThreadUsage usage = threadUsages[i];
+                if (values[i] >= 0) {
+                    usage.allocatedBytes = values[i];
+                }
+                perPool[usage.pool] += usage.allocatedBytes;
+            }
+            CounterMetricFamily family = new CounterMetricFamily(
+                "jvm_threads_pool_allocated_bytes_total", "Bytes allocated by the threads of a pool", List.of("pool"));
+            for (int pool = 0; pool < perPool.length; pool++) {
+                family.addMetric(List.of(pools.name(pool)), perPool[pool]);
+            }
+            mfs.add(family);
+        }
+        return mfs;
+    }
+
+    private void refreshThreads() {
+        long[] ids = threadBean.getAllThreadIds();
+        Map<Long, ThreadUsage> live = new HashMap<>(ids.length * 2);
+        List<Long> newIds = new ArrayList<>();
+        for (long id : ids) {
+            ThreadUsage usage = threads.remove(id);
+            if (usage == null) {
+                newIds.add(id);
+            } else {
+                live.put(id, usage);
+            }
+        }
+        // the remaining threads stopped
+        for (ThreadUsage usage : threads.values()) {
+            retiredCpuNanos[usage.pool] += usage.cpuNanos;
+            retiredAllocatedBytes[usage.pool] += usage.allocatedBytes;
+        }
+        threads.clear();
+        threads.putAll(live);
+        if (!newIds.isEmpty()) {
+            long[] newIdArray = new long[newIds.size()];
+            for (int i = 0; i < newIdArray.length; i++) {
+                newIdArray[i] = newIds.get(i);
+            }
+            for (ThreadInfo info : threadBean.getThreadInfo(newIdArray, 0)) {
+                // null if the thread stopped in the meantime
+                if (info != null) {
+                    threads.put(info.getThreadId(), new ThreadUsage(pool(ThreadPoolNames.poolName(info.getThreadName()))));
+                }
+            }
+        }
+        threadIds = new long[threads.size()];
+        threadUsages = new ThreadUsage[threads.size()];
+        Iterator<Map.Entry<Long, ThreadUsage>> it = threads.entrySet().iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Map.Entry<Long, ThreadUsage> entry = it.next();
+            threadIds[i] = entry.getKey();
+            threadUsages[i] = entry.getValue();
+        }
+    }
+
+    private int pool(String name) {
+        int idx = pools.index(name);
+        if (idx >= retiredCpuNanos.length) {
+            retiredCpuNanos = Arrays.copyOf(retiredCpuNanos, pools.size());
+            retiredAllocatedBytes = Arrays.copyOf(retiredAllocatedBytes, pools.size());
+        }
+        return idx;
+    }
+
+    private static final class ThreadUsage {
+
+        private final int pool;
+        private long cpuNanos;
+        private long allocatedBytes;
+
+        ThreadUsage(int pool) {
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The samples of one label set of a family, queued for pushing.
+ *
+ * Gauges and untyped metrics consist of a single sample, while counters, summaries and histograms are kept together
+ * with their {@code _created}, {@code _sum}, {@code _count} and bucket samples, so that protocols which model them as
+ * a single data point (like OTLP) get all of them in the same batch.
+ */
+public final class DataPoint {
+
+    final MetricFamilySamples family;
+    final List<Sample> samples;
+    final long timestampMs;
+    private final int seriesHash;
+
+    DataPoint(MetricFamilySamples family, List<Sample> samples, long timestampMs, int seriesHash) {
+        this.family = family;
+        this.samples = samples;
+        this.timestampMs = timestampMs;
+        this.seriesHash = seriesHash;
+    }
+
+    /**
+     * Hash of the series identity, data points of the same series are always routed to the same shard to keep them
+     * ordered.
+     */
+    int seriesHash() {
+        return seriesHash;
+    }
+
+    /**
+     * Splits the samples of a family into data points.
+     *
+     * @param timestampMs timestamp used for samples without an explicit timestamp
+     */
+    static void split(MetricFamilySamples family, long timestampMs, Consumer<DataPoint> consumer) {
+        String groupLabel;
+        switch (family.type) {
+            case COUNTER:
+                groupLabel = null;
+                break;
+            case SUMMARY:
+                groupLabel = "quantile";
+                break;
+            case HISTOGRAM:
+            case GAUGE_HISTOGRAM:
+                groupLabel = "le";
+                break;
+            default:
+                for (Sample sample : family.samples) {
+                    consumer.accept(new DataPoint(
+                        family,
+                        Collections.singletonList(sample),
+                        sample.timestampMs == null ? timestampMs : sample.timestampMs,
+                        31 * sample.name.hashCode() + sample.labelValues.hashCode()));
+                }
+                return;
+        }
+        Map<List<String>, List<Sample>> groups = new LinkedHashMap<>();
+        for (Sample sample : family.samples) {
+            List<String> key = sample.labelValues;
+            int idx = groupLabel == null ? -1 : sample.labelNames.indexOf(groupLabel);
+            if (idx >= 0) {
+                key = new ArrayList<>(sample.labelValues);
+                key.remove(idx);
+            }
+            groups.computeIfAbsent(key, k -> new ArrayList<>(2)).add(sample);
+        }
+        for (Map.Entry<List<String>, List<Sample>> group : groups.entrySet()) {
+            Long sampleTimestampMs = group.getValue().get(0).timestampMs;
+            consumer.accept(new DataPoint(
+                family,
+                group.getValue(),
+                sampleTimestampMs == null ? timestampMs : sampleTimestampMs,
+                31 * family.name.hashCode() + group.getKey().hashCode()));
+        }
+    }
+
+    static int sampleCount(List<DataPoint> points) {
+        int count = 0;
+        for (DataPoint point : points) {
+            count += point.samples.size();
+        }
+        return count;
+    }
+}
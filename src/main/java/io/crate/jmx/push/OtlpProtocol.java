@@ -0,0 +1,333 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.crate.jmx.format.ProtobufWriter;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * OpenTelemetry OTLP/HTTP: a gzip compressed {@code ExportMetricsServiceRequest} with a single resource, identifying
+ * the CrateDB node, and one metric per family.
+ *
+ * Families are mapped as follows:
+ * <ul>
+ *     <li>counters to monotonic cumulative sums, with their {@code _created} timestamp (or the JVM start time) as
+ *     start time</li>
+ *     <li>histograms to explicit bucket histograms, converting the cumulative Prometheus buckets</li>
+ *     <li>summaries to summaries</li>
+ *     <li>all other families to gauges</li>
+ * </ul>
+ *
+ * See https://github.com/open-telemetry/opentelemetry-proto/blob/main/opentelemetry/proto/metrics/v1/metrics.proto
+ */
+public final class OtlpProtocol implements PushProtocol {
+
+    public static final String NODE_ID_ATTRIBUTE = "NodeInfo_NodeId";
+    public static final String NODE_NAME_ATTRIBUTE = "NodeInfo_NodeName";
+
+    private static final String SCOPE_NAME = "io.crate.jmx";
+    private static final int AGGREGATION_TEMPORALITY_CUMULATIVE = 2;
+
+    // ExportMetricsServiceRequest, ResourceMetrics, ScopeMetrics
+    private static final int REQUEST_RESOURCE_METRICS = 1;
+    private static final int RESOURCE_METRICS_RESOURCE = 1;
+    private static final int RESOURCE_METRICS_SCOPE_METRICS = 2;
+    private static final int SCOPE_METRICS_SCOPE = 1;
+    private static final int SCOPE_METRICS_METRIC = 2;
+
+    // Metric
+    private static final int METRIC_NAME = 1;
+    private static final int METRIC_DESCRIPTION = 2;
+    private static final int METRIC_UNIT = 3;
+    private static final int METRIC_GAUGE = 5;
+    private static final int METRIC_SUM = 7;
+    private static final int METRIC_HISTOGRAM = 9;
+    private static final int METRIC_SUMMARY = 11;
+
+    // fields shared by NumberDataPoint, HistogramDataPoint and SummaryDataPoint
+    private static final int POINT_START_TIME = 2;
+    private static final int POINT_TIME = 3;
+    private static final int POINT_COUNT = 4;
+    private static final int POINT_SUM = 5;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final Map<String, String> attributes;
+    private final Function<String, Object> nodeAttributes;
+    private final long jvmStartTimeNanos = ManagementFactory.getRuntimeMXBean().getStartTime() * NANOS_PER_MILLI;
+    private volatile String nodeId;
+    private volatile String nodeName;
+
+    /**
+     * @param attributes     additional resource attributes, overriding the default ones
+     * @param nodeAttributes lookup of collected MBean attributes, used to identify the node
+     */
+    public OtlpProtocol(Map<String, String> attributes, Function<String, Object> nodeAttributes) {
+        this.attributes = attributes;
+        this.nodeAttributes = nodeAttributes;
+    }
+
+    @Override
+    public String name() {
+        return "otlp";
+    }
+
+    @Override
+    public byte[] encode(List<DataPoint> points, ProtobufWriter writer) throws IOException {
+        writer.reset();
+        int resourceMetrics = writer.beginMessage(REQUEST_RESOURCE_METRICS);
+        int resource = writer.beginMessage(RESOURCE_METRICS_RESOURCE);
+        for (Map.Entry<String, String> attribute : resourceAttributes().entrySet()) {
+            writeAttribute(writer, 1, attribute.getKey(), attribute.getValue());
+        }
+        writer.endMessage(resource);
+
+        int scopeMetrics = writer.beginMessage(RESOURCE_METRICS_SCOPE_METRICS);
+        int scope = writer.beginMessage(SCOPE_METRICS_SCOPE);
+        writer.writeString(1, SCOPE_NAME);
+        writer.endMessage(scope);
+        Map<String, List<DataPoint>> families = new LinkedHashMap<>();
+        for (DataPoint point : points) {
+            families.computeIfAbsent(point.family.name, k -> new ArrayList<>()).add(point);
+        }
+        for (List<DataPoint> familyPoints : families.values()) {
+            writeMetric(writer, familyPoints);
+        }
+        writer.endMessage(scopeMetrics);
+        writer.endMessage(resourceMetrics);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(writer.size() / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(writer.buffer(), 0, writer.size());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void setRequestProperties(HttpURLConnection connection) {
+        connection.setRequestProperty("Content-Type", "application/x-protobuf");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+    }
+
+    /**
+     * The node id and name are remembered once collected, a concurrent reset of the attribute storage (e.g. by the
+     * ready endpoint) must not result in a different resource.
+     */
+    Map<String, String> resourceAttributes() {
+        Object id = nodeAttributes.apply(NODE_ID_ATTRIBUTE);
+        if (id != null) {
+            nodeId = id.toString();
+        }
+        Object name = nodeAttributes.apply(NODE_NAME_ATTRIBUTE);
+        if (name != null) {
+            nodeName = name.toString();
+        }
+        Map<String, String> resourceAttributes = new LinkedHashMap<>();
+        resourceAttributes.put("service.name", "cratedb");
+        if (nodeId != null) {
+            resourceAttributes.put("service.instance.id", nodeId);
+        }
+        if (nodeName != null) {
+            resourceAttributes.put("crate.node.name", nodeName);
+        }
+        resourceAttributes.putAll(attributes);
+        return resourceAttributes;
+    }
+
+    private void writeMetric(ProtobufWriter writer, List<DataPoint> points) {
+        MetricFamilySamples family = points.get(0).family;
+        int metric = writer.beginMessage(SCOPE_METRICS_METRIC);
+        writer.writeString(METRIC_NAME, family.name);
+        if (family.help != null && !family.help.isEmpty()) {
+            writer.writeString(METRIC_DESCRIPTION, family.help);
+        }
+        if (family.unit != null && !family.unit.isEmpty()) {
+            writer.writeString(METRIC_UNIT, family.unit);
+        }
+        switch (family.type) {
+            case COUNTER:
+                int sum = writer.beginMessage(METRIC_SUM);
+                for (DataPoint point : points) {
+                    writeCounterPoint(writer, point);
+                }
+                writer.writeEnum(2, AGGREGATION_TEMPORALITY_CUMULATIVE);
+                writer.writeBool(3, true);
+                writer.endMessage(sum);
+                break;
+            case HISTOGRAM:
+            case GAUGE_HISTOGRAM:
+                int histogram = writer.beginMessage(METRIC_HISTOGRAM);
+                for (DataPoint point : points) {
+                    writeHistogramPoint(writer, point);
+                }
+                writer.writeEnum(2, AGGREGATION_TEMPORALITY_CUMULATIVE);
+                writer.endMessage(histogram);
+                break;
+            case SUMMARY:
+                int summary = writer.beginMessage(METRIC_SUMMARY);
+                for (DataPoint point : points) {
+                    writeSummaryPoint(writer, point);
+                }
+                writer.endMessage(summary);
+                break;
+            default:
+                int gauge = writer.beginMessage(METRIC_GAUGE);
+                for (DataPoint point : points) {
+                    for (Sample sample : point.samples) {
+                        int numberPoint = writer.beginMessage(1);
+                        writeAttributes(writer, 7, sample, null);
+                        writer.writeFixed64(POINT_TIME, point.timestampMs * NANOS_PER_MILLI);
+                        writer.writeDouble(4, sample.value);
+                        writer.endMessage(numberPoint);
+                    }
+                }
+                writer.endMessage(gauge);
+                break;
+        }
+        writer.endMessage(metric);
+    }
+
+    private void writeCounterPoint(ProtobufWriter writer, DataPoint point) {
+        Sample valueSample = null;
+        long startTimeNanos = jvmStartTimeNanos;
+        for (Sample sample : point.samples) {
+            if (sample.name.endsWith("_created")) {
+                startTimeNanos = (long) (sample.value * 1e9);
+            } else {
+                valueSample = sample;
+            }
+        }
+        if (valueSample == null) {
+            return;
+        }
+        int numberPoint = writer.beginMessage(1);
+        writeAttributes(writer, 7, valueSample, null);
+        writer.writeFixed64(POINT_START_TIME, startTimeNanos);
+        writer.writeFixed64(POINT_TIME, point.timestampMs * NANOS_PER_MILLI);
+        writer.writeDouble(4, valueSample.value);
+        writer.endMessage(numberPoint);
+    }
+
+    private void writeHistogramPoint(ProtobufWriter writer, DataPoint point) {
+        int bucketCount = 0;
+        double[] bounds = new double[point.samples.size()];
+        long[] counts = new long[point.samples.size() + 1];
+        long previous = 0;
+        double count = 0;
+        double sum = 0;
+        long startTimeNanos = jvmStartTimeNanos;
+        for (Sample sample : point.samples) {
+            if (sample.name.endsWith("_bucket")) {
+                int idx = sample.labelNames.indexOf("le");
+                long cumulative = (long) sample.value;
+                String le = idx < 0 ? "+Inf" : sample.labelValues.get(idx);
+                if (!le.equals("+Inf")) {
+                    bounds[bucketCount] = Double.parseDouble(le);
+                    counts[bucketCount++] = cumulative - previous;
+                    previous = cumulative;
+                }
+            } else if (sample.name.endsWith("_count") || sample.name.endsWith("_gcount")) {
+                count = sample.value;
+            } else if (sample.name.endsWith("_sum") || sample.name.endsWith("_gsum")) {
+                sum = sample.value;
+            } else if (sample.name.endsWith("_created")) {
+                startTimeNanos = (long) (sample.value * 1e9);
+            }
+        }
+        // the +Inf bucket holds everything above the last bound
+        counts[bucketCount] = (long) count - previous;
+
+        int histogramPoint = writer.beginMessage(1);
+        writeAttributes(writer, 9, point.samples.get(0), "le");
+        writer.writeFixed64(POINT_START_TIME, startTimeNanos);
+        writer.writeFixed64(POINT_TIME, point.timestampMs * NANOS_PER_MILLI);
+        writer.writeFixed64(POINT_COUNT, (long) count);
+        writer.writeDouble(POINT_SUM, sum);
+        writer.writePackedFixed64(6, counts, bucketCount + 1);
+        if (bucketCount > 0) {
+            writer.writePackedDouble(7, bounds, bucketCount);
+        }
+        writer.endMessage(histogramPoint);
+    }
+
+    private void writeSummaryPoint(ProtobufWriter writer, DataPoint point) {
+        int summaryPoint = writer.beginMessage(1);
+        writeAttributes(writer, 7, point.samples.get(0), "quantile");
+        long startTimeNanos = jvmStartTimeNanos;
+        double count = 0;
+        double sum = 0;
+        for (Sample sample : point.samples) {
+            if (sample.name.endsWith("_count")) {
+                count = sample.value;
+            } else if (sample.name.endsWith("_sum")) {
+                sum = sample.value;
+            } else if (sample.name.endsWith("_created")) {
+                startTimeNanos = (long) (sample.value * 1e9);
+            }
+        }
+        writer.writeFixed64(POINT_START_TIME, startTimeNanos);
+        writer.writeFixed64(POINT_TIME, point.timestampMs * NANOS_PER_MILLI);
+        writer.writeFixed64(POINT_COUNT, (long) count);
+        writer.writeDouble(POINT_SUM, sum);
+        for (Sample sample : point.samples) {
+            int idx = sample.labelNames.indexOf("quantile");
+            if (idx >= 0) {
+                int quantile = writer.beginMessage(6);
+                writer.writeDouble(1, Double.parseDouble(sample.labelValues.get(idx)));
+                writer.writeDouble(2, sample.value);
+                writer.endMessage(quantile);
+            }
+        }
+        writer.endMessage(summaryPoint);
+    }
+
+    private static void writeAttributes(ProtobufWriter writer, int fieldNumber, Sample sample, String skipLabel) {
+        for (int i = 0; i < sample.labelNames.size(); i++) {
+            String name = sample.labelNames.get(i);
+            if (!name.equals(skipLabel)) {
+                writeAttribute(writer, fieldNumber, name, sample.labelValues.get(i));
+            }
+        }
+    }
+
+    private static void writeAttribute(ProtobufWriter writer, int fieldNumber, String key, String value) {
+        int keyValue = writer.beginMessage(fieldNumber);
+        writer.writeString(1, key);
+        int anyValue = writer.beginMessage(2);
+        writer.writeString(1, value);
+        writer.endMessage(anyValue);
+        writer.endMessage(keyValue);
+    }
+}
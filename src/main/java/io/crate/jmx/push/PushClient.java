@@ -0,0 +1,89 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Sends encoded batches via HTTP POST. Connections are kept alive by the JDK as long as responses are fully consumed.
+ */
+final class PushClient {
+
+    private final URL url;
+    private final PushProtocol protocol;
+    private final int timeoutMs;
+    private final String authorization;
+
+    PushClient(URL url, PushProtocol protocol, int timeoutMs, String username, String password) {
+        this.url = url;
+        this.protocol = protocol;
+        this.timeoutMs = timeoutMs;
+        if (username != null) {
+            String credentials = username + ":" + (password == null ? "" : password);
+            authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        } else {
+            authorization = null;
+        }
+    }
+
+    /**
+     * @return the HTTP status code of the response
+     */
+    int send(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(timeoutMs);
+        connection.setReadTimeout(timeoutMs);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("User-Agent", "crate-jmx-exporter");
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        protocol.setRequestProperties(connection);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            if (in != null) {
+                byte[] discard = new byte[1024];
+                while (in.read(discard) >= 0) {
+                    // drain, so the connection can be reused
+                }
+            }
+        }
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return url.toString();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.CollectorRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically collects all metrics of a registry and pushes them to a receiver, instead of waiting to be scraped.
+ * Useful if the node is not reachable by the monitoring system, e.g. because of firewalls or short-lived clusters.
+ */
+public final class PushExporter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PushExporter.class.getName());
+
+    private final CollectorRegistry registry;
+    private final PushQueue queue;
+    private final long intervalMs;
+    private final ScheduledExecutorService scheduler;
+    private PushStatistics statistics;
+
+    PushExporter(CollectorRegistry registry, PushQueue queue, long intervalMs, String threadName) {
+        this.registry = registry;
+        this.queue = queue;
+        this.intervalMs = intervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @throws IOException if the write-ahead log cannot be opened
+     */
+    public static PushExporter create(CollectorRegistry registry, PushProtocol protocol, PushSettings settings)
+        throws IOException {
+        URL url;
+        try {
+            url = new URL(settings.url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid push url: " + settings.url, e);
+        }
+        PushClient client = new PushClient(url, protocol, settings.timeoutMs, settings.username, settings.password);
+        PushQueue queue = new PushQueue(protocol, client, settings);
+        return new PushExporter(registry, queue, settings.intervalMs, "crate-jmx-" + protocol.name() + "-collector");
+    }
+
+    /**
+     * Starts collecting and sending.
+     *
+     * @param statistics collector exposing the statistics of the exporter
+     */
+    public void start(PushStatistics statistics) {
+        this.statistics = statistics;
+        statistics.add(queue);
+        queue.start();
+        scheduler.scheduleAtFixedRate(this::push, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Collects the registry once and queues all samples.
+     */
+    void push() {
+        try {
+            long timestampMs = System.currentTimeMillis();
+            Enumeration<MetricFamilySamples> mfs = registry.metricFamilySamples();
+            while (mfs.hasMoreElements()) {
+                DataPoint.split(mfs.nextElement(), timestampMs, queue::offer);
+            }
+        } catch (RuntimeException e) {
+            // must not escape, the scheduler would cancel all further executions
+            LOGGER.log(Level.SEVERE, "Cannot collect metrics for pushing", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        queue.close();
+        if (statistics != null) {
+            statistics.remove(queue);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.crate.jmx.format.ProtobufWriter;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+
+/**
+ * Encoding of data point batches for a push receiver, e.g. Prometheus remote write.
+ * Implementations must be thread-safe, batches are encoded concurrently by the shards of a {@link PushQueue}.
+ */
+public interface PushProtocol {
+
+    /**
+     * Name of the protocol, used for thread names and as {@code exporter} label of the push metrics.
+     */
+    String name();
+
+    /**
+     * Encodes the data points into a request body, including any compression of the protocol.
+     *
+     * @param writer scratch writer owned by the calling shard, may be reset by the implementation
+     */
+    byte[] encode(List<DataPoint> points, ProtobufWriter writer) throws IOException;
+
+    /**
+     * Sets the protocol specific headers, like {@code Content-Type} and {@code Content-Encoding}.
+     */
+    void setRequestProperties(HttpURLConnection connection);
+}
@@ -0,0 +1,361 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.crate.jmx.format.ProtobufWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, sharded queue of samples waiting to be pushed.
+ *
+ * Data points are routed to a shard by their series, each shard has its own sender thread which batches them until
+ * either {@code max_samples_per_send} is reached or {@code batch_send_deadline} expired, and retries failed requests
+ * with exponential backoff. If a shard is full, e.g. because the receiver is unavailable, new samples are dropped
+ * instead of blocking the collection.
+ *
+ * If a write-ahead log directory is configured, encoded batches are appended to a {@link WriteAheadLog} per shard
+ * and sent from there. Unsent batches then survive outages of the receiver and restarts, bounded by the size and
+ * age limits of the log instead of the number of retries.
+ *
+ * The statistics of the queue are exposed by {@link PushStatistics}, so that dropped and failed samples are visible.
+ */
+public final class PushQueue implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PushQueue.class.getName());
+
+    /**
+     * Maximum number of buffered requests sent per round, before the shard drains its queue again.
+     */
+    private static final int REPLAY_BATCHES_PER_ROUND = 8;
+
+    private final PushProtocol protocol;
+    private final PushClient client;
+    private final PushSettings settings;
+    private final Shard[] shards;
+
+    private final LongAdder sentSamples = new LongAdder();
+    private final LongAdder failedSamples = new LongAdder();
+    private final LongAdder droppedSamples = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    private volatile boolean closed;
+
+    PushQueue(PushProtocol protocol, PushClient client, PushSettings settings) throws IOException {
+        this.protocol = protocol;
+        this.client = client;
+        this.settings = settings;
+        this.shards = new Shard[settings.shards];
+        WriteAheadLog[] wals = new WriteAheadLog[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            if (settings.walDir != null) {
+                Path dir = Paths.get(settings.walDir, protocol.name(), "shard-" + i);
+                wals[i] = new WriteAheadLog(
+                    dir, settings.walSegmentSize, settings.walMaxSize / shards.length, settings.walMaxAgeMs, droppedSamples::add);
+            }
+            shards[i] = new Shard(i, wals[i]);
+        }
+        if (settings.walDir != null) {
+            migrateOrphanedLogs(Paths.get(settings.walDir, protocol.name()), wals);
+        }
+    }
+
+    /**
+     * Moves the unsent records of shards which no longer exist, because the number of shards was lowered,
+     * to the remaining shards.
+     */
+    private static void migrateOrphanedLogs(Path protocolDir, WriteAheadLog[] wals) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(protocolDir, "shard-*")) {
+            for (Path dir : stream) {
+                int id;
+                try {
+                    id = Integer.parseInt(dir.getFileName().toString().substring("shard-".length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (id >= wals.length && Files.isDirectory(dir)) {
+                    WriteAheadLog.migrate(dir, wals[id % wals.length], System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    void start() {
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Queues the data point without blocking.
+     *
+     * @return false if the data point was dropped because its shard is full
+     */
+    public boolean offer(DataPoint point) {
+        Shard shard = shards[Math.floorMod(point.seriesHash(), shards.length)];
+        if (closed || !shard.queue.offer(point)) {
+            droppedSamples.add(point.samples.size());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.thread.interrupt();
+        }
+    }
+
+    String protocolName() {
+        return protocol.name();
+    }
+
+    long sentSamples() {
+        return sentSamples.sum();
+    }
+
+    long failedSamples() {
+        return failedSamples.sum();
+    }
+
+    long droppedSamples() {
+        return droppedSamples.sum();
+    }
+
+    long retries() {
+        return retries.sum();
+    }
+
+    long queuedDataPoints() {
+        long queued = 0;
+        for (Shard shard : shards) {
+            queued += shard.queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * @return the size of the write-ahead logs or -1 if no write-ahead log is used
+     */
+    long walBytes() {
+        if (settings.walDir == null) {
+            return -1;
+        }
+        long walBytes = 0;
+        for (Shard shard : shards) {
+            walBytes += shard.wal.sizeInBytes();
+        }
+        return walBytes;
+    }
+
+    /**
+     * Sends a batch, retrying recoverable errors (connection problems, 5xx and 429 responses) with exponential backoff.
+     */
+    private void send(byte[] body, int sampleCount) throws InterruptedException {
+        long backoffMs = settings.minBackoffMs;
+        for (int attempt = 0; ; attempt++) {
+            String error;
+            try {
+                int status = client.send(body);
+                if (status >= 200 && status < 300) {
+                    sentSamples.add(sampleCount);
+                    return;
+                }
+                if (status != 429 && status < 500) {
+                    failedSamples.add(sampleCount);
+                    LOGGER.log(Level.WARNING, "Push to " + client + " rejected with HTTP status " + status
+                                              + ", dropping " + sampleCount + " samples");
+                    return;
+                }
+                error = "HTTP status " + status;
+            } catch (IOException e) {
+                error = e.toString();
+            }
+            if (attempt >= settings.maxRetries || closed) {
+                failedSamples.add(sampleCount);
+                LOGGER.log(Level.WARNING, "Push to " + client + " failed after " + (attempt + 1) + " attempts ("
+                                          + error + "), dropping " + sampleCount + " samples");
+                return;
+            }
+            retries.increment();
+            Thread.sleep(backoffMs);
+            backoffMs = Math.min(backoffMs * 2, settings.maxBackoffMs);
+        }
+    }
+
+    private final class Shard implements Runnable {
+
+        private final BlockingQueue<DataPoint> queue;
+        private final Thread thread;
+        private final WriteAheadLog wal;
+        private long nextAttemptMs;
+        private long backoffMs = settings.minBackoffMs;
+
+        Shard(int id, WriteAheadLog wal) {
+            this.queue = new ArrayBlockingQueue<>(settings.capacityPerShard);
+            this.wal = wal;
+            this.thread = new Thread(this, "crate-jmx-" + protocol.name() + "-" + id);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<DataPoint> batch = new ArrayList<>(settings.maxSamplesPerSend);
+            ProtobufWriter writer = new ProtobufWriter();
+            try {
+                while (!closed) {
+                    try {
+                        if (wal == null) {
+                            if (fill(batch, settings.batchSendDeadlineMs)) {
+                                send(protocol.encode(batch, writer), DataPoint.sampleCount(batch));
+                            }
+                        } else {
+                            bufferAndReplay(batch, writer);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        int sampleCount = DataPoint.sampleCount(batch);
+                        failedSamples.add(sampleCount);
+                        LOGGER.log(Level.SEVERE, "Cannot process batch of " + sampleCount + " samples", e);
+                    } finally {
+                        batch.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (wal != null) {
+                    try {
+                        wal.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Cannot close write-ahead log", e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Appends the next batch to the write-ahead log, then sends buffered batches unless a previous attempt failed
+         * and the backoff hasn't expired yet. While sending is due, the queue is only drained without waiting.
+         */
+        private void bufferAndReplay(List<DataPoint> batch, ProtobufWriter writer) throws IOException, InterruptedException {
+            long timeoutMs = settings.batchSendDeadlineMs;
+            if (wal.hasPending()) {
+                timeoutMs = Math.max(0, Math.min(timeoutMs, nextAttemptMs - System.currentTimeMillis()));
+            }
+            if (fill(batch, timeoutMs)) {
+                wal.append(protocol.encode(batch, writer), DataPoint.sampleCount(batch), System.currentTimeMillis());
+            }
+            if (wal.hasPending() && System.currentTimeMillis() >= nextAttemptMs) {
+                if (replay()) {
+                    backoffMs = settings.minBackoffMs;
+                } else {
+                    retries.increment();
+                    nextAttemptMs = System.currentTimeMillis() + backoffMs;
+                    backoffMs = Math.min(backoffMs * 2, settings.maxBackoffMs);
+                }
+            }
+        }
+
+        /**
+         * Sends buffered batches in order, until the log is empty or {@link #REPLAY_BATCHES_PER_ROUND} are sent.
+         *
+         * @return false if sending failed with a recoverable error and must be retried
+         */
+        private boolean replay() throws IOException {
+            for (int i = 0; i < REPLAY_BATCHES_PER_ROUND; i++) {
+                WriteAheadLog.Record record = wal.peek(System.currentTimeMillis());
+                if (record == null) {
+                    return true;
+                }
+                String error;
+                try {
+                    int status = client.send(record.payload);
+                    if (status >= 200 && status < 300) {
+                        sentSamples.add(record.sampleCount);
+                        wal.commit();
+                        continue;
+                    }
+                    if (status != 429 && status < 500) {
+                        failedSamples.add(record.sampleCount);
+                        LOGGER.log(Level.WARNING, "Push to " + client + " rejected with HTTP status " + status
+                                                  + ", dropping " + record.sampleCount + " samples");
+                        wal.commit();
+                        continue;
+                    }
+                    error = "HTTP status " + status;
+                } catch (IOException e) {
+                    error = e.toString();
+                }
+                if (backoffMs == settings.minBackoffMs) {
+                    LOGGER.log(Level.WARNING, "Push to " + client + " failed (" + error + "), buffering samples until "
+                                              + "the receiver is available again");
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Waits up to the timeout for the first data point, then collects data points until the batch is full or the
+         * timeout expired.
+         *
+         * @return true if the batch contains data points
+         */
+        private boolean fill(List<DataPoint> batch, long timeoutMs) throws InterruptedException {
+            DataPoint first = queue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return false;
+            }
+            batch.add(first);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (batch.size() < settings.maxSamplesPerSend) {
+                queue.drainTo(batch, settings.maxSamplesPerSend - batch.size());
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= settings.maxSamplesPerSend || remaining <= 0) {
+                    break;
+                }
+                DataPoint next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.crate.jmx.AgentSettings;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Settings of a push exporter, read from {@link AgentSettings} below a protocol specific prefix,
+ * e.g. {@code crate.jmx.remote_write.url}.
+ */
+public final class PushSettings {
+
+    String url;
+    long intervalMs = 15_000;
+    int shards = 2;
+    int capacityPerShard = 10_000;
+    int maxSamplesPerSend = 2_000;
+    long batchSendDeadlineMs = 5_000;
+    long minBackoffMs = 30;
+    long maxBackoffMs = 5_000;
+    int maxRetries = 10;
+    int timeoutMs = 30_000;
+    String username;
+    String password;
+    Map<String, String> labels = Collections.emptyMap();
+    String walDir;
+    int walSegmentSize = 16 * 1024 * 1024;
+    long walMaxSize = 256 * 1024 * 1024;
+    long walMaxAgeMs = 2 * 60 * 60 * 1000;
+
+    PushSettings() {
+    }
+
+    /**
+     * Labels added to all pushed series, configured via {@code labels}, e.g. {@code job=crate,cluster=prod}.
+     */
+    public Map<String, String> labels() {
+        return labels;
+    }
+
+    /**
+     * @return the settings or null if no {@code url} is configured for the prefix
+     */
+    public static PushSettings fromAgentSettings(String prefix) {
+        String url = AgentSettings.get(prefix + ".url", null);
+        if (url == null) {
+            return null;
+        }
+        PushSettings settings = new PushSettings();
+        settings.url = url;
+        settings.intervalMs = AgentSettings.getMillis(prefix + ".interval", "15s");
+        settings.shards = AgentSettings.getInt(prefix + ".shards", settings.shards);
+        settings.capacityPerShard = AgentSettings.getInt(prefix + ".capacity", settings.capacityPerShard);
+        settings.maxSamplesPerSend = AgentSettings.getInt(prefix + ".max_samples_per_send", settings.maxSamplesPerSend);
+        settings.batchSendDeadlineMs = AgentSettings.getMillis(prefix + ".batch_send_deadline", "5s");
+        settings.minBackoffMs = AgentSettings.getMillis(prefix + ".min_backoff", "30ms");
+        settings.maxBackoffMs = AgentSettings.getMillis(prefix + ".max_backoff", "5s");
+        settings.maxRetries = AgentSettings.getInt(prefix + ".max_retries", settings.maxRetries);
+        settings.timeoutMs = (int) AgentSettings.getMillis(prefix + ".timeout", "30s");
+        settings.username = AgentSettings.get(prefix + ".username", null);
+        settings.password = AgentSettings.get(prefix + ".password", null);
+        settings.labels = AgentSettings.getMap(prefix + ".labels", null);
+        settings.walDir = AgentSettings.get(prefix + ".wal.dir", null);
+        settings.walSegmentSize = (int) Math.min(Integer.MAX_VALUE, AgentSettings.getBytes(prefix + ".wal.segment_size", "16mb"));
+        settings.walMaxSize = AgentSettings.getBytes(prefix + ".wal.max_size", "256mb");
+        settings.walMaxAgeMs = AgentSettings.getMillis(prefix + ".wal.max_age", "2h");
+        if (settings.shards < 1 || settings.capacityPerShard < 1 || settings.maxSamplesPerSend < 1
+            || settings.intervalMs < 1) {
+            throw new IllegalArgumentException("Invalid settings for " + AgentSettings.PREFIX + prefix
+                                               + ", shards, capacity, max_samples_per_send and interval must be positive");
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Exposes the statistics of all push exporters, labeled by their protocol.
+ */
+public final class PushStatistics extends Collector {
+
+    private final List<PushQueue> queues = new CopyOnWriteArrayList<>();
+
+    void add(PushQueue queue) {
+        queues.add(queue);
+    }
+
+    void remove(PushQueue queue) {
+        queues.remove(queue);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<String> exporterLabel = Collections.singletonList("exporter");
+        CounterMetricFamily samples = new CounterMetricFamily(
+            "crate_jmx_push_samples", "Number of samples handled by the push exporter, by result.",
+            Arrays.asList("exporter", "result"));
+        CounterMetricFamily retries = new CounterMetricFamily(
+            "crate_jmx_push_retries", "Number of retried push requests.", exporterLabel);
+        GaugeMetricFamily queued = new GaugeMetricFamily(
+            "crate_jmx_push_queued_data_points", "Number of data points waiting to be pushed.", exporterLabel);
+        GaugeMetricFamily wal = new GaugeMetricFamily(
+            "crate_jmx_push_wal_bytes", "Size of the write-ahead logs of the push exporter.", exporterLabel);
+        for (PushQueue queue : queues) {
+            String name = queue.protocolName();
+            samples.addMetric(Arrays.asList(name, "sent"), queue.sentSamples());
+            samples.addMetric(Arrays.asList(name, "failed"), queue.failedSamples());
+            samples.addMetric(Arrays.asList(name, "dropped"), queue.droppedSamples());
+            retries.addMetric(Collections.singletonList(name), queue.retries());
+            queued.addMetric(Collections.singletonList(name), queue.queuedDataPoints());
+            long walBytes = queue.walBytes();
+            if (walBytes >= 0) {
+                wal.addMetric(Collections.singletonList(name), walBytes);
+            }
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<>(Arrays.asList(samples, retries, queued));
+        if (!wal.samples.isEmpty()) {
+            mfs.add(wal);
+        }
+        return mfs;
+    }
+}
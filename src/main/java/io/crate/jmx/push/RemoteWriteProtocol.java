@@ -0,0 +1,199 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import io.crate.jmx.format.ProtobufWriter;
+import io.crate.jmx.format.Snappy;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prometheus remote write 1.0: a snappy compressed {@code prometheus.WriteRequest} with one time series per sample
+ * and the metadata of the families contained in the batch.
+ *
+ * See https://prometheus.io/docs/specs/remote_write_spec/
+ */
+public final class RemoteWriteProtocol implements PushProtocol {
+
+    static final String NAME_LABEL = "__name__";
+
+    // prometheus.WriteRequest
+    private static final int WRITE_REQUEST_TIMESERIES = 1;
+    private static final int WRITE_REQUEST_METADATA = 3;
+
+    // prometheus.TimeSeries
+    private static final int TIMESERIES_LABEL = 1;
+    private static final int TIMESERIES_SAMPLE = 2;
+
+    // prometheus.MetricMetadata
+    private static final int METADATA_TYPE = 1;
+    private static final int METADATA_FAMILY_NAME = 2;
+    private static final int METADATA_HELP = 4;
+
+    // prometheus.MetricMetadata.MetricType
+    private static final int TYPE_UNKNOWN = 0;
+    private static final int TYPE_COUNTER = 1;
+    private static final int TYPE_GAUGE = 2;
+    private static final int TYPE_HISTOGRAM = 3;
+    private static final int TYPE_GAUGE_HISTOGRAM = 4;
+    private static final int TYPE_SUMMARY = 5;
+    private static final int TYPE_INFO = 6;
+    private static final int TYPE_STATE_SET = 7;
+
+    private final String[] externalLabelNames;
+    private final String[] externalLabelValues;
+
+    /**
+     * @param externalLabels labels added to every series, unless the series has a label with the same name
+     */
+    public RemoteWriteProtocol(Map<String, String> externalLabels) {
+        externalLabelNames = externalLabels.keySet().toArray(new String[0]);
+        externalLabelValues = externalLabels.values().toArray(new String[0]);
+    }
+
+    @Override
+    public String name() {
+        return "remote_write";
+    }
+
+    /**
+     * Encodes every sample as time series of its own. {@code _created} samples are skipped, they would result in
+     * series of their own while the receivers detect counter resets anyway.
+     */
+    @Override
+    public byte[] encode(List<DataPoint> points, ProtobufWriter writer) {
+        writer.reset();
+        Map<String, MetricFamilySamples> families = new LinkedHashMap<>();
+        for (DataPoint point : points) {
+            for (Sample pointSample : point.samples) {
+                if (pointSample.name.endsWith("_created")) {
+                    continue;
+                }
+                int timeseries = writer.beginMessage(WRITE_REQUEST_TIMESERIES);
+                writeLabels(writer, pointSample);
+                int sample = writer.beginMessage(TIMESERIES_SAMPLE);
+                writer.writeDouble(1, pointSample.value);
+                writer.writeInt64(2, point.timestampMs);
+                writer.endMessage(sample);
+                writer.endMessage(timeseries);
+            }
+            families.putIfAbsent(point.family.name, point.family);
+        }
+        for (MetricFamilySamples family : families.values()) {
+            int metadata = writer.beginMessage(WRITE_REQUEST_METADATA);
+            writer.writeEnum(METADATA_TYPE, type(family));
+            writer.writeString(METADATA_FAMILY_NAME, familyName(family));
+            if (family.help != null && !family.help.isEmpty()) {
+                writer.writeString(METADATA_HELP, family.help);
+            }
+            writer.endMessage(metadata);
+        }
+        return Snappy.compress(writer.buffer(), 0, writer.size());
+    }
+
+    @Override
+    public void setRequestProperties(HttpURLConnection connection) {
+        connection.setRequestProperty("Content-Type", "application/x-protobuf");
+        connection.setRequestProperty("Content-Encoding", "snappy");
+        connection.setRequestProperty("X-Prometheus-Remote-Write-Version", "0.1.0");
+    }
+
+    /**
+     * Writes the labels of the sample, including its name and the external labels, sorted by label name as required
+     * by the specification.
+     */
+    private void writeLabels(ProtobufWriter writer, Sample sample) {
+        int sampleLabels = sample.labelNames.size();
+        String[] names = new String[sampleLabels + externalLabelNames.length + 1];
+        String[] values = new String[names.length];
+        int count = 0;
+        names[count] = NAME_LABEL;
+        values[count++] = sample.name;
+        for (int i = 0; i < sampleLabels; i++) {
+            names[count] = sample.labelNames.get(i);
+            values[count++] = sample.labelValues.get(i);
+        }
+        for (int i = 0; i < externalLabelNames.length; i++) {
+            if (!sample.labelNames.contains(externalLabelNames[i])) {
+                names[count] = externalLabelNames[i];
+                values[count++] = externalLabelValues[i];
+            }
+        }
+        // insertion sort, label sets are small
+        for (int i = 1; i < count; i++) {
+            String name = names[i];
+            String value = values[i];
+            int j = i - 1;
+            while (j >= 0 && names[j].compareTo(name) > 0) {
+                names[j + 1] = names[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            names[j + 1] = name;
+            values[j + 1] = value;
+        }
+        for (int i = 0; i < count; i++) {
+            int label = writer.beginMessage(TIMESERIES_LABEL);
+            writer.writeString(1, names[i]);
+            writer.writeString(2, values[i]);
+            writer.endMessage(label);
+        }
+    }
+
+    private static String familyName(MetricFamilySamples family) {
+        switch (family.type) {
+            case COUNTER:
+                return family.name + "_total";
+            case INFO:
+                return family.name + "_info";
+            default:
+                return family.name;
+        }
+    }
+
+    private static int type(MetricFamilySamples family) {
+        switch (family.type) {
+            case COUNTER:
+                return TYPE_COUNTER;
+            case GAUGE:
+                return TYPE_GAUGE;
+            case HISTOGRAM:
+                return TYPE_HISTOGRAM;
+            case GAUGE_HISTOGRAM:
+                return TYPE_GAUGE_HISTOGRAM;
+            case SUMMARY:
+                return TYPE_SUMMARY;
+            case INFO:
+                return TYPE_INFO;
+            case STATE_SET:
+                return TYPE_STATE_SET;
+            default:
+                return TYPE_UNKNOWN;
+        }
+    }
+}
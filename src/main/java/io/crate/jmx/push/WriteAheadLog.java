@@ -0,0 +1,458 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-backed buffer of encoded push requests, so that an unreachable receiver neither loses data nor grows the heap.
+ *
+ * The log consists of memory-mapped segment files of a fixed size. Records are appended to the last segment and
+ * consumed in order from the first one; a checkpoint file stores the position of the next unsent record, so sending
+ * resumes after a restart. Fully consumed segments are unmapped and deleted, so their disk space is freed right away
+ * instead of once the mapping is garbage collected. The log is bounded by size and age: the size counts the full
+ * segment files, the oldest segments are evicted if either bound is exceeded, and expired records are skipped when
+ * read. Records with an invalid checksum, e.g. after a crash during a write, are skipped as well.
+ *
+ * Record layout: {@code int length, int crc32, long timestampMs, int sampleCount, byte[length] payload}, where the
+ * checksum covers everything after itself. A length of 0 (the zero filled rest of a segment) marks its end.
+ *
+ * Not thread-safe, each log is owned by a single shard of a {@link PushQueue}.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteAheadLog.class.getName());
+
+    static final int HEADER_SIZE = 20;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_SIZE = 16;
+
+    // sun.misc.Unsafe#invokeCleaner, to unmap segments before they are deleted
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Cannot unmap write-ahead log segments, "
+                                      + "the disk space of deleted segments is freed once they are garbage collected", e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long maxSize;
+    private final long maxAgeMs;
+    private final LongConsumer droppedSamples;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final RandomAccessFile checkpoint;
+    private final byte[] checkpointBytes = new byte[CHECKPOINT_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private Segment active;
+    private int readOffset;
+    private Record peeked;
+    private volatile long sizeInBytes;
+
+    /**
+     * Opens the log in the given directory, recovering existing segments and the checkpoint.
+     *
+     * @param droppedSamples called with the number of unsent samples evicted because of the size or age bound
+     */
+    WriteAheadLog(Path dir, int segmentSize, long maxSize, long maxAgeMs, LongConsumer droppedSamples) throws IOException {
+        this.dir = dir;
+        this.segmentSize = (int) Math.max(HEADER_SIZE, Math.min(segmentSize, maxSize / 2));
+        this.maxSize = maxSize;
+        this.maxAgeMs = maxAgeMs;
+        this.droppedSamples = droppedSamples;
+        Files.createDirectories(dir);
+        long size = 0;
+        for (Path path : listSegments(dir)) {
+            Segment segment = Segment.recover(path, segmentId(path), crc);
+            if (segment.end == 0) {
+                segment.unmap();
+                Files.deleteIfExists(path);
+            } else {
+                segments.add(segment);
+                size += segment.buffer.capacity();
+            }
+        }
+        sizeInBytes = size;
+        checkpoint = new RandomAccessFile(dir.resolve(CHECKPOINT_FILE).toFile(), "rw");
+        long nextId = segments.isEmpty() ? 1 : segments.peekLast().id + 1;
+        if (checkpoint.length() >= CHECKPOINT_SIZE) {
+            checkpoint.readFully(checkpointBytes);
+            ByteBuffer buffer = ByteBuffer.wrap(checkpointBytes);
+            long segmentId = buffer.getLong(0);
+            int offset = buffer.getInt(8);
+            if (buffer.getInt(12) == checksum(buffer, 0, 12)) {
+                while (!segments.isEmpty() && segments.peekFirst().id < segmentId) {
+                    deleteFirst();
+                }
+                if (!segments.isEmpty() && segments.peekFirst().id == segmentId) {
+                    readOffset = Math.min(offset, segments.peekFirst().end);
+                }
+                nextId = Math.max(nextId, segmentId + 1);
+            } else {
+                LOGGER.log(Level.WARNING, "Ignoring corrupt checkpoint of " + dir + ", replaying all segments");
+            }
+        }
+        if (!segments.isEmpty()) {
+            // the size bound may have been lowered since the segments were written
+            evict(this.segmentSize, Long.MIN_VALUE);
+        }
+        active = Segment.create(dir, nextId, this.segmentSize);
+        segments.add(active);
+        sizeInBytes += this.segmentSize;
+    }
+
+    /**
+     * Moves the unsent records of the log in the given directory to the target log and deletes the directory.
+     * Used for the logs of shards which no longer exist after the number of shards was lowered.
+     */
+    static void migrate(Path dir, WriteAheadLog target, long nowMs) throws IOException {
+        WriteAheadLog source = new WriteAheadLog(
+            dir, target.segmentSize, Long.MAX_VALUE, target.maxAgeMs, target.droppedSamples);
+        long migrated = 0;
+        try {
+            Record record;
+            while ((record = source.peek(nowMs)) != null) {
+                target.append(record.payload, record.sampleCount, record.timestampMs);
+                migrated += record.sampleCount;
+                source.commit();
+            }
+        } finally {
+            source.close();
+        }
+        for (Path path : listSegments(dir)) {
+            Files.deleteIfExists(path);
+        }
+        Files.deleteIfExists(dir.resolve(CHECKPOINT_FILE));
+        Files.deleteIfExists(dir);
+        LOGGER.log(Level.INFO, "Moved " + migrated + " unsent samples of write-ahead log " + dir + " to " + target.dir);
+    }
+
+    /**
+     * @return the size of all segment files
+     */
+    long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    boolean hasPending() {
+        return peeked != null || segments.size() > 1 || readOffset < active.end;
+    }
+
+    /**
+     * Appends a record, evicting the oldest segments if the log would exceed its size or if they expired.
+     *
+     * @return false if the record is larger than a segment and was dropped
+     */
+    boolean append(byte[] payload, int sampleCount, long timestampMs) throws IOException {
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            droppedSamples.accept(sampleCount);
+            LOGGER.log(Level.WARNING, "Dropping push request of " + payload.length + " bytes, larger than the segment size");
+            return false;
+        }
+        if (active.end + recordSize > segmentSize) {
+            active.buffer.force();
+            evict(segmentSize, timestampMs - maxAgeMs);
+            active = Segment.create(dir, active.id + 1, segmentSize);
+            segments.add(active);
+            sizeInBytes += segmentSize;
+        } else {
+            evict(0, timestampMs - maxAgeMs);
+        }
+
+        int position = active.end;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(position + 8);
+        buffer.putLong(timestampMs);
+        buffer.putInt(sampleCount);
+        buffer.put(payload);
+        active.buffer.putInt(position + 4, checksum(active.buffer, position + 8, HEADER_SIZE - 8 + payload.length));
+        // written last, so a partially written record is never considered complete
+        active.buffer.putInt(position, payload.length);
+        active.end += recordSize;
+        active.lastTimestampMs = timestampMs;
+        return true;
+    }
+
+    /**
+     * Returns the oldest unsent record without consuming it, see {@link #commit()}.
+     *
+     * @return the record or null if all records have been sent
+     */
+    Record peek(long nowMs) throws IOException {
+        while (peeked == null) {
+            Segment segment = segments.peekFirst();
+            if (readOffset >= segment.end) {
+                if (segment == active) {
+                    return null;
+                }
+                deleteFirst();
+                writeCheckpoint();
+                continue;
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int length = buffer.getInt(readOffset);
+            int next = readOffset + HEADER_SIZE + length;
+            if (length <= 0 || next > segment.end) {
+                readOffset = segment.end;
+                continue;
+            }
+            long timestampMs = buffer.getLong(readOffset + 8);
+            int sampleCount = buffer.getInt(readOffset + 16);
+            if (buffer.getInt(readOffset + 4) != checksum(buffer, readOffset + 8, HEADER_SIZE - 8 + length)) {
+                LOGGER.log(Level.WARNING, "Skipping corrupt record in segment " + segment.path);
+            } else if (timestampMs < nowMs - maxAgeMs) {
+                droppedSamples.accept(sampleCount);
+            } else {
+                byte[] payload = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(readOffset + HEADER_SIZE);
+                source.get(payload);
+                peeked = new Record(payload, sampleCount, timestampMs, next);
+                break;
+            }
+            readOffset = next;
+        }
+        return peeked;
+    }
+
+    /**
+     * Marks the last peeked record as sent.
+     */
+    void commit() throws IOException {
+        if (peeked != null) {
+            readOffset = peeked.next;
+            peeked = null;
+            writeCheckpoint();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            active.buffer.force();
+            writeCheckpoint();
+        } finally {
+            checkpoint.close();
+            for (Segment segment : segments) {
+                segment.unmap();
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest segments, except the active one, until the given number of bytes can be added without
+     * exceeding the size bound and the oldest segment contains a record not older than the given timestamp.
+     */
+    private void evict(long additionalBytes, long minTimestampMs) throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.peekFirst();
+            if (sizeInBytes + additionalBytes <= maxSize && oldest.lastTimestampMs >= minTimestampMs) {
+                return;
+            }
+            long dropped = 0;
+            int offset = peeked == null ? readOffset : peeked.next;
+            while (offset < oldest.end) {
+                int length = oldest.buffer.getInt(offset);
+                if (length <= 0) {
+                    break;
+                }
+                dropped += oldest.buffer.getInt(offset + 16);
+                offset += HEADER_SIZE + length;
+            }
+            if (peeked != null) {
+                dropped += peeked.sampleCount;
+                peeked = null;
+            }
+            droppedSamples.accept(dropped);
+            LOGGER.log(Level.WARNING, "Write-ahead log " + dir + " exceeds its size or age limit, dropping "
+                                      + dropped + " unsent samples of segment " + oldest.path);
+            deleteFirst();
+            writeCheckpoint();
+        }
+    }
+
+    private void deleteFirst() throws IOException {
+        Segment segment = segments.removeFirst();
+        sizeInBytes -= segment.buffer.capacity();
+        readOffset = 0;
+        segment.unmap();
+        Files.deleteIfExists(segment.path);
+    }
+
+    private void writeCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(checkpointBytes);
+        buffer.putLong(0, segments.peekFirst().id);
+        buffer.putInt(8, readOffset);
+        buffer.putInt(12, checksum(buffer, 0, 12));
+        checkpoint.seek(0);
+        checkpoint.write(checkpointBytes);
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        return checksum(crc, buffer, offset, length);
+    }
+
+    private static int checksum(CRC32 crc, ByteBuffer buffer, int offset, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(offset + length);
+        region.position(offset);
+        crc.reset();
+        crc.update(region);
+        return (int) crc.getValue();
+    }
+
+    private static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                if (segmentId(path) > 0) {
+                    paths.add(path);
+                }
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static final class Record {
+
+        final byte[] payload;
+        final int sampleCount;
+        private final long timestampMs;
+        private final int next;
+
+        private Record(byte[] payload, int sampleCount, long timestampMs, int next) {
+            this.payload = payload;
+            this.sampleCount = sampleCount;
+            this.timestampMs = timestampMs;
+            this.next = next;
+        }
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int end;
+        private long lastTimestampMs;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path dir, long id, int size) throws IOException {
+            Path path = dir.resolve(String.format(Locale.ENGLISH, "%020d%s", id, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // the mapping extends the file, which is zero filled
+                return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        /**
+         * Releases the mapping, the buffer must not be accessed afterwards.
+         */
+        void unmap() {
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.log(Level.WARNING, "Cannot unmap write-ahead log segment " + path, e);
+            }
+        }
+
+        /**
+         * Maps an existing segment read-only and finds the end of its last complete record.
+         */
+        static Segment recover(Path path, long id, CRC32 crc) throws IOException {
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                if (buffer.getInt(position + 4) == checksum(crc, buffer, position + 8, HEADER_SIZE - 8 + length)) {
+                    segment.lastTimestampMs = Math.max(segment.lastTimestampMs, buffer.getLong(position + 8));
+                }
+                position += HEADER_SIZE + length;
+            }
+            segment.end = position;
+            return segment;
+        }
+    }
+}
@@ -26,7 +26,6 @@ import io.prometheus.client.Collector;
 
 import javax.management.openmbean.CompositeData;
 import java.util.Arrays;
-import java.util.Locale;
 import java.util.Set;
 
 public class CircuitBreakers implements Recorder {
@@ -36,7 +35,7 @@ public class CircuitBreakers implements Recorder {
     @Override
     public boolean recordBean(String domain, String attrName, CompositeData beanValue, MetricSampleConsumer metricSampleConsumer) {
         Set<String> names = beanValue.getCompositeType().keySet();
-        String name = ((String) beanValue.get("name")).toLowerCase(Locale.ENGLISH);
+        String name = LabelPool.SHARED.lowerCase((String) beanValue.get("name"));
 
         for (String propertyName : names) {
             Object value = beanValue.get(propertyName);
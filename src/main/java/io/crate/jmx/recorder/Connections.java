@@ -25,7 +25,6 @@ package io.crate.jmx.recorder;
 import io.prometheus.client.Collector;
 
 import java.util.Arrays;
-import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,6 +32,9 @@ public final class Connections implements Recorder {
 
     public static final String MBEAN_NAME = "Connections";
 
+    // the only property which is not monotonic
+    private static final String OPEN = "open";
+
     private static final Pattern CONNECTIONS_PATTERN = Pattern.compile(
             "(?<protocol>(Psql|Http|Transport))" +
             "(?<property>(Open|Total|MessagesReceived|BytesReceived|MessagesSent|BytesSent))");
@@ -48,8 +50,8 @@ public final class Connections implements Recorder {
         if (!matcher.matches()) {
             return false;
         }
-        String property = matcher.group("property").toLowerCase(Locale.ENGLISH);
-        String protocol = matcher.group("protocol").toLowerCase(Locale.ENGLISH);
+        String property = LabelPool.SHARED.lowerCase(matcher.group("property"));
+        String protocol = LabelPool.SHARED.lowerCase(matcher.group("protocol"));
         metricSampleConsumer.accept(
                 new Collector.MetricFamilySamples.Sample(
                         domain + '_' + "connections",
@@ -60,6 +62,16 @@ public final class Connections implements Recorder {
                 Collector.Type.GAUGE,
                 "Number of " + property + " connections established via " + protocol
         );
+        if (!property.equals(OPEN)) {
+            Counters.record(
+                    domain + '_' + "connection_stats",
+                    Arrays.asList("protocol", "property"),
+                    Arrays.asList(protocol, property),
+                    beanValue.doubleValue(),
+                    "Cumulative connection statistics by protocol",
+                    metricSampleConsumer
+            );
+        }
         return true;
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+import io.prometheus.client.Collector;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Helper to record monotonic CrateDB statistics as counters.
+ *
+ * The counters exposed by CrateDB MBeans start with the CrateDB process, which is also the JVM this agent is
+ * attached to. The JVM start time is therefore used as the {@code _created} timestamp of all counters.
+ */
+final class Counters {
+
+    static final double CREATED_SECONDS = ManagementFactory.getRuntimeMXBean().getStartTime() / 1000.0;
+
+    private Counters() {
+    }
+
+    /**
+     * Adds the {@code _total} and {@code _created} samples of a counter to the given consumer.
+     *
+     * @param name the name of the counter without the {@code _total} suffix
+     */
+    static void record(String name,
+                       List<String> labelNames,
+                       List<String> labelValues,
+                       double value,
+                       String help,
+                       MetricSampleConsumer metricSampleConsumer) {
+        metricSampleConsumer.accept(
+            new Collector.MetricFamilySamples.Sample(name + "_total", labelNames, labelValues, value),
+            Collector.Type.COUNTER,
+            help
+        );
+        metricSampleConsumer.accept(
+            new Collector.MetricFamilySamples.Sample(name + "_created", labelNames, labelValues, CREATED_SECONDS),
+            Collector.Type.COUNTER,
+            help
+        );
+    }
+}
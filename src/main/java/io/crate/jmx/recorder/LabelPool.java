@@ -0,0 +1,160 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.crate.jmx.AgentSettings;
+
+/**
+ * Pool of canonical label value instances, shared by all recorders.
+ *
+ * Label values like thread pool or table names are the same on every scrape. Looking them up in the pool
+ * returns the instance of the previous scrape instead of creating a new string (e.g. by lower casing), and
+ * equal label values share one instance, so consumers can cache derived data by identity.
+ *
+ * The pool is bounded: when it is full, values are returned as is without being pooled. Each entry remembers the
+ * last scrape it was used in, entries unused for {@code maxIdleScrapes} scrapes are removed. Only full collects
+ * count as scrapes, see {@link RecorderRegistry#resetRecorders(boolean)}.
+ */
+public final class LabelPool {
+
+    static final LabelPool SHARED = new LabelPool(
+        AgentSettings.getInt("label_pool.max_size", 10_000),
+        AgentSettings.getInt("label_pool.max_idle_scrapes", 10));
+
+    private final int maxSize;
+    private final int maxIdleScrapes;
+    private final Map<String, Entry> canonical = new ConcurrentHashMap<>();
+    // raw value -> canonical lower case value
+    private final Map<String, Entry> lowerCase = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile long generation;
+
+    LabelPool(int maxSize, int maxIdleScrapes) {
+        if (maxIdleScrapes < 1) {
+            throw new IllegalArgumentException("maxIdleScrapes must be at least 1, got " + maxIdleScrapes);
+        }
+        this.maxSize = maxSize;
+        this.maxIdleScrapes = maxIdleScrapes;
+    }
+
+    /**
+     * @return the canonical instance equal to the given value
+     */
+    public String intern(String value) {
+        Entry entry = canonical.get(value);
+        if (entry != null) {
+            return entry.use(generation);
+        }
+        return add(canonical, value, value, null).value;
+    }
+
+    /**
+     * @return the canonical instance of the given value in lower case, without converting known values again
+     */
+    public String lowerCase(String value) {
+        Entry entry = lowerCase.get(value);
+        if (entry != null) {
+            return entry.use(generation);
+        }
+        String lower = value.toLowerCase(Locale.ENGLISH);
+        Entry target = canonical.get(lower);
+        if (target == null) {
+            target = add(canonical, lower, lower, null);
+        }
+        return add(lowerCase, value, target.use(generation), target).value;
+    }
+
+    /**
+     * Starts a new scrape and removes entries which weren't used for {@code maxIdleScrapes} scrapes.
+     * The removal only runs every {@code maxIdleScrapes} scrapes, to keep the cost per scrape constant.
+     */
+    public void nextScrape() {
+        long current = ++generation;
+        if (current % maxIdleScrapes == 0) {
+            long oldest = current - maxIdleScrapes;
+            evict(canonical, oldest);
+            evict(lowerCase, oldest);
+        }
+    }
+
+    /**
+     * @return the number of pooled entries
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private Entry add(Map<String, Entry> entries, String key, String value, Entry target) {
+        Entry entry = new Entry(value, generation, target);
+        if (size.get() >= maxSize) {
+            // not pooled
+            return entry;
+        }
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            existing.use(generation);
+            return existing;
+        }
+        size.incrementAndGet();
+        return entry;
+    }
+
+    private void evict(Map<String, Entry> entries, long oldest) {
+        entries.values().removeIf(entry -> {
+            if (entry.lastUsed < oldest) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static final class Entry {
+
+        private final String value;
+        // canonical entry of a lower case mapping, kept alive together with the mapping
+        private final Entry target;
+        private volatile long lastUsed;
+
+        Entry(String value, long lastUsed, Entry target) {
+            this.value = value;
+            this.lastUsed = lastUsed;
+            this.target = target;
+        }
+
+        String use(long generation) {
+            if (lastUsed != generation) {
+                lastUsed = generation;
+                if (target != null) {
+                    target.use(generation);
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -25,12 +25,15 @@ package io.crate.jmx.recorder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.openmbean.CompositeData;
 
+import io.crate.jmx.AgentSettings;
 import io.prometheus.client.Collector;
 
 
@@ -38,6 +41,76 @@ public class NodeInfo implements Recorder {
 
     static final String MBEAN_NAME = "NodeInfo";
 
+    /**
+     * Value of the {@code id} label of the series summing up the size of all shards above the series budget.
+     */
+    static final String OTHER_SHARDS = "other";
+
+    private static final List<String> SHARD_INFO_LABELS =
+        List.of("name", "property", "id", "schema", "table", "partition_ident", "primary");
+
+    private static final List<String> OTHER_SHARDS_LABEL_VALUES =
+        List.of("shard_info", "size", OTHER_SHARDS, "", "", "", "");
+
+    private static final List<String> TABLE_LABELS = List.of("schema", "table");
+
+    private static final List<String> ROLLUP_LABELS = List.of("schema", "table", "primary");
+    private static final List<String> ROLLUP_PARTITION_LABELS = List.of("schema", "table", "partition_ident", "primary");
+
+    /**
+     * Which series are recorded for the {@code ShardInfo} attribute.
+     */
+    enum ShardInfoMode {
+        /**
+         * One {@code shard_info} series per shard.
+         */
+        SHARDS,
+        /**
+         * Size sum, shard count and maximum shard size per table (and partition), no per shard series.
+         */
+        ROLLUP,
+        /**
+         * Both of the above.
+         */
+        BOTH
+    }
+
+    private final int maxShardSeries;
+    private final ShardInfoMode shardInfoMode;
+    private final boolean rollupPartitions;
+    private final boolean sizeHistograms;
+    private final ShardIndex shardIndex;
+    public NodeInfo() {
+        this(AgentSettings.getInt("shard_info.max_series", 10_000),
+             parseMode(AgentSettings.get("shard_info.mode", "shards")),
+             AgentSettings.getBoolean("shard_info.rollup_partitions", true),
+             AgentSettings.getBoolean("shard_info.histogram", false));
+    }
+
+    /**
+     * @param maxShardSeries   maximum number of {@code shard_info} series, 0 disables the limit
+     * @param shardInfoMode    which series are recorded for the shards
+     * @param rollupPartitions whether rollups are computed per partition or per table
+     * @param sizeHistograms   whether shard size histograms are recorded per node and per table
+     */
+    NodeInfo(int maxShardSeries, ShardInfoMode shardInfoMode, boolean rollupPartitions, boolean sizeHistograms) {
+        this.maxShardSeries = maxShardSeries;
+        this.shardInfoMode = shardInfoMode;
+        this.rollupPartitions = rollupPartitions;
+        this.sizeHistograms = sizeHistograms;
+        this.shardIndex = new ShardIndex(rollupPartitions, LabelPool.SHARED);
+    }
+
+    private static ShardInfoMode parseMode(String mode) {
+        try {
+            return ShardInfoMode.valueOf(mode.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "Invalid value '" + mode + "' for setting " + AgentSettings.PREFIX + "shard_info.mode, "
+                + "must be one of shards, rollup or both", e);
+        }
+    }
+
     @Override
     public boolean recordBean(String domain, String attrName, CompositeData beanValue, MetricSampleConsumer metricSampleConsumer) {
         if (!"ShardStats".equals(attrName)) {
@@ -54,7 +127,7 @@ public class NodeInfo implements Recorder {
                     new Collector.MetricFamilySamples.Sample(
                             domain + '_' + "node",
                             Arrays.asList("name", "property"),
-                            Arrays.asList("shard_stats", propertyName.toLowerCase(Locale.getDefault())),
+                            Arrays.asList("shard_stats", LabelPool.SHARED.lowerCase(propertyName)),
                             ((Number) value).longValue()
                     ),
                     Collector.Type.GAUGE,
@@ -69,35 +142,96 @@ public class NodeInfo implements Recorder {
         if (!"ShardInfo".equals(attrName)) {
             return false;
         }
-        for (CompositeData compositeData : beanValue) {
-            Integer shardId = (Integer) compositeData.get("shardId");
-            String table = (String) compositeData.get("table");
-            Long size = (Long) compositeData.get("size");
-            String partitionIdent = (String) compositeData.get("partitionIdent");
-            String isPrimaryStr = "";
-            if (compositeData.containsKey("primary")) {
-                Boolean isPrimary = (Boolean) compositeData.get("primary");
-                isPrimaryStr = isPrimary ? "true" : "false";
+        boolean recordShards = shardInfoMode != ShardInfoMode.ROLLUP;
+        boolean limitShards = recordShards && maxShardSeries > 0 && beanValue.length > maxShardSeries;
+        // above the budget, only the largest shards are exposed, one series is reserved for the remaining ones
+        TopN largestShards = limitShards ? new TopN(maxShardSeries - 1) : null;
+        Map<ShardIndex.RollupKey, Rollup> rollups = shardInfoMode != ShardInfoMode.SHARDS ? new HashMap<>() : null;
+        SizeHistogram nodeHistogram = sizeHistograms ? new SizeHistogram() : null;
+        Map<List<String>, SizeHistogram> tableHistograms = sizeHistograms ? new HashMap<>() : null;
+        String name = domain + '_' + "node";
+        long totalSize = 0;
+        synchronized (shardIndex) {
+            shardIndex.beginScrape();
+            for (CompositeData shard : beanValue) {
+                int slot = shardIndex.update(shard);
+                long size = shardIndex.size(slot);
+                if (rollups != null) {
+                    rollups.computeIfAbsent(shardIndex.rollupKey(slot), k -> new Rollup()).add(size);
+                }
+                if (nodeHistogram != null) {
+                    nodeHistogram.add(size);
+                    tableHistograms.computeIfAbsent(shardIndex.tableLabelValues(slot), k -> new SizeHistogram()).add(size);
+                }
+                if (limitShards) {
+                    totalSize += size;
+                    largestShards.offer(slot, size);
+                } else if (recordShards) {
+                    recordShard(name, shardIndex.labelValues(slot), size, metricSampleConsumer);
+                }
             }
-            String schema = "";
-            if (compositeData.containsKey("schema")) {
-                schema  = (String) compositeData.get("schema");
+            shardIndex.endScrape();
+            if (limitShards) {
+                long retainedSize = 0;
+                for (int i = 0; i < largestShards.size(); i++) {
+                    recordShard(name, shardIndex.labelValues(largestShards.id(i)), largestShards.key(i), metricSampleConsumer);
+                    retainedSize += largestShards.key(i);
+                }
+                recordShard(name, OTHER_SHARDS_LABEL_VALUES, totalSize - retainedSize, metricSampleConsumer);
+            }
+            if (recordShards && maxShardSeries > 0) {
+                int droppedShardSeries = limitShards ? beanValue.length - largestShards.size() : 0;
+                metricSampleConsumer.accept(
+                    new Collector.MetricFamilySamples.Sample(
+                        domain + "_shard_info_dropped_series", List.of(), List.of(), droppedShardSeries),
+                    Collector.Type.GAUGE,
+                    "Number of shard_info series not exposed by the last collect because of the series budget."
+                );
+            }
+        }
+        if (rollups != null) {
+            List<String> labelNames = rollupPartitions ? ROLLUP_PARTITION_LABELS : ROLLUP_LABELS;
+            for (Map.Entry<ShardIndex.RollupKey, Rollup> entry : rollups.entrySet()) {
+                List<String> labelValues = entry.getKey().labelValues();
+                Rollup rollup = entry.getValue();
+                metricSampleConsumer.accept(
+                    new Collector.MetricFamilySamples.Sample(domain + "_table_size_bytes", labelNames, labelValues, rollup.sum),
+                    Collector.Type.GAUGE,
+                    "Total size of the shards of a table located on the Node."
+                );
+                metricSampleConsumer.accept(
+                    new Collector.MetricFamilySamples.Sample(domain + "_table_shards", labelNames, labelValues, rollup.count),
+                    Collector.Type.GAUGE,
+                    "Number of shards of a table located on the Node."
+                );
+                metricSampleConsumer.accept(
+                    new Collector.MetricFamilySamples.Sample(
+                        domain + "_table_max_shard_size_bytes", labelNames, labelValues, rollup.max),
+                    Collector.Type.GAUGE,
+                    "Size of the largest shard of a table located on the Node."
+                );
+            }
+        }
+        if (nodeHistogram != null) {
+            nodeHistogram.record(domain + "_shard_size_bytes", List.of(), List.of(),
+                                 "Size distribution of the shards located on the Node.", metricSampleConsumer);
+            for (Map.Entry<List<String>, SizeHistogram> entry : tableHistograms.entrySet()) {
+                entry.getValue().record(domain + "_table_shard_size_bytes", TABLE_LABELS, entry.getKey(),
+                                        "Size distribution of the shards of a table located on the Node.",
+                                        metricSampleConsumer);
             }
-
-            metricSampleConsumer.accept(
-                  new Collector.MetricFamilySamples.Sample(
-                          domain + '_' + "node",
-                          List.of("name", "property", "id", "schema", "table", "partition_ident", "primary"),
-                          Arrays.asList("shard_info", "size", shardId.toString(), schema, table, partitionIdent, isPrimaryStr),
-                          size
-                  ),
-                  Collector.Type.GAUGE,
-                  "Information for Shards located on the Node."
-            );
         }
         return true;
     }
 
+    private static void recordShard(String name, List<String> labelValues, long size, MetricSampleConsumer metricSampleConsumer) {
+        metricSampleConsumer.accept(
+              new Collector.MetricFamilySamples.Sample(name, SHARD_INFO_LABELS, labelValues, size),
+              Collector.Type.GAUGE,
+              "Information for Shards located on the Node."
+        );
+    }
+
     @Override
     public boolean recordBean(String domain,
                               String attrName,
@@ -112,7 +246,7 @@ public class NodeInfo implements Recorder {
                             Collections.emptyList(),
                             Collections.emptyList(),
                             beanValue.doubleValue()),
-                    Collector.Type.UNKNOWN,
+                    Collector.Type.GAUGE,
                     "Cluster information.");
             validAttribute = true;
         } else if (attrName.equalsIgnoreCase("master")) {
@@ -122,7 +256,7 @@ public class NodeInfo implements Recorder {
                     Collections.emptyList(),
                     Collections.emptyList(),
                     beanValue.byteValue()),
-                Collector.Type.UNKNOWN,
+                Collector.Type.GAUGE,
                 "Master elected information.");
             validAttribute = true;
         }
@@ -151,10 +285,85 @@ public class NodeInfo implements Recorder {
                     trueList,
                     1
                 ),
-                Collector.Type.UNKNOWN,
+                Collector.Type.GAUGE,
                 "Node role information."
             );
         }
         return validAttribute;
     }
+
+    private static final class Rollup {
+
+        private long sum;
+        private long count;
+        private long max;
+
+        void add(long size) {
+            sum += size;
+            count++;
+            max = Math.max(max, size);
+        }
+    }
+
+    /**
+     * Histogram of shard sizes with exponential buckets, from 1MiB up to 1TiB with a factor of 4 between them.
+     */
+    private static final class SizeHistogram {
+
+        private static final int MIN_BOUND_EXPONENT = 20;
+        private static final int BUCKETS = 11;
+
+        private final long[] counts = new long[BUCKETS + 1];
+        private long sum;
+
+        void add(long size) {
+            counts[bucket(size)]++;
+            sum += size;
+        }
+
+        void record(String name,
+                    List<String> labelNames,
+                    List<String> labelValues,
+                    String help,
+                    MetricSampleConsumer metricSampleConsumer) {
+            List<String> bucketLabelNames = new ArrayList<>(labelNames);
+            bucketLabelNames.add("le");
+            long count = 0;
+            for (int i = 0; i <= BUCKETS; i++) {
+                count += counts[i];
+                List<String> bucketLabelValues = new ArrayList<>(labelValues);
+                bucketLabelValues.add(i == BUCKETS ? "+Inf" : Collector.doubleToGoString(upperBound(i)));
+                metricSampleConsumer.accept(
+                    new Collector.MetricFamilySamples.Sample(name + "_bucket", bucketLabelNames, bucketLabelValues, count),
+                    Collector.Type.HISTOGRAM,
+                    help
+                );
+            }
+            metricSampleConsumer.accept(
+                new Collector.MetricFamilySamples.Sample(name + "_count", labelNames, labelValues, count),
+                Collector.Type.HISTOGRAM,
+                help
+            );
+            metricSampleConsumer.accept(
+                new Collector.MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, sum),
+                Collector.Type.HISTOGRAM,
+                help
+            );
+        }
+
+        private static long upperBound(int bucket) {
+            return 1L << (MIN_BOUND_EXPONENT + 2 * bucket);
+        }
+
+        /**
+         * Computes the bucket from the position of the highest bit, so no search over the bounds is required.
+         */
+        static int bucket(long size) {
+            if (size <= 1L << MIN_BOUND_EXPONENT) {
+                return 0;
+            }
+            int ceilLog2 = 64 - Long.numberOfLeadingZeros(size - 1);
+            return Math.min(BUCKETS, (ceilLog2 - MIN_BOUND_EXPONENT + 1) >>> 1);
+        }
+    }
 }
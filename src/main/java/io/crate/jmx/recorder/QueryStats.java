@@ -22,16 +22,38 @@
 
 package io.crate.jmx.recorder;
 
+import io.crate.jmx.AgentSettings;
 import io.prometheus.client.Collector;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Records the {@code QueryStats} MBean.
+ *
+ * Additionally, rates and average durations per query type are derived from the {@code TotalCount},
+ * {@code FailedCount} and {@code SumOfDurations} counters. Instead of relying on the windows CrateDB uses for its
+ * {@code Frequency} and {@code AverageDuration}, the counters are compared to a baseline taken at least one rate
+ * window ago. Baselines are rotated once they are a window old, so the rates cover between one and two windows.
+ * A counter below its baseline was reset and is counted from zero.
+ */
 public class QueryStats implements Recorder {
 
     static final String MBEAN_NAME = "QueryStats";
 
+    private static final int TOTAL = 0;
+    private static final int FAILED = 1;
+    private static final int SUM = 2;
+    private static final int COUNTERS = 3;
+
     private static final Pattern QUERIES = Pattern.compile("(.+)Query(Frequency|AverageDuration|TotalCount|AffectedRowCount|FailedCount|SumOfDurations)");
     private static final String FREQUENCY = "Frequency";
     private static final String AVG_DURATION = "AverageDuration";
@@ -39,6 +61,34 @@ public class QueryStats implements Recorder {
     private static final String AFFECTED_ROW_COUNT = "AffectedRowCount";
     private static final String FAILED_COUNT = "FailedCount";
     private static final String SUM_OF_DURATIONS = "SumOfDurations";
+    private static final List<String> QUERY_LABELS = Collections.singletonList("query");
+
+    private final long rateWindowNanos;
+    private final LongSupplier nanoTime;
+
+    // query type -> slot, the counters of a slot are stored at slot * COUNTERS + counter
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<List<String>> slotLabelValues = new ArrayList<>();
+    private long[] current = new long[0];
+    private boolean[] recorded = new boolean[0];
+    private long[] baseline = new long[0];
+    private boolean[] baselineRecorded = new boolean[0];
+    private long baselineAt;
+    private long[] previous = new long[0];
+    private boolean[] previousRecorded = new boolean[0];
+    private long previousAt;
+    private boolean hasBaseline;
+    private boolean hasPrevious;
+    private boolean recordedAny;
+
+    public QueryStats() {
+        this(AgentSettings.getMillis("query_stats.rate_window", "60s"), System::nanoTime);
+    }
+
+    QueryStats(long rateWindowMs, LongSupplier nanoTime) {
+        this.rateWindowNanos = TimeUnit.MILLISECONDS.toNanos(rateWindowMs);
+        this.nanoTime = nanoTime;
+    }
 
     @Override
     public boolean recordBean(String domain,
@@ -69,6 +119,7 @@ public class QueryStats implements Recorder {
                         metricSampleConsumer);
                     return true;
                 case TOTAL_COUNT:
+                    recordCounterValue(label, TOTAL, beanValue);
                     recordBean(
                         domain,
                         "query_total_count",
@@ -76,6 +127,13 @@ public class QueryStats implements Recorder {
                         beanValue,
                         "The total number of queries that were executed for a given query type.",
                         metricSampleConsumer);
+                    recordCounter(
+                        domain,
+                        "query_executions",
+                        label,
+                        beanValue,
+                        "The total number of queries that were executed for a given query type.",
+                        metricSampleConsumer);
                     return true;
                 case AFFECTED_ROW_COUNT:
                     recordBean(
@@ -85,8 +143,16 @@ public class QueryStats implements Recorder {
                         beanValue,
                         "The total number of affected rows of all statement executions for a given query type.",
                         metricSampleConsumer);
+                    recordCounter(
+                        domain,
+                        "query_affected_rows",
+                        label,
+                        beanValue,
+                        "The total number of affected rows of all statement executions for a given query type.",
+                        metricSampleConsumer);
                     return true;
                 case FAILED_COUNT:
+                    recordCounterValue(label, FAILED, beanValue);
                     recordBean(
                         domain,
                         "query_failed_count",
@@ -94,8 +160,16 @@ public class QueryStats implements Recorder {
                         beanValue,
                         "The total number of queries that failed to complete successfully for a given query type.",
                         metricSampleConsumer);
+                    recordCounter(
+                        domain,
+                        "query_failures",
+                        label,
+                        beanValue,
+                        "The total number of queries that failed to complete successfully for a given query type.",
+                        metricSampleConsumer);
                     return true;
                 case SUM_OF_DURATIONS:
+                    recordCounterValue(label, SUM, beanValue);
                     recordBean(
                         domain,
                         "query_sum_of_durations_millis",
@@ -103,6 +177,13 @@ public class QueryStats implements Recorder {
                         beanValue,
                         "The sum of durations of all executed queries of a given type, expressed in milliseconds.",
                         metricSampleConsumer);
+                    recordCounter(
+                        domain,
+                        "query_duration_millis",
+                        label,
+                        beanValue,
+                        "The sum of durations of all executed queries of a given type, expressed in milliseconds.",
+                        metricSampleConsumer);
                     return true;
                 default:
                     return false;
@@ -111,6 +192,113 @@ public class QueryStats implements Recorder {
         return false;
     }
 
+    private void recordCounterValue(String queryType, int counter, Number value) {
+        Integer slot = slots.get(queryType);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(queryType, slot);
+            slotLabelValues.add(Collections.singletonList(queryType));
+            int length = slots.size() * COUNTERS;
+            current = Arrays.copyOf(current, length);
+            recorded = Arrays.copyOf(recorded, length);
+            baseline = Arrays.copyOf(baseline, length);
+            baselineRecorded = Arrays.copyOf(baselineRecorded, length);
+            previous = Arrays.copyOf(previous, length);
+            previousRecorded = Arrays.copyOf(previousRecorded, length);
+        }
+        int idx = slot * COUNTERS + counter;
+        current[idx] = value.longValue();
+        recorded[idx] = true;
+        recordedAny = true;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(recorded, false);
+        recordedAny = false;
+    }
+
+    @Override
+    public void endCollect(String domain, MetricSampleConsumer metricSampleConsumer) {
+        // the QueryStats MBean was not part of this collect
+        if (!recordedAny) {
+            return;
+        }
+        long now = nanoTime.getAsLong();
+        if (!hasBaseline) {
+            rotateBaseline(now);
+            hasBaseline = true;
+            return;
+        }
+        if (now - baselineAt >= rateWindowNanos) {
+            // the baseline becomes the previous one, which the rates are computed against
+            long[] values = previous;
+            previous = baseline;
+            baseline = values;
+            boolean[] flags = previousRecorded;
+            previousRecorded = baselineRecorded;
+            baselineRecorded = flags;
+            previousAt = baselineAt;
+            hasPrevious = true;
+            rotateBaseline(now);
+        }
+        if (!hasPrevious) {
+            return;
+        }
+        double seconds = (now - previousAt) / 1E9;
+        for (int slot = 0; slot < slotLabelValues.size(); slot++) {
+            int offset = slot * COUNTERS;
+            if (!isComparable(offset + TOTAL)) {
+                continue;
+            }
+            long total = delta(offset + TOTAL);
+            List<String> labelValues = slotLabelValues.get(slot);
+            recordRate(domain + "_query_rate", labelValues, total / seconds,
+                "Queries per second for a given query type, over the rate window.", metricSampleConsumer);
+            if (isComparable(offset + FAILED)) {
+                recordRate(domain + "_query_failure_rate", labelValues, delta(offset + FAILED) / seconds,
+                    "Failed queries per second for a given query type, over the rate window.", metricSampleConsumer);
+            }
+            if (isComparable(offset + SUM)) {
+                double average = total == 0 ? Double.NaN : delta(offset + SUM) / 1000.0 / total;
+                recordRate(domain + "_query_average_duration_seconds", labelValues, average,
+                    "The average query duration for a given query type, over the rate window.", metricSampleConsumer);
+            }
+        }
+    }
+
+    private void rotateBaseline(long now) {
+        for (int i = 0; i < current.length; i++) {
+            baselineRecorded[i] = recorded[i];
+            if (recorded[i]) {
+                baseline[i] = current[i];
+            }
+        }
+        baselineAt = now;
+    }
+
+    private boolean isComparable(int idx) {
+        return recorded[idx] && previousRecorded[idx];
+    }
+
+    private long delta(int idx) {
+        long value = current[idx];
+        long previousValue = previous[idx];
+        // the counter was reset, count it from zero
+        return value >= previousValue ? value - previousValue : value;
+    }
+
+    private static void recordRate(String name,
+                                   List<String> labelValues,
+                                   double value,
+                                   String help,
+                                   MetricSampleConsumer metricSampleConsumer) {
+        metricSampleConsumer.accept(
+            new Collector.MetricFamilySamples.Sample(name, QUERY_LABELS, labelValues, value),
+            Collector.Type.GAUGE,
+            help);
+    }
+
     private static void recordBean(String domain,
                                    String attrName,
                                    String labelValue,
@@ -127,4 +315,19 @@ public class QueryStats implements Recorder {
                 Collector.Type.GAUGE,
                 help);
     }
+
+    private static void recordCounter(String domain,
+                                      String name,
+                                      String labelValue,
+                                      Number beanValue,
+                                      String help,
+                                      MetricSampleConsumer metricSampleConsumer) {
+        Counters.record(
+            domain + "_" + name,
+            Collections.singletonList("query"),
+            Collections.singletonList(labelValue),
+            beanValue.doubleValue(),
+            help,
+            metricSampleConsumer);
+    }
 }
@@ -60,6 +60,12 @@ public interface Recorder {
         return false;
     }
 
+    /**
+     * Called once all MBeans of a collect are recorded, to add metrics derived from several attributes.
+     */
+    default void endCollect(String domain, MetricSampleConsumer metricSampleConsumer) {
+    }
+
     /**
      * Clears any internal structures before new collect()
      */
@@ -48,7 +48,23 @@ public final class RecorderRegistry {
     private RecorderRegistry() {
     }
 
-    public static void resetRecorders() {
+    /**
+     * Resets all recorders before a collect.
+     *
+     * @param fullCollect whether all MBeans are collected. Only full collects advance the scrape of the
+     *                    {@link LabelPool}, so that frequent partial collects, e.g. of {@code /ready} or the history,
+     *                    don't evict the label values used by the less frequent full scrapes.
+     */
+    public static void resetRecorders(boolean fullCollect) {
+        if (fullCollect) {
+            LabelPool.SHARED.nextScrape();
+        }
         REGISTRY.values().forEach(Recorder::reset);
     }
+
+    public static void endCollect(String domain, MetricSampleConsumer metricSampleConsumer) {
+        for (Recorder recorder : REGISTRY.values()) {
+            recorder.endCollect(domain, metricSampleConsumer);
+        }
+    }
 }
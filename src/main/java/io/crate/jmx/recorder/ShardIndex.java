@@ -0,0 +1,265 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Index of the shards reported by the {@code ShardInfo} attribute, keyed by
+ * {@code (schema, table, partition, shardId, primary)}.
+ *
+ * Shards rarely move, only their sizes change. Every shard therefore keeps a stable slot across scrapes, which
+ * holds its size as a primitive and its cached label values. A scrape only updates the sizes in place, allocates
+ * slots for shards which appeared and frees the slots of shards which weren't seen within the scrape (detected via
+ * a generation stamp per slot).
+ *
+ * Not thread safe, callers must synchronize on the index.
+ */
+final class ShardIndex {
+
+    private final boolean rollupPartitions;
+    private final LabelPool labelPool;
+    private final Map<ShardKey, Integer> slotByKey = new HashMap<>();
+    // reused to look up known shards without allocating a key
+    private final ShardKey probe = new ShardKey();
+
+    private ShardKey[] keys = new ShardKey[16];
+    private List<String>[] labelValues = newLabelValues(16);
+    private RollupKey[] rollupKeys = new RollupKey[16];
+    private List<String>[] tableLabelValues = newLabelValues(16);
+    private long[] sizes = new long[16];
+    private long[] generations = new long[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+    private int seen;
+    private long generation;
+
+    /**
+     * @param rollupPartitions whether the rollup key of a shard includes its partition
+     * @param labelPool        pool for the label values of new shards, shared with other tables and recorders
+     */
+    ShardIndex(boolean rollupPartitions, LabelPool labelPool) {
+        this.rollupPartitions = rollupPartitions;
+        this.labelPool = labelPool;
+    }
+
+    void beginScrape() {
+        generation++;
+        seen = 0;
+    }
+
+    /**
+     * Updates the size of the given shard, adding it to the index if it's unknown.
+     *
+     * @return the slot of the shard
+     */
+    int update(CompositeData shard) {
+        probe.set(shard);
+        Integer existing = slotByKey.get(probe);
+        int slot;
+        if (existing == null) {
+            slot = allocateSlot();
+            ShardKey key = probe.copy(labelPool);
+            keys[slot] = key;
+            labelValues[slot] = key.labelValues();
+            rollupKeys[slot] = new RollupKey(key, rollupPartitions);
+            tableLabelValues[slot] = List.of(key.schema, key.table);
+            slotByKey.put(key, slot);
+        } else {
+            slot = existing;
+        }
+        if (generations[slot] != generation) {
+            generations[slot] = generation;
+            seen++;
+        }
+        sizes[slot] = (Long) shard.get("size");
+        return slot;
+    }
+
+    /**
+     * Removes all shards which weren't updated since {@link #beginScrape()}.
+     */
+    void endScrape() {
+        if (seen == slotByKey.size()) {
+            return;
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            ShardKey key = keys[slot];
+            if (key != null && generations[slot] != generation) {
+                slotByKey.remove(key);
+                keys[slot] = null;
+                labelValues[slot] = null;
+                rollupKeys[slot] = null;
+                tableLabelValues[slot] = null;
+                freeSlots[freeCount++] = slot;
+            }
+        }
+    }
+
+    /**
+     * @return the number of shards in the index
+     */
+    int size() {
+        return slotByKey.size();
+    }
+
+    long size(int slot) {
+        return sizes[slot];
+    }
+
+    /**
+     * @return the cached values of the {@code shard_info} size labels
+     */
+    List<String> labelValues(int slot) {
+        return labelValues[slot];
+    }
+
+    RollupKey rollupKey(int slot) {
+        return rollupKeys[slot];
+    }
+
+    /**
+     * @return the cached values of the {@code schema, table} labels
+     */
+    List<String> tableLabelValues(int slot) {
+        return tableLabelValues[slot];
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == keys.length) {
+            int capacity = slotCount << 1;
+            keys = Arrays.copyOf(keys, capacity);
+            labelValues = Arrays.copyOf(labelValues, capacity);
+            rollupKeys = Arrays.copyOf(rollupKeys, capacity);
+            tableLabelValues = Arrays.copyOf(tableLabelValues, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+        return slotCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String>[] newLabelValues(int capacity) {
+        return (List<String>[]) new List<?>[capacity];
+    }
+
+    private static final class ShardKey {
+
+        private String schema;
+        private String table;
+        private String partitionIdent;
+        private int shardId;
+        private String shardIdLabel;
+        private String primary;
+
+        void set(CompositeData shard) {
+            schema = shard.containsKey("schema") ? (String) shard.get("schema") : "";
+            table = Objects.toString(shard.get("table"), "");
+            partitionIdent = Objects.toString(shard.get("partitionIdent"), "");
+            shardId = (Integer) shard.get("shardId");
+            if (shard.containsKey("primary")) {
+                primary = (Boolean) shard.get("primary") ? "true" : "false";
+            } else {
+                primary = "";
+            }
+        }
+
+        ShardKey copy(LabelPool labelPool) {
+            ShardKey copy = new ShardKey();
+            copy.schema = labelPool.intern(schema);
+            copy.table = labelPool.intern(table);
+            copy.partitionIdent = labelPool.intern(partitionIdent);
+            copy.shardId = shardId;
+            copy.shardIdLabel = labelPool.intern(Integer.toString(shardId));
+            copy.primary = primary;
+            return copy;
+        }
+
+        List<String> labelValues() {
+            return List.of("shard_info", "size", shardIdLabel, schema, table, partitionIdent, primary);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ShardKey)) {
+                return false;
+            }
+            ShardKey that = (ShardKey) o;
+            return shardId == that.shardId && schema.equals(that.schema) && table.equals(that.table)
+                   && partitionIdent.equals(that.partitionIdent) && primary.equals(that.primary);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = schema.hashCode();
+            result = 31 * result + table.hashCode();
+            result = 31 * result + partitionIdent.hashCode();
+            result = 31 * result + shardId;
+            return 31 * result + primary.hashCode();
+        }
+    }
+
+    /**
+     * Identity of a table, or of a partition, used to aggregate the shard sizes.
+     */
+    static final class RollupKey {
+
+        private final List<String> labelValues;
+
+        private RollupKey(ShardKey shard, boolean withPartition) {
+            if (withPartition) {
+                labelValues = List.of(shard.schema, shard.table, shard.partitionIdent, shard.primary);
+            } else {
+                labelValues = List.of(shard.schema, shard.table, shard.primary);
+            }
+        }
+
+        List<String> labelValues() {
+            return labelValues;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof RollupKey && labelValues.equals(((RollupKey) o).labelValues));
+        }
+
+        @Override
+        public int hashCode() {
+            return labelValues.hashCode();
+        }
+    }
+}
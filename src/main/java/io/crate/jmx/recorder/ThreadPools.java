@@ -26,7 +26,6 @@ import io.prometheus.client.Collector;
 
 import javax.management.openmbean.CompositeData;
 import java.util.Arrays;
-import java.util.Locale;
 import java.util.Set;
 
 public class ThreadPools implements Recorder {
@@ -39,7 +38,7 @@ public class ThreadPools implements Recorder {
                               CompositeData beanValue,
                               MetricSampleConsumer metricSampleConsumer) {
         Set<String> names = beanValue.getCompositeType().keySet();
-        String poolName = ((String) beanValue.get("name")).toLowerCase(Locale.ENGLISH);
+        String poolName = LabelPool.SHARED.lowerCase((String) beanValue.get("name"));
 
         for (String propertyName : names) {
             Object value = beanValue.get(propertyName);
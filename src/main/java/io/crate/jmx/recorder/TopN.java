@@ -0,0 +1,89 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+/**
+ * Retains the entries with the largest keys out of a stream of {@code (id, key)} pairs.
+ *
+ * Uses a bounded binary min-heap on primitive arrays, so selecting {@code k} out of {@code n} entries costs
+ * {@code O(n log k)} without sorting or boxing. Retained entries are in heap order, not sorted.
+ */
+final class TopN {
+
+    private final int[] ids;
+    private final long[] keys;
+    private int size;
+
+    TopN(int capacity) {
+        ids = new int[capacity];
+        keys = new long[capacity];
+    }
+
+    void offer(int id, long key) {
+        if (size < ids.length) {
+            int i = size++;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            keys[i] = key;
+        } else if (size > 0 && key > keys[0]) {
+            // replace the smallest retained entry and sift down
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                ids[i] = ids[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            ids[i] = id;
+            keys[i] = key;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int id(int index) {
+        return ids[index];
+    }
+
+    long key(int index) {
+        return keys[index];
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.rules;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.Collector.Type;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled recording rule, aggregating the samples matched by its selectors into one series per group.
+ *
+ * Groups are accumulated while the {@link RuleSet} walks the collected families and are emitted as a gauge family
+ * named after the rule. Groups are reused across evaluations and only removed once an evaluation didn't match any
+ * of their samples, so a steady set of series is aggregated without allocating a group or a key per sample.
+ */
+final class Rule {
+
+    enum Operation {
+        SUM,
+        MAX,
+        MIN,
+        COUNT,
+        /**
+         * The sum of the first selector divided by the sum of the second selector.
+         */
+        RATIO
+    }
+
+    private final String name;
+    private final String help;
+    private final Operation operation;
+    private final List<Selector> selectors;
+    private final List<String> groupingLabels;
+    private final boolean without;
+
+    private final Map<List<String>, Group> groups = new LinkedHashMap<>();
+    // the key of the current sample, only copied if it starts a new group
+    private final List<String> probe = new ArrayList<>();
+
+    Rule(String name,
+         String help,
+         Operation operation,
+         List<Selector> selectors,
+         List<String> groupingLabels,
+         boolean without) {
+        this.name = name;
+        this.help = help;
+        this.operation = operation;
+        this.selectors = selectors;
+        this.groupingLabels = groupingLabels;
+        this.without = without;
+    }
+
+    String name() {
+        return name;
+    }
+
+    List<Selector> selectors() {
+        return selectors;
+    }
+
+    /**
+     * Removes the groups the previous evaluation didn't match and resets the others.
+     */
+    void begin() {
+        Iterator<Group> it = groups.values().iterator();
+        while (it.hasNext()) {
+            Group group = it.next();
+            if (group.count == 0 && group.denominatorCount == 0) {
+                it.remove();
+            } else {
+                group.reset();
+            }
+        }
+    }
+
+    /**
+     * Adds the sample to its group if it matches the label matchers of the selector with the given index.
+     *
+     * @return whether the sample matched
+     */
+    boolean accept(int selectorIndex, Sample sample) {
+        if (!selectors.get(selectorIndex).matches(sample)) {
+            return false;
+        }
+        fillProbe(sample);
+        Group group = groups.get(probe);
+        if (group == null) {
+            group = new Group(List.copyOf(probe));
+            groups.put(group.key, group);
+        }
+        if (selectorIndex == 0) {
+            group.add(operation, sample.value);
+        } else {
+            group.denominator += sample.value;
+            group.denominatorCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the family of all groups accumulated since {@link #begin()}, if any.
+     */
+    void addTo(List<MetricFamilySamples> result) {
+        List<Sample> samples = new ArrayList<>(groups.size());
+        for (Group group : groups.values()) {
+            if (group.count == 0 || (operation == Operation.RATIO && group.denominatorCount == 0)) {
+                continue;
+            }
+            double value;
+            switch (operation) {
+                case COUNT:
+                    value = group.count;
+                    break;
+                case RATIO:
+                    value = group.value / group.denominator;
+                    break;
+                default:
+                    value = group.value;
+                    break;
+            }
+            samples.add(new Sample(name, group.labelNames, group.labelValues, value));
+        }
+        if (!samples.isEmpty()) {
+            result.add(new MetricFamilySamples(name, Type.GAUGE, help, samples));
+        }
+    }
+
+    /**
+     * Fills the probe with the names and values of the kept labels, alternating.
+     */
+    private void fillProbe(Sample sample) {
+        probe.clear();
+        if (without) {
+            for (int i = 0; i < sample.labelNames.size(); i++) {
+                String label = sample.labelNames.get(i);
+                if (!groupingLabels.contains(label)) {
+                    probe.add(label);
+                    probe.add(sample.labelValues.get(i));
+                }
+            }
+            return;
+        }
+        for (String label : groupingLabels) {
+            int idx = sample.labelNames.indexOf(label);
+            probe.add(label);
+            probe.add(idx == -1 ? "" : sample.labelValues.get(idx));
+        }
+    }
+
+    static final class Selector {
+
+        private final String sampleName;
+        private final List<String> labels;
+        private final List<String> values;
+        private final boolean[] negated;
+
+        Selector(String sampleName, List<String> labels, List<String> values, boolean[] negated) {
+            this.sampleName = sampleName;
+            this.labels = labels;
+            this.values = values;
+            this.negated = negated;
+        }
+
+        String sampleName() {
+            return sampleName;
+        }
+
+        /**
+         * A label missing on the sample matches the empty value, like in PromQL.
+         */
+        boolean matches(Sample sample) {
+            for (int i = 0; i < labels.size(); i++) {
+                int idx = sample.labelNames.indexOf(labels.get(i));
+                String value = idx == -1 ? "" : sample.labelValues.get(idx);
+                if (value.equals(values.get(i)) == negated[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Group {
+
+        private final List<String> key;
+        private final List<String> labelNames;
+        private final List<String> labelValues;
+        private double value;
+        private int count;
+        private double denominator;
+        private int denominatorCount;
+
+        Group(List<String> key) {
+            this.key = key;
+            List<String> names = new ArrayList<>(key.size() / 2);
+            List<String> values = new ArrayList<>(key.size() / 2);
+            for (int i = 0; i < key.size(); i += 2) {
+                names.add(key.get(i));
+                values.add(key.get(i + 1));
+            }
+            // shared by the emitted samples of all evaluations
+            this.labelNames = List.copyOf(names);
+            this.labelValues = List.copyOf(values);
+        }
+
+        void reset() {
+            value = 0;
+            count = 0;
+            denominator = 0;
+            denominatorCount = 0;
+        }
+
+        void add(Operation operation, double sampleValue) {
+            if (count == 0) {
+                value = sampleValue;
+            } else if (operation == Operation.MAX) {
+                value = Math.max(value, sampleValue);
+            } else if (operation == Operation.MIN) {
+                value = Math.min(value, sampleValue);
+            } else {
+                value += sampleValue;
+            }
+            count++;
+        }
+    }
+}
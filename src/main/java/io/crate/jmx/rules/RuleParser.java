@@ -0,0 +1,221 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses a rule of the form
+ *
+ * <pre>
+ * name = operation(sample_name{label="value",label!="value"}) by (label, ...)
+ * name = ratio(sample_name{...}, sample_name{...}) without (label, ...)
+ * </pre>
+ *
+ * The operations are {@code sum}, {@code max}, {@code min}, {@code count} and {@code ratio}. {@code by} keeps only
+ * the listed labels, {@code without} drops them. Without a grouping clause all samples are aggregated into a single
+ * series without labels.
+ */
+final class RuleParser {
+
+    private final String text;
+    private int position;
+
+    private RuleParser(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the rule is invalid
+     */
+    static Rule parse(String text) {
+        return new RuleParser(text).rule();
+    }
+
+    private Rule rule() {
+        String name = metricName();
+        expect('=');
+        String operationName = identifier();
+        Rule.Operation operation;
+        try {
+            operation = Rule.Operation.valueOf(operationName.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw error("unknown operation '" + operationName + "', expected one of "
+                        + Arrays.toString(Rule.Operation.values()).toLowerCase(Locale.ENGLISH));
+        }
+        expect('(');
+        List<Rule.Selector> selectors = new ArrayList<>(2);
+        selectors.add(selector());
+        if (operation == Rule.Operation.RATIO) {
+            expect(',');
+            selectors.add(selector());
+        }
+        expect(')');
+
+        boolean without = false;
+        List<String> groupingLabels = List.of();
+        if (!atEnd()) {
+            String grouping = identifier();
+            if (grouping.equals("without")) {
+                without = true;
+            } else if (!grouping.equals("by")) {
+                throw error("expected 'by' or 'without' but got '" + grouping + "'");
+            }
+            groupingLabels = labelList();
+        }
+        if (!atEnd()) {
+            throw error("unexpected '" + text.substring(position).trim() + "'");
+        }
+        return new Rule(name, "Recording rule: " + text.trim(), operation, selectors, groupingLabels, without);
+    }
+
+    private Rule.Selector selector() {
+        String sampleName = metricName();
+        List<String> labels = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        List<Boolean> negated = new ArrayList<>();
+        if (consume('{')) {
+            while (!consume('}')) {
+                if (!labels.isEmpty()) {
+                    expect(',');
+                }
+                labels.add(labelName());
+                if (consume('!')) {
+                    negated.add(true);
+                } else {
+                    negated.add(false);
+                }
+                expect('=');
+                values.add(quoted());
+            }
+        }
+        boolean[] negatedArray = new boolean[negated.size()];
+        for (int i = 0; i < negatedArray.length; i++) {
+            negatedArray[i] = negated.get(i);
+        }
+        return new Rule.Selector(sampleName, labels, values, negatedArray);
+    }
+
+    private List<String> labelList() {
+        expect('(');
+        List<String> labels = new ArrayList<>();
+        while (!consume(')')) {
+            if (!labels.isEmpty()) {
+                expect(',');
+            }
+            labels.add(labelName());
+        }
+        return labels;
+    }
+
+    private String metricName() {
+        String name = token(true);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            throw error("expected a metric name");
+        }
+        return name;
+    }
+
+    private String labelName() {
+        String name = token(false);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            throw error("expected a label name");
+        }
+        return name;
+    }
+
+    private String identifier() {
+        String identifier = token(false);
+        if (identifier.isEmpty()) {
+            throw error("expected an identifier");
+        }
+        return identifier;
+    }
+
+    private String token(boolean allowColon) {
+        skipWhitespace();
+        int start = position;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'
+                || (allowColon && c == ':')) {
+                position++;
+            } else {
+                break;
+            }
+        }
+        return text.substring(start, position);
+    }
+
+    private String quoted() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\' && position < text.length()) {
+                c = text.charAt(position++);
+                if (c == 'n') {
+                    c = '\n';
+                }
+            }
+            value.append(c);
+        }
+        throw error("unterminated string");
+    }
+
+    private boolean consume(char expected) {
+        skipWhitespace();
+        if (position < text.length() && text.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) {
+        if (!consume(expected)) {
+            throw error("expected '" + expected + "'");
+        }
+    }
+
+    private boolean atEnd() {
+        skipWhitespace();
+        return position == text.length();
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + (position + 1));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.rules;
+
+import io.crate.jmx.AgentSettings;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recording rules evaluated by the agent on every full collect, so that aggregations like the sum of a thread pool
+ * property per node don't need to be evaluated by the monitoring system.
+ *
+ * The rules are read from the file configured by {@code crate.jmx.rules.file}, one rule per line, see
+ * {@link RuleParser} for the syntax. Empty lines and lines starting with {@code #} are ignored.
+ *
+ * The rules are compiled once into an evaluation plan, which maps every sample name to the rule selectors reading
+ * it. An evaluation therefore walks the collected samples once, regardless of the number of rules.
+ * If {@code crate.jmx.rules.drop_sources} is enabled, the samples matched by any rule are not exposed themselves.
+ * A rule named like a collected family is skipped, as the exposition must not contain a family twice.
+ *
+ * Not thread safe.
+ */
+public final class RuleSet {
+
+    private static final Logger LOGGER = Logger.getLogger(RuleSet.class.getName());
+
+    private final List<Rule> rules;
+    private final Map<String, Binding[]> plan = new HashMap<>();
+    private final boolean dropSources;
+    // names of the collected families, reused across evaluations
+    private final Set<String> familyNames = new HashSet<>();
+    // rules which have already been reported as colliding with a collected family
+    private final Set<String> collisionsLogged = new HashSet<>();
+
+    private RuleSet(List<Rule> rules, boolean dropSources) {
+        this.rules = rules;
+        this.dropSources = dropSources;
+        for (Rule rule : rules) {
+            for (int i = 0; i < rule.selectors().size(); i++) {
+                Binding binding = new Binding(rule, i);
+                plan.merge(rule.selectors().get(i).sampleName(), new Binding[]{binding}, RuleSet::concat);
+            }
+        }
+    }
+
+    /**
+     * @return the configured rules or {@code null} if no rules file is configured
+     * @throws IllegalArgumentException if the rules file cannot be read or contains an invalid rule
+     */
+    public static RuleSet fromAgentSettings() {
+        String file = AgentSettings.get("rules.file", null);
+        if (file == null) {
+            return null;
+        }
+        Path path = Paths.get(file);
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                "Cannot read rules file '" + path + "' of setting " + AgentSettings.PREFIX + "rules.file", e);
+        }
+        try {
+            return parse(lines, AgentSettings.getBoolean("rules.drop_sources", false));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid rules file '" + path + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line contains an invalid rule, a rule name is used twice or a rule is
+     *                                  named like a sample read by a rule
+     */
+    static RuleSet parse(List<String> lines, boolean dropSources) {
+        List<Rule> rules = new ArrayList<>();
+        Map<String, Integer> names = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Rule rule;
+            try {
+                rule = RuleParser.parse(line);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+            if (names.putIfAbsent(rule.name(), i + 1) != null) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": duplicate rule '" + rule.name() + "'");
+            }
+            rules.add(rule);
+        }
+        // the derived family would be exposed next to its source or be read by the rules itself
+        for (Rule rule : rules) {
+            for (Rule.Selector selector : rule.selectors()) {
+                Integer line = names.get(selector.sampleName());
+                if (line != null) {
+                    throw new IllegalArgumentException(
+                        "line " + line + ": rule '" + selector.sampleName()
+                        + "' is named like the samples read by rule '" + rule.name() + "'");
+                }
+            }
+        }
+        return new RuleSet(rules, dropSources);
+    }
+
+    /**
+     * @return the given families, without the samples matched by the rules if sources are dropped,
+     *         followed by the families derived by the rules
+     */
+    public List<MetricFamilySamples> evaluate(List<MetricFamilySamples> families) {
+        for (Rule rule : rules) {
+            rule.begin();
+        }
+        List<MetricFamilySamples> result = new ArrayList<>(families.size() + rules.size());
+        familyNames.clear();
+        for (MetricFamilySamples family : families) {
+            familyNames.add(family.name);
+            // only allocated once a sample of the family is dropped
+            List<Sample> kept = null;
+            for (int i = 0; i < family.samples.size(); i++) {
+                Sample sample = family.samples.get(i);
+                Binding[] bindings = plan.get(sample.name);
+                boolean matched = false;
+                if (bindings != null) {
+                    for (Binding binding : bindings) {
+                        matched |= binding.rule.accept(binding.selectorIndex, sample);
+                    }
+                }
+                if (matched && dropSources) {
+                    if (kept == null) {
+                        kept = new ArrayList<>(family.samples.subList(0, i));
+                    }
+                } else if (kept != null) {
+                    kept.add(sample);
+                }
+            }
+            if (kept == null) {
+                result.add(family);
+            } else if (!kept.isEmpty()) {
+                result.add(new MetricFamilySamples(family.name, family.unit, family.type, family.help, kept));
+            }
+        }
+        for (Rule rule : rules) {
+            if (familyNames.contains(rule.name())) {
+                if (collisionsLogged.add(rule.name())) {
+                    LOGGER.log(Level.WARNING,
+                        "Skipping rule '" + rule.name() + "', a collected family has the same name");
+                }
+                continue;
+            }
+            rule.addTo(result);
+        }
+        return result;
+    }
+
+    private static Binding[] concat(Binding[] a, Binding[] b) {
+        Binding[] result = new Binding[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static final class Binding {
+
+        private final Rule rule;
+        private final int selectorIndex;
+
+        Binding(Rule rule, int selectorIndex) {
+            this.rule = rule;
+            this.selectorIndex = selectorIndex;
+        }
+    }
+}
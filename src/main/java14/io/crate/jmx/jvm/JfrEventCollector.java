@@ -0,0 +1,138 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.crate.jmx.AgentSettings;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import jdk.jfr.consumer.RecordedEvent;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates JFR events into a duration histogram and an event counter per event type.
+ */
+final class JfrEventCollector extends Collector {
+
+    enum Event {
+        SAFEPOINT("jdk.SafepointBegin", "jvm_jfr_safepoint", "Duration of safepoints", 14),
+        MONITOR_ENTER("jdk.JavaMonitorEnter", "jvm_jfr_monitor_enter", "Time threads waited to enter a monitor", 14),
+        THREAD_PARK("jdk.ThreadPark", "jvm_jfr_thread_park", "Time threads were parked", 14),
+        ALLOCATION("jdk.ObjectAllocationSample", "jvm_jfr_allocation", "Sampled object allocations", 16);
+
+        private final String jfrName;
+        private final String metricName;
+        private final String help;
+        private final int since;
+
+        Event(String jfrName, String metricName, String help, int since) {
+            this.jfrName = jfrName;
+            this.metricName = metricName;
+            this.help = help;
+            this.since = since;
+        }
+
+        String jfrName() {
+            return jfrName;
+        }
+
+        /**
+         * The Java feature release the JFR event was introduced with.
+         */
+        int since() {
+            return since;
+        }
+
+        static Event of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                    "Invalid value '" + name + "' for setting " + AgentSettings.PREFIX
+                    + "jfr.events, must be one of safepoint, monitor_enter, thread_park or allocation", e);
+            }
+        }
+    }
+
+    private static final List<String> NO_LABELS = List.of();
+
+    private final Map<Event, DurationHistogram> durations = new EnumMap<>(Event.class);
+    private final LongAdder allocationSamples = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private final boolean allocations;
+
+    JfrEventCollector(Set<Event> events) {
+        for (Event event : events) {
+            if (event != Event.ALLOCATION) {
+                durations.put(event, new DurationHistogram());
+            }
+        }
+        allocations = events.contains(Event.ALLOCATION);
+    }
+
+    void record(Event event, RecordedEvent recorded) {
+        if (event == Event.ALLOCATION) {
+            // the weight is the number of bytes allocated since the previous sample of the thread
+            recordAllocation(recorded.getLong("weight"));
+        } else {
+            recordDuration(event, recorded.getDuration().toNanos());
+        }
+    }
+
+    void recordAllocation(long weight) {
+        allocationSamples.increment();
+        allocatedBytes.add(weight);
+    }
+
+    void recordDuration(Event event, long nanos) {
+        durations.get(event).add(nanos / 1E9);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        for (Map.Entry<Event, DurationHistogram> entry : durations.entrySet()) {
+            Event event = entry.getKey();
+            String name = event.metricName + "_seconds";
+            List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+            entry.getValue().addSamples(name, NO_LABELS, NO_LABELS, samples);
+            mfs.add(new MetricFamilySamples(name, Type.HISTOGRAM, event.help + " above the JFR threshold", samples));
+        }
+        if (allocations) {
+            mfs.add(new CounterMetricFamily(
+                "jvm_jfr_allocation_samples_total", Event.ALLOCATION.help, allocationSamples.sum()));
+            mfs.add(new CounterMetricFamily(
+                "jvm_jfr_allocation_sampled_bytes_total",
+                "Bytes allocated by threads, estimated from the sampled object allocations",
+                allocatedBytes.sum()));
+        }
+        return mfs;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.crate.jmx.AgentSettings;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams JDK Flight Recorder events into metrics, enabled with {@code crate.jmx.jfr.enabled=true}.
+ *
+ * The events are consumed in-process by a {@link RecordingStream} and aggregated by the {@link JfrEventCollector}.
+ * Only the events listed in {@code crate.jmx.jfr.events} are enabled. Events with a duration are only recorded
+ * if they last at least {@code crate.jmx.jfr.threshold}, allocations are sampled at most
+ * {@code crate.jmx.jfr.allocation_throttle} times per second, which keeps the overhead low.
+ */
+public final class JfrEvents {
+
+    private static final Logger LOGGER = Logger.getLogger(JfrEvents.class.getName());
+
+    private JfrEvents() {
+    }
+
+    public static void initialize() {
+        if (!AgentSettings.getBoolean("jfr.enabled", false)) {
+            return;
+        }
+        // allocation samples are only part of the defaults if the JVM provides them
+        boolean explicitEvents = AgentSettings.get("jfr.events", null) != null;
+        List<String> events = AgentSettings.getList("jfr.events", "safepoint,monitor_enter,thread_park,allocation");
+        Duration threshold = Duration.ofMillis(AgentSettings.getMillis("jfr.threshold", "10ms"));
+        String allocationThrottle = AgentSettings.get("jfr.allocation_throttle", "100/s");
+
+        Set<JfrEventCollector.Event> types = EnumSet.noneOf(JfrEventCollector.Event.class);
+        int feature = Runtime.version().feature();
+        for (String event : events) {
+            JfrEventCollector.Event type = JfrEventCollector.Event.of(event);
+            if (feature < type.since()) {
+                if (explicitEvents) {
+                    LOGGER.log(Level.WARNING, "JFR event " + event + " requires Java " + type.since()
+                                              + " or newer, it is not recorded");
+                }
+                continue;
+            }
+            types.add(type);
+        }
+        JfrEventCollector collector = new JfrEventCollector(types);
+        RecordingStream stream = new RecordingStream();
+        // the events are consumed right away, only keep a minimal amount in the disk repository
+        stream.setMaxAge(Duration.ofMinutes(1));
+        for (JfrEventCollector.Event type : types) {
+            if (type == JfrEventCollector.Event.ALLOCATION) {
+                stream.enable(type.jfrName()).with("throttle", allocationThrottle);
+            } else {
+                stream.enable(type.jfrName()).withThreshold(threshold);
+            }
+            stream.onEvent(type.jfrName(), e -> collector.record(type, e));
+        }
+        stream.onError(e -> LOGGER.log(Level.WARNING, "Failed to consume JFR events", e));
+        // RecordingStream#startAsync uses a non-daemon thread, which would keep the JVM from exiting
+        Thread thread = new Thread(stream::start, "crate-jmx-jfr");
+        thread.setDaemon(true);
+        thread.start();
+        collector.register();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AttributeNotificationsTest {
+
+    private static final String NAME = "io.crate.monitoring:type=DummyNotifyingStatus";
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @After
+    public void unregister() throws Exception {
+        if (server.isRegistered(new ObjectName(NAME))) {
+            server.unregisterMBean(new ObjectName(NAME));
+        }
+    }
+
+    @Test
+    public void testNotifiedAttributesAreCachedUntilReconcile() throws Exception {
+        ObjectName name = new ObjectName(NAME);
+        DummyNotifyingStatus status = new DummyNotifyingStatus();
+        server.registerMBean(status, name);
+        AtomicLong now = new AtomicLong();
+        AttributeNotifications notifications = new AttributeNotifications(server, 1000, now::get);
+        notifications.subscribe(name, server.getMBeanInfo(name));
+
+        // not notified yet
+        assertThat(notifications.cachedValue(name, "Ready"), sameInstance(AttributeNotifications.POLL));
+
+        status.setReady(true);
+        assertThat(notifications.cachedValue(name, "Ready"), is(true));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(notifications.cachedValue(name, "Ready"), sameInstance(AttributeNotifications.POLL));
+        notifications.polled(name, "Ready", true, notifications.pollSequence());
+        assertThat(notifications.cachedValue(name, "Ready"), is(true));
+
+        server.unregisterMBean(name);
+        assertThat(notifications.cachedValue(name, "Ready"), sameInstance(AttributeNotifications.POLL));
+    }
+
+    @Test
+    public void testNotificationReceivedWhilePollingIsNotOverwritten() throws Exception {
+        ObjectName name = new ObjectName(NAME);
+        DummyNotifyingStatus status = new DummyNotifyingStatus();
+        server.registerMBean(status, name);
+        AtomicLong now = new AtomicLong();
+        AttributeNotifications notifications = new AttributeNotifications(server, 1000, now::get);
+        notifications.subscribe(name, server.getMBeanInfo(name));
+        status.setReady(true);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(notifications.cachedValue(name, "Ready"), sameInstance(AttributeNotifications.POLL));
+        long pollSequence = notifications.pollSequence();
+        Object polled = status.isReady();
+        // the node stops accepting statements before the polled value is stored
+        status.setReady(false);
+        notifications.polled(name, "Ready", polled, pollSequence);
+        assertThat(notifications.cachedValue(name, "Ready"), is(false));
+    }
+
+    @SuppressWarnings("unused")
+    public interface DummyNotifyingStatusMBean {
+
+        boolean isReady();
+    }
+
+    public static class DummyNotifyingStatus extends NotificationBroadcasterSupport implements DummyNotifyingStatusMBean {
+
+        private volatile boolean ready;
+        private long sequence;
+
+        DummyNotifyingStatus() {
+            super(new MBeanNotificationInfo(
+                new String[]{AttributeChangeNotification.ATTRIBUTE_CHANGE},
+                AttributeChangeNotification.class.getName(),
+                "Ready state changes"));
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        void setReady(boolean ready) {
+            boolean old = this.ready;
+            this.ready = ready;
+            sendNotification(new AttributeChangeNotification(
+                this, ++sequence, System.currentTimeMillis(), "Ready changed", "Ready", "boolean", old, ready));
+        }
+    }
+}
@@ -37,6 +37,7 @@ import java.beans.ConstructorProperties;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
@@ -56,7 +57,9 @@ public class CrateCollectorTest {
 
     @Before
     public void setUpCollectorAndMbeanServer() {
-        crateCollector = new CrateCollector(beanAttributeValueStorage::put).register();
+        beanAttributeValueStorage.register("DummyStatus", "SomethingEnabled");
+        beanAttributeValueStorage.register("DummyStatus", "SelectStats");
+        crateCollector = new CrateCollector(beanAttributeValueStorage).register();
         mbeanServer = ManagementFactory.getPlatformMBeanServer();
     }
 
@@ -102,15 +105,18 @@ public class CrateCollectorTest {
             allSamples.stream().map(x -> x.name).collect(Collectors.toList()),
             contains(
                 "crate_queries",
+                "crate_query_duration_millis",
                 "crate_query_duration_seconds",
+                "crate_query_executions",
                 "crate_query_failed_count",
+                "crate_query_failures",
                 "crate_query_sum_of_durations_millis",
                 "crate_query_total_count"
             )
         );
 
 
-        Collector.MetricFamilySamples queryFailedCount = allSamples.get(2);
+        Collector.MetricFamilySamples queryFailedCount = allSamples.get(4);
         assertThat(queryFailedCount.name, is("crate_query_failed_count"));
         assertThat(queryFailedCount.samples.size(), is(8));
         for (var sample : queryFailedCount.samples) {
@@ -134,7 +140,7 @@ public class CrateCollectorTest {
             )
         );
 
-        var queryTotalCount = allSamples.get(4);
+        var queryTotalCount = allSamples.get(7);
         assertThat(queryTotalCount.name, is("crate_query_total_count"));
         assertThat(queryTotalCount.samples.size(), is(8));
 
@@ -165,15 +171,30 @@ public class CrateCollectorTest {
         assertThat(crateQueries.name, is("crate_queries"));
         assertThat(crateQueries.samples.size(), is(1));
 
-        var querySumOfDurationMillis = allSamples.get(3);
+        var querySumOfDurationMillis = allSamples.get(6);
         // metrics crate_query_sum_of_durations_millis is removed from 4.3.2, it only exists for bwc reasons with older versions
         assertThat(querySumOfDurationMillis.name, is("crate_query_sum_of_durations_millis"));
         assertThat(querySumOfDurationMillis.samples.size(), is(8));
 
-        var queryDurationSeconds = allSamples.get(1);
+        var queryDurationSeconds = allSamples.get(2);
         // metrics crate_query_sum_of_durations_millis is removed from 4.3.2, it only exists for bwc reasons with older versions
         assertThat(queryDurationSeconds.name, is("crate_query_duration_seconds"));
         assertThat(queryDurationSeconds.samples.size(), is(1));
+
+        var queryExecutions = allSamples.get(3);
+        assertThat(queryExecutions.type, is(Collector.Type.COUNTER));
+        // a _total and a _created sample for each query type
+        assertThat(queryExecutions.samples.size(), is(16));
+        for (var sample : queryExecutions.samples) {
+            if (sample.name.equals("crate_query_executions_total")) {
+                assertThat(sample.value, is(1.0));
+            } else {
+                assertThat(sample.name, is("crate_query_executions_created"));
+            }
+        }
+
+        assertThat(allSamples.get(1).type, is(Collector.Type.COUNTER));
+        assertThat(allSamples.get(5).type, is(Collector.Type.COUNTER));
     }
 
     @Test
@@ -181,11 +202,26 @@ public class CrateCollectorTest {
         mbeanServer.registerMBean(new Connections(), new ObjectName(Connections.NAME));
         CollectorRegistry registry = CollectorRegistry.defaultRegistry;
 
-        Enumeration<Collector.MetricFamilySamples> metrics = registry.metricFamilySamples();
+        List<Collector.MetricFamilySamples> families = Collections.list(registry.metricFamilySamples());
+        families.sort(Comparator.comparing(x -> x.name));
+        assertThat(families.size(), is(2));
 
-        Collector.MetricFamilySamples samples = metrics.nextElement();
-        assertThat(metrics.hasMoreElements(), is(false));
+        Collector.MetricFamilySamples counters = families.get(0);
+        assertThat(counters.name, is("crate_connection_stats"));
+        assertThat(counters.type, is(Collector.Type.COUNTER));
+        // only the monotonic `total` properties are counters
+        assertThat(
+            counters.samples.stream()
+                .filter(x -> x.name.equals("crate_connection_stats_total"))
+                .map(x -> String.join(", ", x.labelValues) + ": " + x.value)
+                .sorted()
+                .collect(Collectors.toList()),
+            contains("http, total: 2.0", "psql, total: 4.0")
+        );
+
+        Collector.MetricFamilySamples samples = families.get(1);
         assertThat(samples.name, is("crate_connections"));
+        assertThat(samples.type, is(Collector.Type.GAUGE));
 
         // make test deterministic
         samples.samples.sort(Comparator.comparing(c -> c.value));
@@ -254,6 +290,20 @@ public class CrateCollectorTest {
         assertThat(beanAttributeValueStorage.get("DummyStatus_SomethingEnabled"), is(false));
     }
 
+    @Test
+    public void testPartialCollectRetainsValuesOfOtherMBeans() throws Exception {
+        CrateDummyStatus dummyBean = new CrateDummyStatus();
+        mbeanServer.registerMBean(dummyBean, new ObjectName(CrateDummyStatus.NAME));
+        crateCollector.collect();
+
+        dummyBean.boolValue = false;
+        crateCollector.collect("type=QueryStats");
+        assertThat(beanAttributeValueStorage.get("DummyStatus_SomethingEnabled"), is(true));
+
+        crateCollector.collect("type=DummyStatus");
+        assertThat(beanAttributeValueStorage.get("DummyStatus_SomethingEnabled"), is(false));
+    }
+
     @Test
     public void testNodeInfoMBean() throws Exception {
         mbeanServer.registerMBean(new CrateDummyNodeInfo(), new ObjectName(CrateDummyNodeInfo.NAME));
@@ -303,6 +353,12 @@ public class CrateCollectorTest {
         assertThat(shardStatsSample.labelValues, is(Arrays.asList("shard_stats", "unassigned")));
         assertThat(shardStatsSample.value, is(0.0));
 
+        Collector.MetricFamilySamples droppedShardSeries = metrics.nextElement();
+        assertThat(droppedShardSeries.name, is("crate_shard_info_dropped_series"));
+        assertThat(droppedShardSeries.type, is(Collector.Type.GAUGE));
+        assertThat(droppedShardSeries.samples.get(0).name, is("crate_shard_info_dropped_series"));
+        assertThat(droppedShardSeries.samples.get(0).value, is(0.0));
+
         Collector.MetricFamilySamples clusterStateVersionSample = metrics.nextElement();
         assertThat(clusterStateVersionSample.name, is("crate_cluster_state_version"));
         Collector.MetricFamilySamples.Sample clusterStateSample = clusterStateVersionSample.samples.get(0);
@@ -0,0 +1,71 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class MBeanAttributeValueStorageTest {
+
+    @Test
+    public void testOnlyRegisteredAttributesArePublished() {
+        MBeanAttributeValueStorage storage = new MBeanAttributeValueStorage();
+        MBeanAttributeValueStorage.Attribute ready = storage.register("NodeStatus", "Ready");
+        MBeanAttributeValueStorage.Attribute version = storage.register("NodeInfo_ClusterStateVersion");
+
+        storage.begin(name -> true);
+        storage.put("NodeStatus", "Ready", true);
+        storage.put("NodeInfo", "ClusterStateVersion", 42L);
+        storage.put("NodeInfo", "NodeName", "node1");
+        assertThat(storage.get(ready), is(nullValue()));
+        storage.publish();
+
+        long stamp = storage.readStamp();
+        boolean isReady = storage.getBoolean(ready);
+        long clusterStateVersion = storage.getLong(version);
+        assertThat(storage.validate(stamp), is(true));
+        assertThat(isReady, is(true));
+        assertThat(clusterStateVersion, is(42L));
+        assertThat(storage.get("NodeStatus_Ready"), is(true));
+        assertThat(storage.get("NodeInfo_NodeName"), is(nullValue()));
+    }
+
+    @Test
+    public void testValuesOfMBeansNotCollectedAreRetained() {
+        MBeanAttributeValueStorage storage = new MBeanAttributeValueStorage();
+        MBeanAttributeValueStorage.Attribute ready = storage.register("NodeStatus", "Ready");
+        MBeanAttributeValueStorage.Attribute nodeName = storage.register("NodeInfo", "NodeName");
+        storage.begin(name -> true);
+        storage.put("NodeStatus", "Ready", true);
+        storage.put("NodeInfo", "NodeName", "node1");
+        storage.publish();
+
+        storage.begin("NodeStatus"::equals);
+        storage.publish();
+        assertThat(storage.get(ready), is(nullValue()));
+        assertThat(storage.get(nodeName), is("node1"));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class MBeanPropertyCacheTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void testPropertiesAreParsedInOrder() throws Exception {
+        MBeanPropertyCache cache = new MBeanPropertyCache(server, 10);
+        ObjectName name = new ObjectName("io.crate.monitoring:type=ThreadPools,name=\"search, \\\"write\\\"\",empty=");
+        Map<String, String> properties = cache.getKeyPropertyList(name);
+        assertThat(properties.keySet(), contains("type", "name", "empty"));
+        assertThat(properties.get("type"), is("ThreadPools"));
+        assertThat(properties.get("name"), is("\"search, \\\"write\\\"\""));
+        assertThat(properties.get("empty"), is(""));
+        assertThat(cache.getKeyPropertyList(new ObjectName(name.getCanonicalName())), sameInstance(properties));
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        MBeanPropertyCache cache = new MBeanPropertyCache(server, 2);
+        for (String type : List.of("A", "B", "C")) {
+            cache.getKeyPropertyList(new ObjectName("io.crate.monitoring:type=" + type));
+        }
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void testEntriesOfUnregisteredMBeansAreEvicted() throws Exception {
+        MBeanPropertyCache cache = new MBeanPropertyCache(server, 10);
+        ObjectName name = new ObjectName("io.crate.monitoring:type=DummyPropertyCache");
+        server.registerMBean(new Dummy(), name);
+        cache.getKeyPropertyList(name);
+        assertThat(cache.size(), is(1));
+        server.unregisterMBean(name);
+        assertThat(cache.size(), is(0));
+    }
+
+    public interface DummyMBean {
+    }
+
+    private static class Dummy implements DummyMBean {
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.format;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ProtobufFormatTest {
+
+    @Test
+    public void testGaugeFamilyIsWrittenAsDelimitedMessage() {
+        MetricFamilySamples mfs = new MetricFamilySamples(
+            "g",
+            Collector.Type.GAUGE,
+            "h",
+            List.of(new Sample("g", List.of("a"), List.of("b"), 1.0)));
+
+        ProtobufWriter writer = new ProtobufWriter(4);
+        ProtobufFormat.write(writer, Collections.enumeration(List.of(mfs)));
+
+        byte[] expected = new byte[]{
+            0x1d,                                   // delimited length: 29
+            0x0a, 0x01, 'g',                        // name
+            0x12, 0x01, 'h',                        // help
+            0x18, 0x01,                             // type: GAUGE
+            0x22, 0x13,                             // metric, 19 bytes
+            0x0a, 0x06, 0x0a, 0x01, 'a', 0x12, 0x01, 'b',   // label a="b"
+            0x12, 0x09, 0x09, 0, 0, 0, 0, 0, 0, (byte) 0xF0, 0x3F // gauge value 1.0
+        };
+        assertThat(writer.toByteArray(), is(expected));
+    }
+
+    @Test
+    public void testCounterMergesTotalAndCreatedSamples() {
+        MetricFamilySamples mfs = new MetricFamilySamples(
+            "c",
+            Collector.Type.COUNTER,
+            "",
+            List.of(
+                new Sample("c_total", List.of(), List.of(), 2.0),
+                new Sample("c_created", List.of(), List.of(), 10.5)));
+
+        ProtobufWriter writer = new ProtobufWriter();
+        ProtobufFormat.write(writer, mfs);
+
+        byte[] expected = new byte[]{
+            0x22,                                   // delimited length: 34
+            0x0a, 0x07, 'c', '_', 't', 'o', 't', 'a', 'l', // name
+            0x18, 0x00,                             // type: COUNTER
+            0x22, 0x15,                             // metric, 21 bytes
+            0x1a, 0x13,                             // counter, 19 bytes
+            0x09, 0, 0, 0, 0, 0, 0, 0, 0x40,        // value 2.0
+            0x1a, 0x08, 0x08, 0x0a, 0x10, (byte) 0x80, (byte) 0xca, (byte) 0xb5, (byte) 0xee, 0x01 // created 10.5s
+        };
+        assertThat(writer.toByteArray(), is(expected));
+    }
+
+    @Test
+    public void testLargeNestedMessageLengthIsMovedInPlace() {
+        ProtobufWriter writer = new ProtobufWriter(8);
+        int marker = writer.beginMessage(1);
+        String value = "x".repeat(300);
+        writer.writeString(2, value);
+        writer.endMessage(marker);
+
+        byte[] bytes = writer.toByteArray();
+        // tag, 2 byte length (303), inner tag, 2 byte length (300), payload
+        assertThat(bytes.length, is(1 + 2 + 1 + 2 + 300));
+        assertThat(bytes[1] & 0xFF, is(0xAF));
+        assertThat(bytes[2] & 0xFF, is(0x02));
+        assertThat(bytes[bytes.length - 1], is((byte) 'x'));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.format;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class SnappyTest {
+
+    @Test
+    public void testUncompressLiteralAndOverlappingCopy() throws IOException {
+        byte[] compressed = new byte[]{
+            0x0c,                       // uncompressed length: 12
+            0x0c, 'a', 'b', 'c', 'd',   // literal "abcd"
+            0x11, 0x04                  // copy with 1 byte offset: length 8, offset 4
+        };
+        byte[] uncompressed = Snappy.uncompress(compressed, 0, compressed.length);
+        assertThat(new String(uncompressed, StandardCharsets.US_ASCII), is("abcdabcdabcd"));
+    }
+
+    @Test
+    public void testRoundTripOfRepetitiveInputSpanningMultipleBlocks() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("crate_node{name=\"thread_pools\",property=\"queueSize\",id=\"").append(i % 7).append("\"} 0.0\n");
+        }
+        byte[] input = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = Snappy.compress(input, 0, input.length);
+
+        assertThat(compressed.length, lessThan(input.length / 10));
+        assertThat(Snappy.uncompress(compressed, 0, compressed.length), is(input));
+    }
+
+    @Test
+    public void testRoundTripOfIncompressibleInput() throws IOException {
+        byte[] input = new byte[100_000];
+        new Random(42).nextBytes(input);
+        byte[] compressed = Snappy.compress(input, 0, input.length);
+
+        assertThat(compressed.length <= Snappy.maxCompressedLength(input.length), is(true));
+        assertThat(Snappy.uncompress(compressed, 0, compressed.length), is(input));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUncompressRejectsCopyBeforeStartOfOutput() throws IOException {
+        byte[] compressed = new byte[]{0x08, 0x11, 0x04};
+        Snappy.uncompress(compressed, 0, compressed.length);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.history;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class HistorySamplerTest {
+
+    @Test
+    public void testRingKeepsNewestEntries() {
+        HistoryRing ring = new HistoryRing(3);
+        ring.add(1000, 1);
+        ring.add(2000, 2);
+        ring.add(3500, 3);
+        ring.add(4000, 4);
+        ring.add(6000, 5);
+        assertThat(ring.size(), is(3));
+        assertThat(entries(ring, 0), contains("3500=3.0", "4000=4.0", "6000=5.0"));
+        assertThat(entries(ring, 4000), contains("4000=4.0", "6000=5.0"));
+    }
+
+    @Test
+    public void testRingWithCapacityOne() {
+        HistoryRing ring = new HistoryRing(1);
+        ring.add(1000, 1);
+        ring.add(2000, 2);
+        assertThat(entries(ring, 0), contains("2000=2.0"));
+    }
+
+    @Test
+    public void testSamplesAreRecordedPerSeries() {
+        AtomicLong now = new AtomicLong(10_000);
+        List<String> patterns = new ArrayList<>();
+        double[] queueSize = {5};
+        HistorySampler sampler = new HistorySampler(
+            pattern -> {
+                patterns.add(pattern);
+                return List.of(new MetricFamilySamples("crate_threadpools", Collector.Type.GAUGE, "", List.of(
+                    new Sample("crate_threadpools", List.of("name", "property"), List.of("search", "queueSize"), queueSize[0]),
+                    new Sample("crate_threadpools", List.of("name", "property"), List.of("write", "queueSize"), 0))));
+            },
+            List.of("ThreadPools"), 1000, 60_000, 1, now::get);
+
+        sampler.sample();
+        now.addAndGet(1000);
+        queueSize[0] = 7;
+        sampler.sample();
+
+        assertThat(patterns, contains("type=ThreadPools", "type=ThreadPools"));
+        // only one series is allowed, the samples of the other are dropped
+        assertThat(sampler.droppedSamples(), is(2L));
+        List<HistorySampler.Series> series = sampler.series("crate_threadpools");
+        assertThat(series.size(), is(1));
+
+        assertThat(HistoryFormat.toJson("crate_threadpools", series, 0), is(
+            "{\"name\":\"crate_threadpools\",\"series\":[{\"labels\":{\"name\":\"search\",\"property\":\"queueSize\"},"
+            + "\"start_ms\":10000,\"deltas_ms\":[0,1000],\"values\":[5,7]}]}"));
+        assertThat(HistoryFormat.toCsv(series, 10_500), is(
+            "timestamp_ms,labels,value\n11000,name=search;property=queueSize,7.0\n"));
+    }
+
+    @Test
+    public void testStaleSeriesAreEvictedAndTheirRingsReused() {
+        AtomicLong now = new AtomicLong(10_000);
+        String[] pool = {"search"};
+        HistorySampler sampler = new HistorySampler(
+            pattern -> List.of(new MetricFamilySamples("crate_threadpools", Collector.Type.GAUGE, "", List.of(
+                new Sample("crate_threadpools", List.of("name"), List.of(pool[0]), 1)))),
+            List.of("ThreadPools"), 1000, 2000, 1, now::get);
+
+        sampler.sample();
+        HistorySampler.Series search = sampler.series("crate_threadpools").get(0);
+        pool[0] = "write";
+        for (int i = 0; i < 2; i++) {
+            now.addAndGet(1000);
+            sampler.sample();
+        }
+        // the search series was seen within the retention period, so there is no room for the write series yet
+        assertThat(sampler.droppedSamples(), is(2L));
+        assertThat(sampler.series("crate_threadpools").get(0), is(search));
+
+        now.addAndGet(1000);
+        sampler.sample();
+        List<HistorySampler.Series> series = sampler.series("crate_threadpools");
+        assertThat(series.size(), is(1));
+        assertThat(series.get(0).labelValues, contains("write"));
+        assertThat(series.get(0).ring, is(search.ring));
+        assertThat(HistoryFormat.toCsv(series, 0), is("timestamp_ms,labels,value\n13000,name=write,1.0\n"));
+        // the evicted series doesn't return the samples of the series now using its ring
+        assertThat(HistoryFormat.toCsv(List.of(search), 0), is("timestamp_ms,labels,value\n"));
+
+        List<MetricFamilySamples> statistics = new HistoryStatistics(sampler).collect();
+        assertThat(statistics.get(0).samples.get(0).value, is(1.0));
+        assertThat(statistics.get(1).samples.get(0).name, is("crate_jmx_history_dropped_samples_total"));
+        assertThat(statistics.get(1).samples.get(0).value, is(2.0));
+    }
+
+    private static List<String> entries(HistoryRing ring, long fromMs) {
+        List<String> entries = new ArrayList<>();
+        ring.forEach(fromMs, (timestampMs, value) -> entries.add(timestampMs + "=" + value));
+        return entries;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.http;
+
+import io.crate.jmx.jvm.HotThreads;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThrows;
+
+public class HttpHotThreadsHandlerTest {
+
+    @Test
+    public void testParseRequest() {
+        HttpHotThreadsHandler.Request request = HttpHotThreadsHandler.Request.parse(null);
+        assertThat(request.intervalMs, is(500L));
+        assertThat(request.threads, is(3));
+        assertThat(request.snapshots, is(10));
+        assertThat(request.json, is(false));
+
+        request = HttpHotThreadsHandler.Request.parse("interval=2s&threads=5&snapshots=20&format=json");
+        assertThat(request.intervalMs, is(2000L));
+        assertThat(request.threads, is(5));
+        assertThat(request.snapshots, is(20));
+        assertThat(request.json, is(true));
+    }
+
+    @Test
+    public void testParseInvalidRequest() {
+        assertThrows(IllegalArgumentException.class, () -> HttpHotThreadsHandler.Request.parse("interval=1h"));
+        assertThrows(IllegalArgumentException.class, () -> HttpHotThreadsHandler.Request.parse("threads=0"));
+        assertThrows(IllegalArgumentException.class, () -> HttpHotThreadsHandler.Request.parse("format=xml"));
+        assertThrows(IllegalArgumentException.class, () -> HttpHotThreadsHandler.Request.parse("foo=bar"));
+    }
+
+    @Test
+    public void testOverlappingRequestIsRejectedWithoutBlockingTheHttpThread() throws Exception {
+        HotThreads hotThreads = new HotThreads(ManagementFactory.getThreadMXBean());
+        // a single HTTP thread, a second request could not be served while it is blocked by the first one
+        ExecutorService httpThread = Executors.newSingleThreadExecutor();
+        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(httpThread);
+        server.createContext("/debug/hot_threads", new HttpHotThreadsHandler(hotThreads));
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                         + "/debug/hot_threads";
+            CompletableFuture<HttpResponse<String>> first = client.sendAsync(
+                HttpRequest.newBuilder(URI.create(url + "?interval=5s&snapshots=1")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+            // wait until the first request is being sampled on the dedicated thread
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(4);
+            while (!isSampling() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            HttpResponse<String> rejected = client.send(
+                HttpRequest.newBuilder(URI.create(url + "?interval=0ms")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertThat(rejected.statusCode(), is(HttpHotThreadsHandler.HTTP_TOO_MANY_REQUESTS));
+            assertThat(rejected.body(), is("Hot threads are already being sampled\n"));
+            assertThat(first.isDone(), is(false));
+            assertThat(first.get(30, TimeUnit.SECONDS).statusCode(), is(200));
+        } finally {
+            server.stop(0);
+            httpThread.shutdownNow();
+        }
+    }
+
+    private static boolean isSampling() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("crate-jmx-hot-threads") && thread.getState() == Thread.State.TIMED_WAITING) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.http;
+
+import io.prometheus.client.Collector;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class HttpMetricHandlerTest {
+
+    @Test
+    public void testMissingAcceptHeaderFallsBackToText() {
+        assertThat(HttpMetricHandler.negotiate(null), is(HttpMetricHandler.Format.TEXT_004));
+        assertThat(HttpMetricHandler.negotiate(List.of("application/json")), is(HttpMetricHandler.Format.TEXT_004));
+    }
+
+    @Test
+    public void testPrometheusProtobufAcceptHeader() {
+        String accept = "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.7," +
+                        "text/plain;version=0.0.4;q=0.3,*/*;q=0.1";
+        assertThat(HttpMetricHandler.negotiate(List.of(accept)), is(HttpMetricHandler.Format.PROTOBUF));
+    }
+
+    @Test
+    public void testHigherQualityWins() {
+        String accept = "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.2," +
+                        "text/plain;version=0.0.4;q=0.5";
+        assertThat(HttpMetricHandler.negotiate(List.of(accept)), is(HttpMetricHandler.Format.TEXT_004));
+    }
+
+    @Test
+    public void testProtobufWithoutDelimitedEncodingIsNotSupported() {
+        String accept = "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=text";
+        assertThat(HttpMetricHandler.negotiate(List.of(accept)), is(HttpMetricHandler.Format.TEXT_004));
+    }
+
+    @Test
+    public void testOpenMetricsAcceptHeader() {
+        String accept = "application/openmetrics-text;version=1.0.0,text/plain;version=0.0.4;q=0.5,*/*;q=0.1";
+        assertThat(HttpMetricHandler.negotiate(List.of(accept)), is(HttpMetricHandler.Format.OPENMETRICS_100));
+    }
+
+    @Test
+    public void testCreatedSamplesAreRemovedForTextFormat() {
+        var counter = new Collector.MetricFamilySamples(
+            "c",
+            Collector.Type.COUNTER,
+            "",
+            List.of(
+                new Collector.MetricFamilySamples.Sample("c_total", List.of(), List.of(), 2.0),
+                new Collector.MetricFamilySamples.Sample("c_created", List.of(), List.of(), 10.0)));
+        var gauge = new Collector.MetricFamilySamples(
+            "g",
+            Collector.Type.GAUGE,
+            "",
+            List.of(new Collector.MetricFamilySamples.Sample("g", List.of(), List.of(), 1.0)));
+
+        var families = Collections.list(
+            HttpMetricHandler.withoutCreatedSamples(Collections.enumeration(List.of(counter, gauge))));
+
+        assertThat(families.size(), is(2));
+        assertThat(families.get(0).samples.size(), is(1));
+        assertThat(families.get(0).samples.get(0).name, is("c_total"));
+        assertThat(families.get(1), is(gauge));
+    }
+}
@@ -81,6 +81,11 @@ public class MetricsITest extends AbstractITest {
         assertMetricValue("crate_query_sum_of_durations_millis{query=\"DDL\",} ");
         assertMetricValue("crate_query_sum_of_durations_millis{query=\"Copy\",} ");
         assertMetricValue("crate_query_sum_of_durations_millis{query=\"Undefined\",} ");
+
+        assertMetricValue("crate_query_executions_total{query=\"Select\",} ");
+        assertMetricValue("crate_query_failures_total{query=\"Select\",} ");
+        assertMetricValue("crate_query_duration_millis_total{query=\"Select\",} ");
+        assertMetricValue("crate_query_affected_rows_total{query=\"Select\",} ");
     }
 
     @Test
@@ -103,6 +108,9 @@ public class MetricsITest extends AbstractITest {
         assertMetricValue("crate_connections{protocol=\"transport\",property=\"bytesreceived\",} ");
         assertMetricValue("crate_connections{protocol=\"transport\",property=\"messagessent\",} ");
         assertMetricValue("crate_connections{protocol=\"transport\",property=\"bytessent\",} ");
+
+        assertMetricValue("crate_connection_stats_total{protocol=\"psql\",property=\"total\",} ");
+        assertMetricValue("crate_connection_stats_total{protocol=\"http\",property=\"bytessent\",} ");
     }
 
     @Test
@@ -0,0 +1,119 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class ContentionCollectorTest {
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void testBlockedThreadsAreCountedPerPool() throws Exception {
+        boolean monitoringEnabled = threadBean.isThreadContentionMonitoringEnabled();
+        ContentionCollector collector = new ContentionCollector(threadBean, 1000, 1000, 100);
+        Object lock = new Object();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch sampled = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            blocked.countDown();
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            try {
+                sampled.await();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }, "contention-test-1");
+        try {
+            synchronized (lock) {
+                thread.start();
+                blocked.await();
+                while (thread.getState() != Thread.State.BLOCKED) {
+                    Thread.sleep(1);
+                }
+            }
+            collector.sample();
+            sampled.countDown();
+            thread.join();
+
+            List<MetricFamilySamples> mfs = collector.collect();
+            assertThat(value(mfs, "jvm_threads_pool_blocked", "contention-test"), is(1.0));
+            assertThat(value(mfs, "jvm_threads_pool_blocked_seconds", "contention-test"), greaterThanOrEqualTo(0.0));
+            assertThat(collector.isEnabled(), is(true));
+
+            // retained after the thread stopped
+            collector.sample();
+            assertThat(value(collector.collect(), "jvm_threads_pool_blocked", "contention-test"), is(1.0));
+        } finally {
+            threadBean.setThreadContentionMonitoringEnabled(monitoringEnabled);
+        }
+    }
+
+    @Test
+    public void testSamplingIsDisabledIfOverBudget() {
+        boolean monitoringEnabled = threadBean.isThreadContentionMonitoringEnabled();
+        AtomicLong now = new AtomicLong();
+        // every sample appears to take 1s
+        ContentionCollector collector = new ContentionCollector(
+            threadBean, 1000, 100, 100, () -> now.getAndAdd(TimeUnit.SECONDS.toNanos(1)));
+        try {
+            for (int i = 0; i < ContentionCollector.MAX_OVER_BUDGET - 1; i++) {
+                collector.sample();
+                assertThat(collector.isEnabled(), is(true));
+            }
+            collector.sample();
+            assertThat(collector.isEnabled(), is(false));
+            assertThat(value(collector.collect(), "jvm_threads_contention_sampling_enabled", null), is(0.0));
+        } finally {
+            threadBean.setThreadContentionMonitoringEnabled(monitoringEnabled);
+        }
+    }
+
+    private static double value(List<MetricFamilySamples> mfs, String family, String pool) {
+        for (MetricFamilySamples mf : mfs) {
+            if (mf.name.equals(family)) {
+                for (Sample sample : mf.samples) {
+                    if (pool == null || sample.labelValues.get(0).equals(pool)) {
+                        return sample.value;
+                    }
+                }
+            }
+        }
+        throw new AssertionError("missing sample " + family + " " + pool);
+    }
+}
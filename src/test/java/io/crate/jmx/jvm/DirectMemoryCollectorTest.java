@@ -0,0 +1,98 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class DirectMemoryCollectorTest {
+
+    @Test
+    public void testNettyIsLookedUpOncePerMinuteIfAbsent() {
+        AtomicInteger nettyLookups = new AtomicInteger();
+        Function<String, Class<?>> loadedClass = name -> {
+            nettyLookups.incrementAndGet();
+            return null;
+        };
+        AtomicLong now = new AtomicLong();
+        DirectMemoryCollector collector = new DirectMemoryCollector(loadedClass, now::get);
+
+        List<MetricFamilySamples> mfs = collector.collect();
+        assertThat(mfs.size(), is(1));
+        assertThat(mfs.get(0).name, is("jvm_direct_memory_max_bytes"));
+        assertThat(mfs.get(0).samples.get(0).value, greaterThan(0.0));
+        assertThat(nettyLookups.get(), is(1));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        assertThat(collector.collect().size(), is(1));
+        assertThat(nettyLookups.get(), is(1));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(collector.collect().size(), is(1));
+        assertThat(nettyLookups.get(), is(2));
+    }
+
+    @Test
+    public void testNettyAllocatorMetricsOnceLoaded() {
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(1024);
+        try {
+            DirectMemoryCollector collector = new DirectMemoryCollector(
+                name -> name.equals(PooledByteBufAllocator.class.getName()) ? PooledByteBufAllocator.class : null,
+                System::nanoTime);
+            Map<String, MetricFamilySamples> mfs = new LinkedHashMap<>();
+            for (MetricFamilySamples family : collector.collect()) {
+                mfs.put(family.name, family);
+            }
+            // followed by netty_direct_memory_* if Netty tracks its direct memory
+            assertThat(List.copyOf(mfs.keySet()).subList(0, 5), is(List.of(
+                "jvm_direct_memory_max_bytes",
+                "netty_allocator_arenas",
+                "netty_allocator_used_bytes",
+                "netty_allocator_thread_local_caches",
+                "netty_allocator_arena_allocations")));
+
+            MetricFamilySamples.Sample usedDirect = mfs.get("netty_allocator_used_bytes").samples.get(1);
+            assertThat(usedDirect.labelValues, is(List.of("direct")));
+            assertThat(usedDirect.value, greaterThan(0.0));
+            MetricFamilySamples.Sample allocations = mfs.get("netty_allocator_arena_allocations").samples.get(1);
+            assertThat(allocations.name, is("netty_allocator_arena_allocations_total"));
+            assertThat(allocations.value, greaterThan(0.0));
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class GcNotificationCollectorTest {
+
+    private static final String EDEN = "G1 Eden Space";
+    private static final String OLD = "G1 Old Gen";
+
+    @Test
+    public void testPausesAreRecordedIntoHistogram() {
+        GcNotificationCollector collector = new GcNotificationCollector();
+        collector.record("G1 Young Generation", "end of minor GC", 3, Map.of(), Map.of());
+        collector.record("G1 Young Generation", "end of minor GC", 3000, Map.of(), Map.of());
+
+        MetricFamilySamples pauses = family(collector.collect(), "jvm_gc_pause_seconds");
+        assertThat(value(pauses, "jvm_gc_pause_seconds_bucket", "0.001"), is(0.0));
+        assertThat(value(pauses, "jvm_gc_pause_seconds_bucket", "0.005"), is(1.0));
+        assertThat(value(pauses, "jvm_gc_pause_seconds_bucket", "2.5"), is(1.0));
+        assertThat(value(pauses, "jvm_gc_pause_seconds_bucket", "5.0"), is(2.0));
+        assertThat(value(pauses, "jvm_gc_pause_seconds_bucket", "+Inf"), is(2.0));
+        assertThat(value(pauses, "jvm_gc_pause_seconds_count", null), is(2.0));
+        assertThat(value(pauses, "jvm_gc_pause_seconds_sum", null), is(3.003));
+    }
+
+    @Test
+    public void testConcurrentCyclesAreNotRecordedAsPauses() {
+        GcNotificationCollector collector = new GcNotificationCollector();
+        collector.record("ZGC Cycles", "end of GC cycle", 4000, Map.of(), Map.of());
+        collector.record("G1 Concurrent GC", "end of concurrent GC pause", 2000, Map.of(), Map.of());
+        collector.record("ZGC Pauses", "end of GC pause", 1, Map.of(), Map.of());
+
+        List<MetricFamilySamples> mfs = collector.collect();
+        MetricFamilySamples pauses = family(mfs, "jvm_gc_pause_seconds");
+        assertThat(value(pauses, "jvm_gc_pause_seconds_count", null), is(1.0));
+        assertThat(pauses.samples.get(0).labelValues.get(0), is("ZGC Pauses"));
+
+        MetricFamilySamples concurrent = family(mfs, "jvm_gc_concurrent_phase_seconds");
+        double count = 0;
+        for (Sample sample : concurrent.samples) {
+            if (sample.name.equals("jvm_gc_concurrent_phase_seconds_count")) {
+                count += sample.value;
+            }
+        }
+        assertThat(count, is(2.0));
+    }
+
+    @Test
+    public void testAllocatedAndPromotedBytes() {
+        GcNotificationCollector collector = new GcNotificationCollector();
+        collector.record("G1 Young Generation", "end of minor GC", 10,
+            Map.of(EDEN, usage(100), OLD, usage(1000)),
+            Map.of(EDEN, usage(0), OLD, usage(1040)));
+        collector.record("G1 Young Generation", "end of minor GC", 10,
+            Map.of(EDEN, usage(80), OLD, usage(1040)),
+            Map.of(EDEN, usage(10), OLD, usage(1050)));
+        collector.record("G1 Young Generation", "end of minor GC", 10,
+            Map.of(EDEN, usage(50), OLD, usage(1050)),
+            Map.of(EDEN, usage(0), OLD, usage(1050)));
+
+        List<MetricFamilySamples> mfs = collector.collect();
+        assertThat(family(mfs, "jvm_gc_allocated_bytes").samples.get(0).value, is(100.0 + 80.0 + 40.0));
+        assertThat(family(mfs, "jvm_gc_promoted_bytes").samples.get(0).value, is(50.0));
+        assertThat(value(family(mfs, "jvm_gc_pool_before_bytes"), OLD), is(1050.0));
+        assertThat(value(family(mfs, "jvm_gc_pool_after_bytes"), EDEN), is(0.0));
+    }
+
+    private static MemoryUsage usage(long used) {
+        return new MemoryUsage(0, used, 2000, 2000);
+    }
+
+    private static MetricFamilySamples family(List<MetricFamilySamples> mfs, String name) {
+        for (MetricFamilySamples family : mfs) {
+            if (family.name.equals(name)) {
+                return family;
+            }
+        }
+        throw new AssertionError("missing family " + name);
+    }
+
+    private static double value(MetricFamilySamples family, String pool) {
+        for (Sample sample : family.samples) {
+            if (sample.labelValues.get(0).equals(pool)) {
+                return sample.value;
+            }
+        }
+        throw new AssertionError("missing pool " + pool);
+    }
+
+    private static double value(MetricFamilySamples family, String name, String le) {
+        for (Sample sample : family.samples) {
+            if (sample.name.equals(name) && (le == null || sample.labelValues.get(2).equals(le))) {
+                return sample.value;
+            }
+        }
+        throw new AssertionError("missing sample " + name + " " + le);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class HotThreadsTest {
+
+    private volatile boolean stop;
+
+    @Test
+    public void testBusyThreadIsReportedWithMergedStacks() throws Exception {
+        Thread busy = new Thread(() -> {
+            long x = 0;
+            while (!stop) {
+                x += System.nanoTime() % 7;
+            }
+            if (x == 42) {
+                System.out.println(x);
+            }
+        }, "hot-threads-test");
+        busy.start();
+        try {
+            HotThreads.Report report = new HotThreads(ManagementFactory.getThreadMXBean()).sample(200, 1, 5);
+            List<HotThreads.HotThread> threads = report.threads();
+            assertThat(threads.size(), is(1));
+            HotThreads.HotThread hot = threads.get(0);
+            assertThat(hot.name(), is("hot-threads-test"));
+            assertThat(hot.stacks().values().stream().mapToInt(Integer::intValue).sum(), is(5));
+
+            assertThat(report.toText(), containsString("cpu usage by thread 'hot-threads-test'"));
+            assertThat(report.toJson(), containsString("\"name\":\"hot-threads-test\""));
+        } finally {
+            stop = true;
+            busy.join();
+        }
+    }
+}
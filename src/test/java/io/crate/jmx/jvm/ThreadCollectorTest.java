@@ -0,0 +1,112 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+
+public class ThreadCollectorTest {
+
+    @Test
+    public void testPoolNames() {
+        assertThat(ThreadPoolNames.poolName("cratedb[node1][search][T#3]"), is("search"));
+        assertThat(ThreadPoolNames.poolName("elasticsearch[node1][netty-worker][T#1]"), is("netty-worker"));
+        assertThat(ThreadPoolNames.poolName("pool-1-thread-12"), is("pool-1-thread"));
+        assertThat(ThreadPoolNames.poolName("C2 CompilerThread0"), is("C2 CompilerThread"));
+        assertThat(ThreadPoolNames.poolName("Reference Handler"), is("Reference Handler"));
+    }
+
+    @Test
+    public void testThreadStatesAreSampledOncePerInterval() throws Exception {
+        AtomicLong now = new AtomicLong();
+        ThreadCollector collector = new ThreadCollector(
+            ManagementFactory.getThreadMXBean(), 1000, true, 1000, false, now::get);
+
+        List<MetricFamilySamples> mfs = collector.collect();
+        MetricFamilySamples states = family(mfs, "jvm_threads_state");
+        assertThat(states.samples.size(), is(Thread.State.values().length));
+        assertThat(states.samples.get(Thread.State.RUNNABLE.ordinal()).value >= 1, is(true));
+        assertThat(family(mfs, "jvm_threads_deadlocked"), is((MetricFamilySamples) null));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }, "sampled-test-1");
+        thread.start();
+        try {
+            // served from the cached sample
+            assertThat(poolStates(collector.collect(), "sampled-test"), is(empty()));
+
+            now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            List<String> poolStates = poolStates(collector.collect(), "sampled-test");
+            assertThat(poolStates.size(), is(1));
+        } finally {
+            latch.countDown();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testPoolsAboveMaximumAreCountedAsOther() {
+        ThreadCollector collector = new ThreadCollector(ManagementFactory.getThreadMXBean(), 1000, true, 1, true);
+        List<MetricFamilySamples> mfs = collector.collect();
+        MetricFamilySamples poolStates = family(mfs, "jvm_threads_pool_state");
+        Set<String> pools = poolStates.samples.stream().map(s -> s.labelValues.get(0)).collect(Collectors.toSet());
+        assertThat(pools.size(), is(2));
+        assertThat(pools, hasItem(ThreadCollector.OTHER_POOL));
+        assertThat(family(mfs, "jvm_threads_deadlocked").samples.get(0).value, is(0.0));
+    }
+
+    private static List<String> poolStates(List<MetricFamilySamples> mfs, String pool) {
+        return family(mfs, "jvm_threads_pool_state").samples.stream()
+            .filter(s -> s.labelValues.get(0).equals(pool))
+            .map(s -> s.labelValues.get(1))
+            .collect(Collectors.toList());
+    }
+
+    private static MetricFamilySamples family(List<MetricFamilySamples> mfs, String name) {
+        for (MetricFamilySamples family : mfs) {
+            if (family.name.equals(name)) {
+                return family;
+            }
+        }
+        return null;
+    }
+}
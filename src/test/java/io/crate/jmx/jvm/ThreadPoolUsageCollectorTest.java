@@ -0,0 +1,128 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import com.sun.management.ThreadMXBean;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class ThreadPoolUsageCollectorTest {
+
+    @Test
+    public void testUsageOfStoppedThreadsIsRetained() throws Exception {
+        ThreadPoolUsageCollector collector = new ThreadPoolUsageCollector(
+            (ThreadMXBean) ManagementFactory.getThreadMXBean(), 1000);
+        assertThat(value(collector.collect(), "jvm_threads_pool_allocated_bytes", "usage-test"), is(0.0));
+
+        Thread thread = new Thread(() -> {
+            long sum = 0;
+            for (int i = 0; i < 10_000; i++) {
+                sum += new long[16].length;
+            }
+            if (sum == 0) {
+                throw new AssertionError();
+            }
+        }, "usage-test-1");
+        thread.start();
+        thread.join();
+        double allocated = value(collector.collect(), "jvm_threads_pool_allocated_bytes", "usage-test");
+        // the thread was started and stopped between the scrapes, so it is never seen alive
+        assertThat(allocated, is(0.0));
+
+        ThreadWithLatch running = new ThreadWithLatch("usage-test-2");
+        List<MetricFamilySamples> mfs = collector.collect();
+        allocated = value(mfs, "jvm_threads_pool_allocated_bytes", "usage-test");
+        assertThat(allocated, greaterThan(0.0));
+        assertThat(value(mfs, "jvm_threads_pool_cpu_seconds", "usage-test"), greaterThanOrEqualTo(0.0));
+
+        // retained after the thread stopped
+        running.stop();
+        assertThat(value(collector.collect(), "jvm_threads_pool_allocated_bytes", "usage-test"), is(allocated));
+    }
+
+    private static double value(List<MetricFamilySamples> mfs, String family, String pool) {
+        for (MetricFamilySamples mf : mfs) {
+            if (mf.name.equals(family)) {
+                for (Sample sample : mf.samples) {
+                    if (sample.labelValues.get(0).equals(pool)) {
+                        return sample.value;
+                    }
+                }
+            }
+        }
+        return 0.0;
+    }
+
+    private static final class ThreadWithLatch {
+
+        private final Object lock = new Object();
+        private final Thread thread;
+        private boolean started;
+        private boolean stop;
+
+        ThreadWithLatch(String name) throws InterruptedException {
+            thread = new Thread(this::run, name);
+            thread.start();
+            synchronized (lock) {
+                while (!started) {
+                    lock.wait();
+                }
+            }
+        }
+
+        private void run() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                sb.append(i);
+            }
+            synchronized (lock) {
+                started = sb.length() > 0;
+                lock.notifyAll();
+                while (!stop) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        void stop() throws InterruptedException {
+            synchronized (lock) {
+                stop = true;
+                lock.notifyAll();
+            }
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class OtlpProtocolTest {
+
+    private final BlockingQueue<byte[]> requests = new LinkedBlockingQueue<>();
+    private HttpServer collector;
+    private PushQueue queue;
+
+    @Before
+    public void startCollector() throws IOException {
+        collector = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        collector.createContext("/v1/metrics", exchange -> {
+            try (InputStream in = new GZIPInputStream(exchange.getRequestBody())) {
+                requests.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        collector.start();
+    }
+
+    @After
+    public void stop() {
+        if (queue != null) {
+            queue.close();
+        }
+        collector.stop(0);
+    }
+
+    @Test
+    public void testFamiliesAreExportedAsResourceMetricsOfTheNode() throws Exception {
+        CollectorRegistry registry = new CollectorRegistry();
+        new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                List<String> labels = List.of("protocol");
+                MetricFamilySamples counter = new MetricFamilySamples("crate_ops", Type.COUNTER, "ops", List.of(
+                    new Sample("crate_ops_total", labels, List.of("http"), 5),
+                    new Sample("crate_ops_created", labels, List.of("http"), 1.5)));
+                MetricFamilySamples histogram = new MetricFamilySamples("crate_size", Type.HISTOGRAM, "size", List.of(
+                    new Sample("crate_size_bucket", List.of("le"), List.of("1.0"), 2),
+                    new Sample("crate_size_bucket", List.of("le"), List.of("10.0"), 3),
+                    new Sample("crate_size_bucket", List.of("le"), List.of("+Inf"), 5),
+                    new Sample("crate_size_count", List.of(), List.of(), 5),
+                    new Sample("crate_size_sum", List.of(), List.of(), 7.5)));
+                return List.of(counter, histogram);
+            }
+        }.register(registry);
+
+        Map<String, Object> storage = new HashMap<>();
+        storage.put(OtlpProtocol.NODE_ID_ATTRIBUTE, "node1");
+        PushSettings settings = new PushSettings();
+        settings.url = "http://127.0.0.1:" + collector.getAddress().getPort() + "/v1/metrics";
+        settings.batchSendDeadlineMs = 10;
+        settings.shards = 1;
+        PushProtocol protocol = new OtlpProtocol(Map.of("deployment.environment", "test"), storage::get);
+        queue = new PushQueue(protocol, new PushClient(new URL(settings.url), protocol, 5000, null, null), settings);
+        queue.start();
+        new PushExporter(registry, queue, 1000, "test").push();
+
+        byte[] request = requests.poll(10, TimeUnit.SECONDS);
+        assertThat(request, notNullValue());
+        Map<Integer, List<Object>> resourceMetrics = message(decode(request), 1);
+
+        List<String> attributes = new ArrayList<>();
+        for (Object attribute : message(resourceMetrics, 1).get(1)) {
+            Map<Integer, List<Object>> keyValue = decode((byte[]) attribute);
+            attributes.add(string(keyValue, 1) + "=" + string(message(keyValue, 2), 1));
+        }
+        assertThat(attributes, is(List.of("service.name=cratedb", "service.instance.id=node1", "deployment.environment=test")));
+
+        List<Object> metrics = message(resourceMetrics, 2).get(2);
+        assertThat(metrics.size(), is(2));
+
+        Map<Integer, List<Object>> counter = decode((byte[]) metrics.get(0));
+        assertThat(string(counter, 1), is("crate_ops"));
+        Map<Integer, List<Object>> sum = message(counter, 7);
+        assertThat(sum.get(2).get(0), is(2L));   // cumulative
+        assertThat(sum.get(3).get(0), is(1L));   // monotonic
+        Map<Integer, List<Object>> counterPoint = message(sum, 1);
+        assertThat(counterPoint.get(2).get(0), is(1_500_000_000L));
+        assertThat(Double.longBitsToDouble((Long) counterPoint.get(4).get(0)), is(5.0));
+
+        Map<Integer, List<Object>> histogram = decode((byte[]) metrics.get(1));
+        assertThat(string(histogram, 1), is("crate_size"));
+        Map<Integer, List<Object>> histogramPoint = message(message(histogram, 9), 1);
+        assertThat(histogramPoint.get(4).get(0), is(5L));
+        assertThat(Double.longBitsToDouble((Long) histogramPoint.get(5).get(0)), is(7.5));
+        ByteBuffer counts = ByteBuffer.wrap((byte[]) histogramPoint.get(6).get(0)).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat(List.of(counts.getLong(), counts.getLong(), counts.getLong()), is(List.of(2L, 1L, 2L)));
+        ByteBuffer bounds = ByteBuffer.wrap((byte[]) histogramPoint.get(7).get(0)).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat(List.of(bounds.getDouble(), bounds.getDouble()), is(List.of(1.0, 10.0)));
+    }
+
+    private static Map<Integer, List<Object>> message(Map<Integer, List<Object>> parent, int field) throws IOException {
+        return decode((byte[]) parent.get(field).get(0));
+    }
+
+    private static String string(Map<Integer, List<Object>> message, int field) {
+        return new String((byte[]) message.get(field).get(0), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a protobuf message into its fields, with varint and fixed64 values as long and everything else as
+     * byte array.
+     */
+    private static Map<Integer, List<Object>> decode(byte[] message) throws IOException {
+        Map<Integer, List<Object>> fields = new HashMap<>();
+        ByteArrayInputStream in = new ByteArrayInputStream(message);
+        while (in.available() > 0) {
+            long tag = readVarint(in);
+            Object value;
+            switch ((int) (tag & 7)) {
+                case 0:
+                    value = readVarint(in);
+                    break;
+                case 1:
+                    value = ByteBuffer.wrap(in.readNBytes(8)).order(ByteOrder.LITTLE_ENDIAN).getLong();
+                    break;
+                case 2:
+                    value = in.readNBytes((int) readVarint(in));
+                    break;
+                default:
+                    throw new IOException("Unexpected wire type in tag " + tag);
+            }
+            fields.computeIfAbsent((int) (tag >>> 3), k -> new ArrayList<>()).add(value);
+        }
+        return fields;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import com.sun.net.httpserver.HttpServer;
+import io.crate.jmx.format.Snappy;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.GaugeMetricFamily;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PushExporterTest {
+
+    private final BlockingQueue<Integer> responses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<byte[]> requests = new LinkedBlockingQueue<>();
+    private HttpServer receiver;
+    private PushExporter exporter;
+
+    @Before
+    public void startReceiver() throws IOException {
+        receiver = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        receiver.createContext("/api/v1/write", exchange -> {
+            assertThat(exchange.getRequestHeaders().getFirst("Content-Encoding"), is("snappy"));
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] body = in.readAllBytes();
+                requests.add(Snappy.uncompress(body, 0, body.length));
+            }
+            Integer status = responses.poll();
+            exchange.sendResponseHeaders(status == null ? 204 : status, -1);
+            exchange.close();
+        });
+        receiver.start();
+    }
+
+    @After
+    public void stop() {
+        if (exporter != null) {
+            exporter.close();
+        }
+        receiver.stop(0);
+    }
+
+    private PushExporter createExporter() throws IOException {
+        return createExporter(null);
+    }
+
+    private PushExporter createExporter(String walDir) throws IOException {
+        CollectorRegistry registry = new CollectorRegistry();
+        new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                GaugeMetricFamily gauge = new GaugeMetricFamily("crate_test", "help", List.of("pool"));
+                gauge.addMetric(List.of("search"), 3.0);
+                return List.of(gauge);
+            }
+        }.register(registry);
+        PushSettings settings = new PushSettings();
+        settings.url = "http://127.0.0.1:" + receiver.getAddress().getPort() + "/api/v1/write";
+        settings.batchSendDeadlineMs = 10;
+        settings.minBackoffMs = 1;
+        settings.maxBackoffMs = 1;
+        settings.maxRetries = 2;
+        settings.shards = 1;
+        settings.walDir = walDir;
+        PushProtocol protocol = new RemoteWriteProtocol(Map.of("job", "crate"));
+        PushClient client = new PushClient(new URL(settings.url), protocol, 5000, null, null);
+        PushQueue queue = new PushQueue(protocol, client, settings);
+        queue.start();
+        exporter = new PushExporter(registry, queue, 1000, "test");
+        return exporter;
+    }
+
+    @Test
+    public void testSamplesArePushedAsSortedRemoteWriteTimeSeries() throws Exception {
+        createExporter().push();
+
+        byte[] request = requests.poll(10, TimeUnit.SECONDS);
+        assertThat(request, notNullValue());
+        String body = new String(request, StandardCharsets.UTF_8);
+        // labels of the time series, sorted by name: __name__, job, pool
+        int name = body.indexOf("__name__");
+        int job = body.indexOf("job");
+        int pool = body.indexOf("pool");
+        assertThat(name >= 0 && name < job && job < pool, is(true));
+        assertThat(body, containsString("crate_test"));
+        assertThat(body, containsString("search"));
+        assertThat(body, containsString("help"));
+    }
+
+    @Test
+    public void testServerErrorsAreRetriedAndClientErrorsAreNot() throws Exception {
+        responses.add(503);
+        responses.add(400);
+        createExporter().push();
+
+        assertThat(requests.poll(10, TimeUnit.SECONDS), notNullValue());
+        assertThat(requests.poll(10, TimeUnit.SECONDS), notNullValue());
+        assertThat(requests.poll(200, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void testBufferedSamplesAreSentAfterOutage() throws Exception {
+        Path walDir = Files.createTempDirectory("wal");
+        try {
+            responses.add(503);
+            responses.add(503);
+            createExporter(walDir.toString()).push();
+
+            // 2 failed attempts, then the buffered batch is sent
+            for (int i = 0; i < 3; i++) {
+                assertThat(requests.poll(10, TimeUnit.SECONDS), notNullValue());
+            }
+            assertThat(requests.poll(200, TimeUnit.MILLISECONDS), nullValue());
+        } finally {
+            exporter.close();
+            exporter = null;
+            try (Stream<Path> paths = Files.walk(walDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.push;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class WriteAheadLogTest {
+
+    private final AtomicLong dropped = new AtomicLong();
+    private Path dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("wal");
+    }
+
+    @After
+    public void deleteDir() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private WriteAheadLog open(int segmentSize, long maxSize) throws IOException {
+        return new WriteAheadLog(dir, segmentSize, maxSize, 60_000, dropped::addAndGet);
+    }
+
+    private static byte[] payload(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String next(WriteAheadLog wal, long now) throws IOException {
+        WriteAheadLog.Record record = wal.peek(now);
+        if (record == null) {
+            return null;
+        }
+        wal.commit();
+        return new String(record.payload, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testUnsentRecordsAreReplayedAfterReopenAcrossSegments() throws IOException {
+        WriteAheadLog wal = open(64, 1024);
+        for (int i = 0; i < 5; i++) {
+            wal.append(payload("record-" + i), 1, 1000);
+        }
+        assertThat(next(wal, 1000), is("record-0"));
+        assertThat(next(wal, 1000), is("record-1"));
+        wal.close();
+
+        wal = open(64, 1024);
+        assertThat(next(wal, 1000), is("record-2"));
+        assertThat(next(wal, 1000), is("record-3"));
+        assertThat(next(wal, 1000), is("record-4"));
+        assertThat(next(wal, 1000), nullValue());
+        assertThat(wal.hasPending(), is(false));
+        wal.close();
+
+        // consumed segments are deleted, only the active one is left
+        try (Stream<Path> segments = Files.list(dir).filter(p -> p.toString().endsWith(".seg"))) {
+            assertThat(segments.count(), is(1L));
+        }
+    }
+
+    @Test
+    public void testCorruptRecordIsSkipped() throws IOException {
+        WriteAheadLog wal = open(1024, 4096);
+        wal.append(payload("first"), 1, 1000);
+        wal.append(payload("second"), 1, 1000);
+        wal.close();
+
+        try (RandomAccessFile segment = new RandomAccessFile(dir.resolve(String.format("%020d.seg", 1)).toFile(), "rw")) {
+            segment.seek(WriteAheadLog.HEADER_SIZE + 1);
+            segment.write('X');
+        }
+
+        wal = open(1024, 4096);
+        assertThat(next(wal, 1000), is("second"));
+        assertThat(next(wal, 1000), nullValue());
+        wal.close();
+    }
+
+    @Test
+    public void testOldestSegmentsAndExpiredRecordsAreDropped() throws IOException {
+        // 2 records of 28 bytes fit into a segment, the first segment is evicted when the third is created
+        WriteAheadLog wal = open(64, 128);
+        for (int i = 0; i < 6; i++) {
+            wal.append(payload("record-" + i), 10, 1000);
+        }
+        assertThat(wal.sizeInBytes() <= 128, is(true));
+        assertThat(dropped.get(), is(20L));
+        assertThat(next(wal, 1000), is("record-2"));
+
+        // the remaining 3 records are expired
+
+        assertThat(next(wal, 1000 + 60_001), nullValue());
+        assertThat(dropped.get(), is(50L));
+        wal.close();
+    }
+
+    @Test
+    public void testSizeCountsFullSegments() throws IOException {
+        WriteAheadLog wal = open(64, 1024);
+        assertThat(wal.sizeInBytes(), is(64L));
+        wal.append(payload("record-0"), 1, 1000);
+        assertThat(wal.sizeInBytes(), is(64L));
+        wal.append(payload("record-1"), 1, 1000);
+        wal.append(payload("record-2"), 1, 1000);
+        assertThat(wal.sizeInBytes(), is(128L));
+
+        assertThat(next(wal, 1000), is("record-0"));
+        assertThat(next(wal, 1000), is("record-1"));
+        assertThat(next(wal, 1000), is("record-2"));
+        assertThat(wal.sizeInBytes(), is(64L));
+        wal.close();
+    }
+
+    @Test
+    public void testOrphanedLogIsMigrated() throws IOException {
+        Path orphanDir = dir.resolve("shard-1");
+        WriteAheadLog orphan = new WriteAheadLog(orphanDir, 64, 1024, 60_000, dropped::addAndGet);
+        orphan.append(payload("orphan-0"), 1, 1000);
+        orphan.append(payload("orphan-1"), 1, 1000);
+        orphan.append(payload("orphan-2"), 1, 1000);
+        assertThat(next(orphan, 1000), is("orphan-0"));
+        orphan.close();
+
+        WriteAheadLog wal = new WriteAheadLog(dir.resolve("shard-0"), 64, 1024, 60_000, dropped::addAndGet);
+        wal.append(payload("record-0"), 1, 1000);
+        WriteAheadLog.migrate(orphanDir, wal, 1000);
+        assertThat(Files.exists(orphanDir), is(false));
+
+        assertThat(next(wal, 1000), is("record-0"));
+        assertThat(next(wal, 1000), is("orphan-1"));
+        assertThat(next(wal, 1000), is("orphan-2"));
+        assertThat(next(wal, 1000), nullValue());
+        assertThat(dropped.get(), is(0L));
+        wal.close();
+    }
+}
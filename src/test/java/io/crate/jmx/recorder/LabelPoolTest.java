@@ -0,0 +1,66 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class LabelPoolTest {
+
+    @Test
+    public void testCanonicalInstancesAreReturned() {
+        LabelPool pool = new LabelPool(100, 2);
+        String generic = pool.intern(new String("generic"));
+        assertThat(pool.intern(new String("generic")), sameInstance(generic));
+        assertThat(pool.lowerCase(new String("GENERIC")), sameInstance(generic));
+        assertThat(pool.lowerCase(new String("Generic")), sameInstance(generic));
+        assertThat(pool.size(), is(3));
+    }
+
+    @Test
+    public void testUnusedEntriesAreEvicted() {
+        LabelPool pool = new LabelPool(100, 2);
+        String used = pool.lowerCase("Search");
+        String unused = pool.intern(new String("write"));
+        for (int i = 0; i < 4; i++) {
+            pool.nextScrape();
+            assertThat(pool.lowerCase("Search"), sameInstance(used));
+        }
+        assertThat(pool.size(), is(2));
+        assertThat(pool.intern(new String("write")), not(sameInstance(unused)));
+    }
+
+    @Test
+    public void testValuesAreNotPooledAboveMaxSize() {
+        LabelPool pool = new LabelPool(1, 2);
+        pool.intern("search");
+        String write = new String("write");
+        assertThat(pool.intern(write), sameInstance(write));
+        assertThat(pool.intern(new String("write")), not(sameInstance(write)));
+        assertThat(pool.size(), is(1));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class NodeInfoTest {
+
+    private static CompositeData shard(int id, String table, boolean primary, long size) throws OpenDataException {
+        String[] names = {"shardId", "schema", "table", "partitionIdent", "primary", "size"};
+        CompositeType type = new CompositeType(
+            "ShardInfo", "ShardInfo", names, names,
+            new OpenType<?>[]{SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING,
+                SimpleType.BOOLEAN, SimpleType.LONG});
+        return new CompositeDataSupport(type, names, new Object[]{id, "doc", table, "", primary, size});
+    }
+
+    private static CompositeData[] shards(long... sizes) throws OpenDataException {
+        CompositeData[] shards = new CompositeData[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            shards[i] = shard(i, "t", true, sizes[i]);
+        }
+        return shards;
+    }
+
+    private static List<Sample> record(NodeInfo nodeInfo, CompositeData[] shards) {
+        List<Sample> samples = new ArrayList<>();
+        nodeInfo.recordBean("crate", "ShardInfo", shards, (sample, type, help) -> samples.add(sample));
+        return samples;
+    }
+
+    @Test
+    public void testAllShardsAreRecordedWithinBudget() throws Exception {
+        List<Sample> samples = record(new NodeInfo(3, NodeInfo.ShardInfoMode.SHARDS, true, false), shards(10, 20, 30));
+        assertThat(samples.size(), is(4));
+        assertThat(samples.get(3).name, is("crate_shard_info_dropped_series"));
+        assertThat(samples.get(3).value, is(0.0));
+    }
+
+    @Test
+    public void testLargestShardsAndOtherBucketAreRecordedAboveBudget() throws Exception {
+        NodeInfo nodeInfo = new NodeInfo(4, NodeInfo.ShardInfoMode.SHARDS, true, false);
+        List<Sample> samples = record(nodeInfo, shards(5, 50, 1, 40, 7, 30, 2));
+        Sample dropped = samples.get(samples.size() - 1);
+        assertThat(dropped.name, is("crate_shard_info_dropped_series"));
+        assertThat(dropped.value, is(4.0));
+
+        samples = samples.subList(0, samples.size() - 1);
+        samples.sort(Comparator.comparing((Sample s) -> s.labelValues.get(1)).thenComparing(s -> -s.value));
+        assertThat(samples.size(), is(4));
+        // largest 3 shards
+        assertThat(samples.get(0).labelValues.get(2), is("1"));
+        assertThat(samples.get(0).value, is(50.0));
+        assertThat(samples.get(1).labelValues.get(2), is("3"));
+        assertThat(samples.get(1).value, is(40.0));
+        assertThat(samples.get(2).labelValues.get(2), is("5"));
+        assertThat(samples.get(2).value, is(30.0));
+        // the remaining 4 shards
+        assertThat(samples.get(3).labelValues.get(2), is(NodeInfo.OTHER_SHARDS));
+        assertThat(samples.get(3).value, is(15.0));
+
+        // the gauge is the number of series dropped by the last collect only
+        samples = record(nodeInfo, shards(5, 50, 1, 40, 7, 30, 2));
+        assertThat(samples.get(samples.size() - 1).value, is(4.0));
+        samples = record(nodeInfo, shards(5, 50));
+        assertThat(samples.get(samples.size() - 1).value, is(0.0));
+    }
+
+    @Test
+    public void testRollupsAreRecordedPerTableAndPrimary() throws Exception {
+        CompositeData[] shards = {
+            shard(0, "t1", true, 10), shard(1, "t1", true, 30), shard(0, "t1", false, 10), shard(0, "t2", true, 5)
+        };
+        List<Sample> samples = record(new NodeInfo(0, NodeInfo.ShardInfoMode.ROLLUP, false, false), shards);
+
+        Map<String, Double> values = new HashMap<>();
+        for (Sample sample : samples) {
+            values.put(sample.name + sample.labelValues, sample.value);
+        }
+        assertThat(values.size(), is(9));
+        assertThat(values.get("crate_table_size_bytes[doc, t1, true]"), is(40.0));
+        assertThat(values.get("crate_table_shards[doc, t1, true]"), is(2.0));
+        assertThat(values.get("crate_table_max_shard_size_bytes[doc, t1, true]"), is(30.0));
+        assertThat(values.get("crate_table_size_bytes[doc, t1, false]"), is(10.0));
+        assertThat(values.get("crate_table_shards[doc, t2, true]"), is(1.0));
+    }
+
+    @Test
+    public void testShardsAreUpdatedIncrementally() throws Exception {
+        NodeInfo nodeInfo = new NodeInfo(0, NodeInfo.ShardInfoMode.SHARDS, true, false);
+        List<Sample> first = record(nodeInfo, new CompositeData[]{shard(0, "t1", true, 10), shard(1, "t1", true, 20)});
+        List<Sample> second = record(nodeInfo, new CompositeData[]{shard(1, "t1", true, 25), shard(0, "t2", true, 5)});
+
+        assertThat(second.size(), is(2));
+        // label values of known shards are reused, only their sizes are updated
+        assertThat(second.get(0).labelValues, sameInstance(first.get(1).labelValues));
+        assertThat(second.get(0).value, is(25.0));
+        assertThat(second.get(1).labelValues.get(4), is("t2"));
+        assertThat(second.get(1).value, is(5.0));
+    }
+
+    @Test
+    public void testShardSizeHistogramsArePerNodeAndTable() throws Exception {
+        CompositeData[] shards = {
+            shard(0, "t1", true, 1024), shard(1, "t1", true, 3L << 20), shard(0, "t2", true, 5L << 40)
+        };
+        List<Sample> samples = record(new NodeInfo(0, NodeInfo.ShardInfoMode.ROLLUP, true, true), shards);
+
+        Map<String, Double> values = new HashMap<>();
+        for (Sample sample : samples) {
+            values.put(sample.name + sample.labelValues, sample.value);
+        }
+        assertThat(values.get("crate_shard_size_bytes_bucket[1048576.0]"), is(1.0));
+        assertThat(values.get("crate_shard_size_bytes_bucket[4194304.0]"), is(2.0));
+        assertThat(values.get("crate_shard_size_bytes_bucket[1.099511627776E12]"), is(2.0));
+        assertThat(values.get("crate_shard_size_bytes_bucket[+Inf]"), is(3.0));
+        assertThat(values.get("crate_shard_size_bytes_count[]"), is(3.0));
+        assertThat(values.get("crate_table_shard_size_bytes_bucket[doc, t1, 4194304.0]"), is(2.0));
+        assertThat(values.get("crate_table_shard_size_bytes_sum[doc, t1]"), is((double) (1024 + (3L << 20))));
+        assertThat(values.get("crate_table_shard_size_bytes_count[doc, t2]"), is(1.0));
+    }
+}
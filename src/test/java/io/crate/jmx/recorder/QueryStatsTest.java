@@ -0,0 +1,99 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.recorder;
+
+import io.prometheus.client.Collector;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class QueryStatsTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final QueryStats queryStats = new QueryStats(60_000, now::get);
+
+    @Test
+    public void testRatesAndAverageDurationOverWindow() {
+        assertThat(collect(100, 10, 5_000, 0).isEmpty(), is(true));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        // within the first window there is nothing to compare with
+        assertThat(collect(130, 10, 6_000, 0).isEmpty(), is(true));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Map<String, Double> samples = collect(160, 16, 9_000, 0);
+        assertThat(samples.get("crate_query_rate"), is(1.0));
+        assertThat(samples.get("crate_query_failure_rate"), is(0.1));
+        assertThat(samples.get("crate_query_average_duration_seconds"), is(4.0 / 60));
+
+        // compared to the same baseline until the next rotation
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        samples = collect(190, 16, 10_000, 0);
+        assertThat(samples.get("crate_query_rate"), is(1.0));
+        assertThat(samples.get("crate_query_failure_rate"), is(6.0 / 90));
+    }
+
+    @Test
+    public void testCounterResetIsCountedFromZero() {
+        collect(100, 10, 5_000, 0);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        collect(160, 10, 5_000, 0);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        Map<String, Double> samples = collect(12, 0, 0, 0);
+        assertThat(samples.get("crate_query_rate"), is(12.0 / 60));
+        assertThat(samples.get("crate_query_average_duration_seconds"), is(0.0));
+    }
+
+    @Test
+    public void testNoRatesIfQueryStatsAreNotCollected() {
+        collect(100, 10, 5_000, 0);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        queryStats.reset();
+        Map<String, Double> samples = new HashMap<>();
+        queryStats.endCollect("crate", (sample, type, help) -> samples.put(sample.name, sample.value));
+        assertThat(samples.isEmpty(), is(true));
+    }
+
+    private Map<String, Double> collect(long total, long failed, long sumOfDurations, long affectedRows) {
+        queryStats.reset();
+        Map<String, Double> samples = new HashMap<>();
+        MetricSampleConsumer consumer = (sample, type, help) -> {
+            if (sample.name.endsWith("_rate") || sample.name.endsWith("_average_duration_seconds")) {
+                assertThat(type, is(Collector.Type.GAUGE));
+                assertThat(sample.labelValues.get(0), is("Select"));
+                samples.put(sample.name, sample.value);
+            }
+        };
+        queryStats.recordBean("crate", "SelectQueryTotalCount", total, consumer);
+        queryStats.recordBean("crate", "SelectQueryFailedCount", failed, consumer);
+        queryStats.recordBean("crate", "SelectQuerySumOfDurations", sumOfDurations, consumer);
+        queryStats.recordBean("crate", "SelectQueryAffectedRowCount", affectedRows, consumer);
+        queryStats.endCollect("crate", consumer);
+        return samples;
+    }
+}
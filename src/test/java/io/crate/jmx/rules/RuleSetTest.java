@@ -0,0 +1,203 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.rules;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.Collector.Type;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThrows;
+
+public class RuleSetTest {
+
+    private static MetricFamilySamples threadPools() {
+        return new MetricFamilySamples("crate_threadpools", Type.GAUGE, "Statistics of thread pools", List.of(
+            threadPool("search", "active", 3),
+            threadPool("search", "queueSize", 10),
+            threadPool("write", "active", 1),
+            threadPool("write", "queueSize", 0),
+            threadPool("generic", "active", 5)
+        ));
+    }
+
+    private static Sample threadPool(String name, String property, double value) {
+        return new Sample("crate_threadpools", List.of("name", "property"), List.of(name, property), value);
+    }
+
+    private static MetricFamilySamples family(List<MetricFamilySamples> families, String name) {
+        for (MetricFamilySamples family : families) {
+            if (family.name.equals(name)) {
+                return family;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testAggregationsByAndWithoutLabels() {
+        RuleSet rules = RuleSet.parse(List.of(
+            "# thread pools",
+            "crate_threadpools_sum = sum(crate_threadpools) by (property)",
+            "",
+            "crate_threadpools_max_active = max(crate_threadpools{property=\"active\"}) without (name)",
+            "crate_threadpools_min_active = min(crate_threadpools{property=\"active\", name!=\"generic\"})",
+            "crate_threadpools_count = count(crate_threadpools{property=\"active\"})"
+        ), false);
+
+        List<MetricFamilySamples> result = rules.evaluate(List.of(threadPools()));
+        assertThat(result.size(), is(5));
+
+        MetricFamilySamples sum = family(result, "crate_threadpools_sum");
+        assertThat(sum.type, is(Type.GAUGE));
+        assertThat(sum.samples.size(), is(2));
+        assertThat(sum.samples.get(0).labelNames, is(List.of("property")));
+        assertThat(sum.samples.get(0).labelValues, is(List.of("active")));
+        assertThat(sum.samples.get(0).value, is(9.0));
+        assertThat(sum.samples.get(1).labelValues, is(List.of("queueSize")));
+        assertThat(sum.samples.get(1).value, is(10.0));
+
+        Sample max = family(result, "crate_threadpools_max_active").samples.get(0);
+        assertThat(max.labelNames, is(List.of("property")));
+        assertThat(max.value, is(5.0));
+
+        Sample min = family(result, "crate_threadpools_min_active").samples.get(0);
+        assertThat(min.labelNames.isEmpty(), is(true));
+        assertThat(min.value, is(1.0));
+
+        assertThat(family(result, "crate_threadpools_count").samples.get(0).value, is(3.0));
+    }
+
+    @Test
+    public void testRatioIsOnlyEmittedForGroupsWithBothSides() {
+        RuleSet rules = RuleSet.parse(List.of(
+            "crate_threadpools_queue_per_active = ratio(crate_threadpools{property=\"queueSize\"}, "
+            + "crate_threadpools{property=\"active\"}) by (name)"
+        ), false);
+
+        MetricFamilySamples ratio = family(rules.evaluate(List.of(threadPools())), "crate_threadpools_queue_per_active");
+        assertThat(ratio.samples.size(), is(2));
+        assertThat(ratio.samples.get(0).labelValues, is(List.of("search")));
+        assertThat(ratio.samples.get(0).value, is(10.0 / 3));
+        assertThat(ratio.samples.get(1).labelValues, is(List.of("write")));
+        assertThat(ratio.samples.get(1).value, is(0.0));
+    }
+
+    @Test
+    public void testMatchedSamplesAreDroppedAndStateIsResetPerEvaluation() {
+        RuleSet rules = RuleSet.parse(List.of(
+            "crate_threadpools_active = sum(crate_threadpools{property=\"active\"})",
+            "crate_ready_nodes = count(crate_ready{name=\"none\"})"
+        ), true);
+        MetricFamilySamples other = new MetricFamilySamples(
+            "crate_ready", Type.GAUGE, "help", List.of(new Sample("crate_ready", List.of(), List.of(), 1)));
+
+        rules.evaluate(List.of(threadPools(), other));
+        List<MetricFamilySamples> result = rules.evaluate(List.of(threadPools(), other));
+        assertThat(result.size(), is(3));
+        // only the matched samples are dropped
+        assertThat(result.get(0).name, is("crate_threadpools"));
+        assertThat(result.get(0).samples.size(), is(2));
+        assertThat(result.get(0).samples.get(0).labelValues, is(List.of("search", "queueSize")));
+        assertThat(result.get(0).samples.get(1).labelValues, is(List.of("write", "queueSize")));
+        assertThat(result.get(1), is(other));
+        assertThat(result.get(2).name, is("crate_threadpools_active"));
+        assertThat(result.get(2).samples.get(0).value, is(9.0));
+
+        // no derived family if the source is missing
+        assertThat(rules.evaluate(List.of(other)).size(), is(1));
+    }
+
+    @Test
+    public void testGroupsOfMissingSamplesAreRemoved() {
+        RuleSet rules = RuleSet.parse(List.of("crate_threadpools_active = sum(crate_threadpools) by (name)"), false);
+        rules.evaluate(List.of(threadPools()));
+
+        MetricFamilySamples write = new MetricFamilySamples(
+            "crate_threadpools", Type.GAUGE, "", List.of(threadPool("write", "active", 2)));
+        for (int i = 0; i < 2; i++) {
+            MetricFamilySamples sum = family(rules.evaluate(List.of(write)), "crate_threadpools_active");
+            assertThat(sum.samples.size(), is(1));
+            assertThat(sum.samples.get(0).labelValues, is(List.of("write")));
+            assertThat(sum.samples.get(0).value, is(2.0));
+        }
+    }
+
+    @Test
+    public void testRuleNamedLikeCollectedFamilyIsSkipped() {
+        RuleSet rules = RuleSet.parse(List.of(
+            "crate_ready = sum(crate_threadpools)",
+            "crate_threadpools_active = sum(crate_threadpools{property=\"active\"})"
+        ), false);
+        MetricFamilySamples ready = new MetricFamilySamples(
+            "crate_ready", Type.GAUGE, "help", List.of(new Sample("crate_ready", List.of(), List.of(), 1)));
+
+        List<MetricFamilySamples> result = rules.evaluate(List.of(threadPools(), ready));
+        assertThat(result.size(), is(3));
+        assertThat(result.get(1), is(ready));
+        assertThat(result.get(2).name, is("crate_threadpools_active"));
+    }
+
+    @Test
+    public void testInvalidRulesAreRejectedWithLine() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> RuleSet.parse(List.of(
+            "# comment",
+            "crate_a = avg(crate_threadpools)"
+        ), false));
+        assertThat(e.getMessage(), containsString("line 2: unknown operation 'avg'"));
+
+        e = assertThrows(IllegalArgumentException.class, () -> RuleSet.parse(List.of(
+            "crate_a = sum(crate_threadpools{name=\"search)"
+        ), false));
+        assertThat(e.getMessage(), containsString("unterminated string"));
+
+        e = assertThrows(IllegalArgumentException.class, () -> RuleSet.parse(List.of(
+            "crate_a = ratio(crate_threadpools) by (name)"
+        ), false));
+        assertThat(e.getMessage(), containsString("expected ','"));
+
+        e = assertThrows(IllegalArgumentException.class, () -> RuleSet.parse(List.of(
+            "crate_a = sum(crate_threadpools) by (name",
+            "crate_a = sum(crate_threadpools)"
+        ), false));
+        assertThat(e.getMessage(), containsString("line 1: expected ','"));
+
+        e = assertThrows(IllegalArgumentException.class, () -> RuleSet.parse(List.of(
+            "crate_a = sum(crate_threadpools)",
+            "crate_a = max(crate_threadpools)"
+        ), false));
+        assertThat(e.getMessage(), containsString("line 2: duplicate rule 'crate_a'"));
+
+        e = assertThrows(IllegalArgumentException.class, () -> RuleSet.parse(List.of(
+            "crate_a = sum(crate_b)",
+            "crate_b = sum(crate_threadpools)"
+        ), false));
+        assertThat(e.getMessage(), containsString(
+            "line 2: rule 'crate_b' is named like the samples read by rule 'crate_a'"));
+    }
+}
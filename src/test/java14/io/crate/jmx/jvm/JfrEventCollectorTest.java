@@ -0,0 +1,80 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.jmx.jvm;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThrows;
+
+public class JfrEventCollectorTest {
+
+    @Test
+    public void testEventsAreAggregatedPerType() {
+        JfrEventCollector collector = new JfrEventCollector(
+            EnumSet.of(JfrEventCollector.Event.SAFEPOINT, JfrEventCollector.Event.ALLOCATION));
+        collector.recordDuration(JfrEventCollector.Event.SAFEPOINT, 500_000_000L);
+        collector.recordDuration(JfrEventCollector.Event.SAFEPOINT, 2_000_000_000L);
+        collector.recordAllocation(1024);
+        collector.recordAllocation(2048);
+
+        List<MetricFamilySamples> mfs = collector.collect();
+        assertThat(mfs.size(), is(3));
+
+        MetricFamilySamples safepoints = mfs.get(0);
+        assertThat(safepoints.name, is("jvm_jfr_safepoint_seconds"));
+        assertThat(value(safepoints, "jvm_jfr_safepoint_seconds_bucket", "0.5"), is(1.0));
+        assertThat(value(safepoints, "jvm_jfr_safepoint_seconds_bucket", "2.5"), is(2.0));
+        assertThat(value(safepoints, "jvm_jfr_safepoint_seconds_count", null), is(2.0));
+        assertThat(value(safepoints, "jvm_jfr_safepoint_seconds_sum", null), is(2.5));
+
+        assertThat(mfs.get(1).samples.get(0).name, is("jvm_jfr_allocation_samples_total"));
+        assertThat(mfs.get(1).samples.get(0).value, is(2.0));
+        assertThat(mfs.get(2).samples.get(0).name, is("jvm_jfr_allocation_sampled_bytes_total"));
+        assertThat(mfs.get(2).samples.get(0).value, is(3072.0));
+    }
+
+    @Test
+    public void testEventNamesAreValidated() {
+        assertThat(JfrEventCollector.Event.of("Monitor_Enter"), is(JfrEventCollector.Event.MONITOR_ENTER));
+        IllegalArgumentException e = assertThrows(
+            IllegalArgumentException.class, () -> JfrEventCollector.Event.of("gc"));
+        assertThat(e.getMessage(), containsString("Invalid value 'gc' for setting crate.jmx.jfr.events"));
+    }
+
+    private static double value(MetricFamilySamples mfs, String name, String le) {
+        for (Sample sample : mfs.samples) {
+            if (sample.name.equals(name) && (le == null || sample.labelValues.get(0).equals(le))) {
+                return sample.value;
+            }
+        }
+        throw new AssertionError("No sample " + name + " with le=" + le);
+    }
+}